@@ -0,0 +1,255 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces an {@link AdmissionPolicy} for a factory or a column family.
+ * Rate limits reserve their token first, so waiting operations are admitted
+ * in order and an operation that would wait too long is rejected at once.
+ * Caps on the operations in flight are taken after the rate limit, so an
+ * operation waiting for its token does not hold a slot others could use.
+ * A controller for a column family has the controller of its factory as
+ * parent, operations have to be admitted by both: first by the column
+ * family, then by the factory, so a throttled column family does not take
+ * the factory wide capacity of the others while it waits.
+ */
+final class AdmissionController {
+
+    enum Lane {
+        READ, WRITE
+    }
+
+    private static final long REJECTED = Long.MIN_VALUE;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final String _scope;
+    private final AdmissionController _parent;
+    private final Gate _all;
+    private final Gate _reads;
+    private final Gate _writes;
+    private final long _maxWaitNanos;
+
+    /**
+     * @param scope names the factory or column family in rejection messages
+     * @param parent the controller that has to admit operations as well, after this one, or null
+     */
+    AdmissionController( final String scope, final AdmissionPolicy policy, final AdmissionController parent ) {
+        _scope = scope;
+        _parent = parent;
+        _all = Gate.create( policy.getAll() );
+        _reads = Gate.create( policy.getReads() );
+        _writes = Gate.create( policy.getWrites() );
+        _maxWaitNanos = TimeUnit.MILLISECONDS.toNanos( policy.getMaxWaitMillis() );
+    }
+
+    /**
+     * Blocks until the operation is admitted. Every successful call has to
+     * be followed by a call to {@link #release(Lane)}.
+     * 
+     * @param maxWaitNanos the time the caller has left, bounding the maximum wait of the policy
+     * @throws HelenaAdmissionException if the operation was not admitted within the maximum wait
+     * @throws HelenaDeadlineExceededException if the time of the caller ran out first
+     */
+    void admit( final Lane lane, final long maxWaitNanos ) {
+        admitUntil( lane, maxWaitNanos == Long.MAX_VALUE ? NO_DEADLINE : System.nanoTime() + maxWaitNanos );
+    }
+
+    /**
+     * @param callDeadline the {@link System#nanoTime()} the caller has to be admitted by, or {@link #NO_DEADLINE}
+     */
+    private void admitUntil( final Lane lane, final long callDeadline ) {
+        admitHere( lane, callDeadline );
+        if ( _parent == null ) {
+            return;
+        }
+        try {
+            _parent.admitUntil( lane, callDeadline );
+        } catch ( final RuntimeException e ) {
+            releaseHere( lane );
+            refundHere( lane );
+            throw e;
+        }
+    }
+
+    private void admitHere( final Lane lane, final long callDeadline ) {
+        final Gate gate = lane == Lane.READ ? _reads : _writes;
+        final long now = System.nanoTime();
+        final boolean callBound = callDeadline != NO_DEADLINE && callDeadline - ( now + _maxWaitNanos ) < 0;
+        final long deadline = callBound ? callDeadline : now + _maxWaitNanos;
+
+        final long allAt = _all == null ? now : _all.reserve( now, deadline );
+        if ( allAt == REJECTED ) {
+            throw rejected( "rate limit", null, callBound );
+        }
+        final long laneAt = gate == null ? now : gate.reserve( now, deadline );
+        if ( laneAt == REJECTED ) {
+            if ( _all != null ) {
+                _all.refund();
+            }
+            throw rejected( "rate limit", lane, callBound );
+        }
+        sleepUntil( Math.max( allAt, laneAt ) );
+
+        if ( _all != null && !_all.enter( deadline ) ) {
+            refundHere( lane );
+            throw rejected( "in flight limit", null, callBound );
+        }
+        if ( gate != null && !gate.enter( deadline ) ) {
+            if ( _all != null ) {
+                _all.leave();
+            }
+            refundHere( lane );
+            throw rejected( "in flight limit", lane, callBound );
+        }
+    }
+
+    void release( final Lane lane ) {
+        releaseHere( lane );
+        if ( _parent != null ) {
+            _parent.release( lane );
+        }
+    }
+
+    private void releaseHere( final Lane lane ) {
+        final Gate gate = lane == Lane.READ ? _reads : _writes;
+        if ( gate != null ) {
+            gate.leave();
+        }
+        if ( _all != null ) {
+            _all.leave();
+        }
+    }
+
+    /**
+     * Returns the tokens of an operation that was not admitted after all.
+     */
+    private void refundHere( final Lane lane ) {
+        final Gate gate = lane == Lane.READ ? _reads : _writes;
+        if ( gate != null ) {
+            gate.refund();
+        }
+        if ( _all != null ) {
+            _all.refund();
+        }
+    }
+
+    /**
+     * @param callBound whether the wait was cut short by the deadline of the caller
+     */
+    private HelenaRuntimeException rejected( final String limit, final Lane lane, final boolean callBound ) {
+        final String what = "The " + limit + " of " + ( lane == null ? "all operations" : lane == Lane.READ ? "reads" : "writes" )
+                + " to " + _scope;
+        if ( callBound ) {
+            return new HelenaDeadlineExceededException( what + " did not admit the operation before the deadline of its caller" );
+        }
+        return new HelenaAdmissionException( what + " did not admit the operation within " + TimeUnit.NANOSECONDS.toMillis( _maxWaitNanos ) + "ms" );
+    }
+
+    private static void sleepUntil( final long nanoTime ) {
+        final long nanos = nanoTime - System.nanoTime();
+        if ( nanos <= 0 ) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep( nanos );
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted while waiting for admission", e );
+        }
+    }
+
+    /**
+     * A token bucket and a cap on operations in flight, each optional.
+     */
+    private static final class Gate {
+        private final Semaphore _inFlight;
+        private final double _nanosPerToken;
+        private final double _burst;
+        private double _tokens;
+        private long _refilled;
+
+        private Gate( final AdmissionPolicy.Limit limit ) {
+            _inFlight = limit.getMaxInFlight() > 0 ? new Semaphore( limit.getMaxInFlight(), true ) : null;
+            _nanosPerToken = limit.getOperationsPerSecond() > 0 ? TimeUnit.SECONDS.toNanos( 1 ) / limit.getOperationsPerSecond() : 0;
+            _burst = limit.getBurst();
+            _tokens = _burst;
+            _refilled = System.nanoTime();
+        }
+
+        static Gate create( final AdmissionPolicy.Limit limit ) {
+            return limit.isUnlimited() ? null : new Gate( limit );
+        }
+
+        /**
+         * Takes a token, possibly one that becomes available only later.
+         * 
+         * @return the time at which the token is available, or {@link AdmissionController#REJECTED} if that is after the deadline
+         */
+        synchronized long reserve( final long now, final long deadline ) {
+            if ( _nanosPerToken == 0 ) {
+                return now;
+            }
+            _tokens = Math.min( _burst, _tokens + ( now - _refilled ) / _nanosPerToken );
+            _refilled = now;
+            if ( _tokens >= 1 ) {
+                _tokens -= 1;
+                return now;
+            }
+            final long available = now + (long) Math.ceil( ( 1 - _tokens ) * _nanosPerToken );
+            if ( available - deadline > 0 ) {
+                return REJECTED;
+            }
+            _tokens -= 1;
+            return available;
+        }
+
+        /**
+         * Returns a reserved token that will not be used.
+         */
+        synchronized void refund() {
+            if ( _nanosPerToken > 0 ) {
+                _tokens += 1;
+            }
+        }
+
+        boolean enter( final long deadline ) {
+            if ( _inFlight == null ) {
+                return true;
+            }
+            try {
+                return _inFlight.tryAcquire( Math.max( 0, deadline - System.nanoTime() ), TimeUnit.NANOSECONDS );
+            } catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                throw new HelenaRuntimeException( "Interrupted while waiting for admission", e );
+            }
+        }
+
+        void leave() {
+            if ( _inFlight != null ) {
+                _inFlight.release();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Immutable description of how many operations a factory or a column family
+ * admits: token bucket rate limits and caps on the operations in flight,
+ * for all operations together and for reads and writes separately, so a
+ * write heavy batch job can be kept from starving latency critical reads.
+ * Operations wait for admission up to {@link #withMaxWait(long)} and fail
+ * with {@link HelenaAdmissionException} after that, without contacting the
+ * backend.
+ * 
+ * Start from {@link #unlimited()} and refine with the <code>with...</code>
+ * methods, each of which returns a new policy.
+ */
+public final class AdmissionPolicy {
+
+    private static final Limit UNLIMITED = new Limit( 0, 0, 0 );
+
+    private final Limit _all;
+    private final Limit _reads;
+    private final Limit _writes;
+    private final long _maxWaitMillis;
+
+    private AdmissionPolicy( final Limit all, final Limit reads, final Limit writes, final long maxWaitMillis ) {
+        if ( maxWaitMillis < 0 ) {
+            throw new IllegalArgumentException( "The maximum wait must not be negative, got " + maxWaitMillis );
+        }
+        _all = all;
+        _reads = reads;
+        _writes = writes;
+        _maxWaitMillis = maxWaitMillis;
+    }
+
+    /**
+     * Admits every operation, operations wait up to one second once limits are added.
+     */
+    public static AdmissionPolicy unlimited() {
+        return new AdmissionPolicy( UNLIMITED, UNLIMITED, UNLIMITED, 1000 );
+    }
+
+    /**
+     * @param operationsPerSecond sustained rate of all operations, 0 for no limit
+     * @param burst operations admitted at once after a quiet period
+     */
+    public AdmissionPolicy withRateLimit( final double operationsPerSecond, final int burst ) {
+        return new AdmissionPolicy( _all.withRate( operationsPerSecond, burst ), _reads, _writes, _maxWaitMillis );
+    }
+
+    public AdmissionPolicy withReadRateLimit( final double operationsPerSecond, final int burst ) {
+        return new AdmissionPolicy( _all, _reads.withRate( operationsPerSecond, burst ), _writes, _maxWaitMillis );
+    }
+
+    public AdmissionPolicy withWriteRateLimit( final double operationsPerSecond, final int burst ) {
+        return new AdmissionPolicy( _all, _reads, _writes.withRate( operationsPerSecond, burst ), _maxWaitMillis );
+    }
+
+    /**
+     * @param maxInFlight operations executing at the same time, 0 for no limit
+     */
+    public AdmissionPolicy withMaxInFlight( final int maxInFlight ) {
+        return new AdmissionPolicy( _all.withMaxInFlight( maxInFlight ), _reads, _writes, _maxWaitMillis );
+    }
+
+    public AdmissionPolicy withMaxReadsInFlight( final int maxInFlight ) {
+        return new AdmissionPolicy( _all, _reads.withMaxInFlight( maxInFlight ), _writes, _maxWaitMillis );
+    }
+
+    public AdmissionPolicy withMaxWritesInFlight( final int maxInFlight ) {
+        return new AdmissionPolicy( _all, _reads, _writes.withMaxInFlight( maxInFlight ), _maxWaitMillis );
+    }
+
+    /**
+     * @param maxWaitMillis how long an operation waits for admission before it is rejected, 0 to reject at once
+     */
+    public AdmissionPolicy withMaxWait( final long maxWaitMillis ) {
+        return new AdmissionPolicy( _all, _reads, _writes, maxWaitMillis );
+    }
+
+    Limit getAll() {
+        return _all;
+    }
+
+    Limit getReads() {
+        return _reads;
+    }
+
+    Limit getWrites() {
+        return _writes;
+    }
+
+    long getMaxWaitMillis() {
+        return _maxWaitMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "AdmissionPolicy [_all=" + _all + ", _reads=" + _reads + ", _writes=" + _writes + ", _maxWaitMillis="
+                + _maxWaitMillis + "]";
+    }
+
+    static final class Limit {
+        private final int _maxInFlight;
+        private final double _operationsPerSecond;
+        private final int _burst;
+
+        Limit( final int maxInFlight, final double operationsPerSecond, final int burst ) {
+            if ( maxInFlight < 0 || operationsPerSecond < 0 ) {
+                throw new IllegalArgumentException( "Limits must not be negative, got " + maxInFlight + " in flight and "
+                        + operationsPerSecond + "/s" );
+            }
+            if ( operationsPerSecond > 0 && burst < 1 ) {
+                throw new IllegalArgumentException( "The burst of a rate limit must be at least 1, got " + burst );
+            }
+            _maxInFlight = maxInFlight;
+            _operationsPerSecond = operationsPerSecond;
+            _burst = burst;
+        }
+
+        Limit withRate( final double operationsPerSecond, final int burst ) {
+            return new Limit( _maxInFlight, operationsPerSecond, burst );
+        }
+
+        Limit withMaxInFlight( final int maxInFlight ) {
+            return new Limit( maxInFlight, _operationsPerSecond, _burst );
+        }
+
+        int getMaxInFlight() {
+            return _maxInFlight;
+        }
+
+        double getOperationsPerSecond() {
+            return _operationsPerSecond;
+        }
+
+        int getBurst() {
+            return _burst;
+        }
+
+        boolean isUnlimited() {
+            return _maxInFlight == 0 && _operationsPerSecond == 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Limit [_maxInFlight=" + _maxInFlight + ", _operationsPerSecond=" + _operationsPerSecond + ", _burst="
+                    + _burst + "]";
+        }
+    }
+
+}
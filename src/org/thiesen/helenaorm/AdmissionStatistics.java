@@ -0,0 +1,123 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * How the operations of one DAO fared with admission control: admitted and
+ * rejected operations and the time they waited, per lane.
+ */
+final class AdmissionStatistics {
+
+    private final Lane _reads = new Lane();
+    private final Lane _writes = new Lane();
+    private final AtomicInteger _inFlight = new AtomicInteger();
+
+    void recordAdmitted( final AdmissionController.Lane lane, final long waitNanos ) {
+        lane( lane ).recordAdmitted( waitNanos );
+        _inFlight.incrementAndGet();
+    }
+
+    void recordRejected( final AdmissionController.Lane lane, final long waitNanos ) {
+        lane( lane ).recordRejected( waitNanos );
+    }
+
+    void recordCompleted() {
+        _inFlight.decrementAndGet();
+    }
+
+    Lane getReads() {
+        return _reads;
+    }
+
+    Lane getWrites() {
+        return _writes;
+    }
+
+    int getInFlight() {
+        return _inFlight.get();
+    }
+
+    void reset() {
+        _reads.reset();
+        _writes.reset();
+    }
+
+    private Lane lane( final AdmissionController.Lane lane ) {
+        return lane == AdmissionController.Lane.READ ? _reads : _writes;
+    }
+
+    static final class Lane {
+        private final AtomicLong _admitted = new AtomicLong();
+        private final AtomicLong _rejected = new AtomicLong();
+        private final AtomicLong _waitNanos = new AtomicLong();
+        private final AtomicLong _maxWaitNanos = new AtomicLong();
+
+        void recordAdmitted( final long waitNanos ) {
+            _admitted.incrementAndGet();
+            recordWait( waitNanos );
+        }
+
+        void recordRejected( final long waitNanos ) {
+            _rejected.incrementAndGet();
+            recordWait( waitNanos );
+        }
+
+        private void recordWait( final long waitNanos ) {
+            _waitNanos.addAndGet( waitNanos );
+            long max = _maxWaitNanos.get();
+            while ( waitNanos > max && !_maxWaitNanos.compareAndSet( max, waitNanos ) ) {
+                max = _maxWaitNanos.get();
+            }
+        }
+
+        long getAdmitted() {
+            return _admitted.get();
+        }
+
+        long getRejected() {
+            return _rejected.get();
+        }
+
+        /**
+         * @return the mean wait of admitted and rejected operations
+         */
+        double getMeanWaitMillis() {
+            final long operations = _admitted.get() + _rejected.get();
+            return operations == 0 ? 0 : _waitNanos.get() / (double) operations / TimeUnit.MILLISECONDS.toNanos( 1 );
+        }
+
+        double getMaxWaitMillis() {
+            return _maxWaitNanos.get() / (double) TimeUnit.MILLISECONDS.toNanos( 1 );
+        }
+
+        void reset() {
+            _admitted.set( 0 );
+            _rejected.set( 0 );
+            _waitNanos.set( 0 );
+            _maxWaitNanos.set( 0 );
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+
+/**
+ * Progress callback of {@link BulkDeleter}. Batches run in parallel, the
+ * callbacks may come from different threads but are never concurrent.
+ */
+public interface BulkDeleteListener {
+
+    /**
+     * @param totalDeleted rows deleted so far
+     * @param totalFailed keys that could not be deleted so far
+     */
+    void onBatchCompleted( long totalDeleted, long totalFailed );
+
+    /**
+     * @param keys the keys of the batch that were not deleted
+     */
+    void onBatchFailed( List<String> keys, HelenaRuntimeException cause );
+
+}
@@ -0,0 +1,85 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+
+/**
+ * Outcome of a {@link BulkDeleter} run.
+ */
+public final class BulkDeleteSummary {
+
+    private final long _deleted;
+    private final List<String> _failedKeys;
+    private final HelenaRuntimeException _firstFailure;
+    private final HelenaRuntimeException _stopCause;
+    private final long _elapsedMillis;
+
+    BulkDeleteSummary( final long deleted, final List<String> failedKeys, final HelenaRuntimeException firstFailure,
+            final HelenaRuntimeException stopCause, final long elapsedMillis ) {
+        _deleted = deleted;
+        _failedKeys = failedKeys;
+        _firstFailure = firstFailure;
+        _stopCause = stopCause;
+        _elapsedMillis = elapsedMillis;
+    }
+
+    public long getDeleted() {
+        return _deleted;
+    }
+
+    /**
+     * @return the keys that could not be deleted, in no particular order
+     */
+    public List<String> getFailedKeys() {
+        return _failedKeys;
+    }
+
+    /**
+     * @return the cause of the first failed batch, null if all keys were deleted
+     */
+    public HelenaRuntimeException getFirstFailure() {
+        return _firstFailure;
+    }
+
+    /**
+     * @return the {@link HelenaDeadlineExceededException} or {@link HelenaCancelledException}
+     *         that stopped the run, null if all keys were attempted. Keys of batches that
+     *         were never started are not among the failed keys.
+     */
+    public HelenaRuntimeException getStopCause() {
+        return _stopCause;
+    }
+
+    public boolean hasFailures() {
+        return !_failedKeys.isEmpty();
+    }
+
+    public long getElapsedMillis() {
+        return _elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkDeleteSummary [_deleted=" + _deleted + ", _failed=" + _failedKeys.size() + ", _stopped=" + ( _stopCause != null ) + ", _elapsedMillis=" + _elapsedMillis + "]";
+    }
+
+}
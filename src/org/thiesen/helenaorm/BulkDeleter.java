@@ -0,0 +1,217 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+
+/**
+ * Deletes many rows of the column family behind a {@link HelenaDAO}. Keys
+ * are grouped into batches that each remove their rows over one borrowed
+ * connection, and a bounded number of batches runs in parallel. Keys are
+ * consumed as the batches are submitted, so a key range is scanned while
+ * its rows are deleted. A failed batch does not stop the others, its
+ * remaining keys are reported instead. The {@link Deadline}s entered by
+ * the caller apply to all batches; once one has expired or was cancelled
+ * no further batch is started, the running ones are waited for and the
+ * summary reports the stop, see {@link BulkDeleteSummary#getStopCause()}.
+ */
+public final class BulkDeleter {
+    private static final Log LOG = LogFactory.getLog( BulkDeleter.class );
+
+    private final HelenaDAO<?> _dao;
+    private final int _batchSize;
+    private final int _parallelism;
+    private final BulkDeleteListener _listener;
+
+    private BulkDeleter( final HelenaDAO<?> dao, final int batchSize, final int parallelism, final BulkDeleteListener listener ) {
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException( "Batch size must be positive, got " + batchSize );
+        }
+        if ( parallelism < 1 ) {
+            throw new IllegalArgumentException( "Parallelism must be positive, got " + parallelism );
+        }
+        _dao = dao;
+        _batchSize = batchSize;
+        _parallelism = parallelism;
+        _listener = listener;
+    }
+
+    public static BulkDeleter forDao( final HelenaDAO<?> dao ) {
+        return new BulkDeleter( dao, 100, 4, null );
+    }
+
+    /**
+     * @param batchSize rows removed per borrowed connection, also the page size of range scans
+     */
+    public BulkDeleter withBatchSize( final int batchSize ) {
+        return new BulkDeleter( _dao, batchSize, _parallelism, _listener );
+    }
+
+    /**
+     * @param parallelism batches running at the same time
+     */
+    public BulkDeleter withParallelism( final int parallelism ) {
+        return new BulkDeleter( _dao, _batchSize, parallelism, _listener );
+    }
+
+    public BulkDeleter withProgressListener( final BulkDeleteListener listener ) {
+        return new BulkDeleter( _dao, _batchSize, _parallelism, listener );
+    }
+
+    public BulkDeleteSummary deleteAll( final Iterable<String> keys ) {
+        return delete( keys.iterator() );
+    }
+
+    /**
+     * Deletes all rows between keyStart and keyEnd (both inclusive, empty for
+     * unbounded), found with a key scan, see {@link HelenaDAO#getKeys(String, String, int)}.
+     */
+    public BulkDeleteSummary deleteRange( final String keyStart, final String keyEnd ) {
+        return delete( _dao.getKeys( keyStart, keyEnd, _batchSize ).iterator() );
+    }
+
+    private BulkDeleteSummary delete( final Iterator<String> keys ) {
+        final long start = System.currentTimeMillis();
+        final Progress progress = new Progress();
+        final Semaphore permits = new Semaphore( _parallelism );
+        final List<Deadline> deadlines = Deadline.capture();
+        final ExecutorService executor = Executors.newFixedThreadPool( _parallelism );
+        try {
+            final Iterator<List<String>> batches = Iterators.partition( keys, _batchSize );
+            while ( true ) {
+                permits.acquire();
+                final List<String> batch;
+                try {
+                    if ( progress.isStopped() || !batches.hasNext() ) {
+                        permits.release();
+                        break;
+                    }
+                    Deadline.check( "delete", null );
+                    // Reading the next batch may page through a key range
+                    batch = ImmutableList.copyOf( batches.next() );
+                } catch ( final HelenaRuntimeException e ) {
+                    permits.release();
+                    if ( !isStop( e ) ) {
+                        throw e;
+                    }
+                    progress.stop( e );
+                    break;
+                }
+                executor.execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        Deadline.enter( deadlines );
+                        try {
+                            deleteBatch( batch, progress );
+                        } finally {
+                            Deadline.exit( deadlines );
+                            permits.release();
+                        }
+                    }
+                } );
+            }
+            permits.acquire( _parallelism );
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted while deleting from " + _dao.getColumnFamily() + " after "
+                    + progress._deleted + " rows", e );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final BulkDeleteSummary summary;
+        synchronized ( progress ) {
+            summary = new BulkDeleteSummary( progress._deleted, ImmutableList.copyOf( progress._failedKeys ), progress._firstFailure,
+                    progress._stopCause, System.currentTimeMillis() - start );
+        }
+        LOG.info( "Deleted " + summary.getDeleted() + " rows from " + _dao.getColumnFamily() + " in " + summary.getElapsedMillis()
+                + "ms, " + summary.getFailedKeys().size() + " failed" );
+        return summary;
+    }
+
+    private void deleteBatch( final List<String> batch, final Progress progress ) {
+        final AtomicInteger deleted = new AtomicInteger();
+        HelenaRuntimeException failure = null;
+        try {
+            _dao.deleteRows( batch, deleted );
+        } catch ( final HelenaRuntimeException e ) {
+            failure = e;
+        }
+
+        synchronized ( progress ) {
+            progress._deleted += deleted.get();
+            if ( failure != null ) {
+                final List<String> failed = batch.subList( deleted.get(), batch.size() );
+                progress._failedKeys.addAll( failed );
+                if ( progress._firstFailure == null ) {
+                    progress._firstFailure = failure;
+                }
+                if ( isStop( failure ) ) {
+                    progress.stop( failure );
+                }
+                LOG.warn( "Could not delete " + failed.size() + " rows from " + _dao.getColumnFamily(), failure );
+                if ( _listener != null ) {
+                    _listener.onBatchFailed( failed, failure );
+                }
+            }
+            if ( _listener != null ) {
+                _listener.onBatchCompleted( progress._deleted, progress._failedKeys.size() );
+            }
+        }
+    }
+
+    /**
+     * @return true for the failures of an expired or cancelled {@link Deadline}, which end the run
+     */
+    private static boolean isStop( final HelenaRuntimeException failure ) {
+        return failure instanceof HelenaDeadlineExceededException || failure instanceof HelenaCancelledException;
+    }
+
+    private static final class Progress {
+        private long _deleted;
+        private final List<String> _failedKeys = Lists.newArrayList();
+        private HelenaRuntimeException _firstFailure;
+        private HelenaRuntimeException _stopCause;
+
+        synchronized boolean isStopped() {
+            return _stopCause != null;
+        }
+
+        synchronized void stop( final HelenaRuntimeException cause ) {
+            if ( _stopCause == null ) {
+                _stopCause = cause;
+            }
+        }
+    }
+
+}
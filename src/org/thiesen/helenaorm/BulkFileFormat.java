@@ -0,0 +1,169 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.apache.cassandra.service.Column;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+/**
+ * Layout of column family dump files. All numbers are big endian.
+ * 
+ * <pre>
+ * file    := header segment*
+ * header  := FILE_MAGIC:int VERSION:int cfLength:int cf:utf8
+ * segment := SEGMENT_MAGIC:int rowCount:int payloadLength:int payload crc32(payload):long
+ * payload := row*
+ * row     := keyLength:int key:utf8 columnCount:int column*
+ * column  := nameLength:int name valueLength:int value timestamp:long
+ * </pre>
+ */
+final class BulkFileFormat {
+
+    static final int FILE_MAGIC = 0x48454C58; // HELX
+    static final int SEGMENT_MAGIC = 0x5345474D; // SEGM
+    static final int VERSION = 1;
+    static final int SEGMENT_HEADER_LENGTH = 12;
+    static final int SEGMENT_TRAILER_LENGTH = 8;
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    private static final int CRC_CHUNK = 64 * 1024;
+
+    private BulkFileFormat() {
+        // static helpers only
+    }
+
+    static void writeHeader( final DataOutput out, final String columnFamily ) throws IOException {
+        final byte[] cf = columnFamily.getBytes( UTF8 );
+        out.writeInt( FILE_MAGIC );
+        out.writeInt( VERSION );
+        out.writeInt( cf.length );
+        out.write( cf );
+    }
+
+    /**
+     * Reads and validates the file header, leaving the buffer positioned at the first segment.
+     */
+    static void readHeader( final ByteBuffer in, final String expectedColumnFamily ) {
+        if ( in.remaining() < 12 || in.getInt() != FILE_MAGIC ) {
+            throw new HelenaRuntimeException( "Not a HelenaORM dump file" );
+        }
+        final int version = in.getInt();
+        if ( version != VERSION ) {
+            throw new HelenaRuntimeException( "Unsupported dump file version " + version );
+        }
+        final String columnFamily = readString( in );
+        if ( !columnFamily.equals( expectedColumnFamily ) ) {
+            throw new HelenaRuntimeException( "Dump file contains column family " + columnFamily
+                    + ", expected " + expectedColumnFamily );
+        }
+    }
+
+    static void writeRow( final DataOutput out, final String key, final List<Column> columns ) throws IOException {
+        final byte[] keyBytes = key.getBytes( UTF8 );
+        out.writeInt( keyBytes.length );
+        out.write( keyBytes );
+        out.writeInt( columns.size() );
+        for ( final Column column : columns ) {
+            out.writeInt( column.name.length );
+            out.write( column.name );
+            out.writeInt( column.value.length );
+            out.write( column.value );
+            out.writeLong( column.timestamp );
+        }
+    }
+
+    static Map.Entry<String, List<Column>> readRow( final ByteBuffer in ) {
+        final String key = readString( in );
+        final int columnCount = in.getInt();
+        final ImmutableList.Builder<Column> columns = ImmutableList.builder();
+        for ( int i = 0; i < columnCount; i++ ) {
+            final byte[] name = readBytes( in );
+            final byte[] value = readBytes( in );
+            columns.add( new Column( name, value, in.getLong() ) );
+        }
+        return Maps.immutableEntry( key, (List<Column>) columns.build() );
+    }
+
+    /**
+     * Checksums the next <code>length</code> bytes of the buffer without moving its position.
+     */
+    static long checksum( final ByteBuffer in, final int length ) {
+        final ByteBuffer view = in.duplicate();
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[Math.min( CRC_CHUNK, length )];
+        int remaining = length;
+        while ( remaining > 0 ) {
+            final int n = Math.min( chunk.length, remaining );
+            view.get( chunk, 0, n );
+            crc.update( chunk, 0, n );
+            remaining -= n;
+        }
+        return crc.getValue();
+    }
+
+    private static String readString( final ByteBuffer in ) {
+        return new String( readBytes( in ), UTF8 );
+    }
+
+    private static byte[] readBytes( final ByteBuffer in ) {
+        final int length = in.getInt();
+        if ( length < 0 || length > in.remaining() ) {
+            throw new HelenaRuntimeException( "Corrupt dump file, invalid length " + length );
+        }
+        final byte[] bytes = new byte[length];
+        in.get( bytes );
+        return bytes;
+    }
+
+    /**
+     * Segment buffer that can be checksummed and written without copying.
+     */
+    static final class SegmentBuffer extends ByteArrayOutputStream {
+
+        SegmentBuffer( final int initialSize ) {
+            super( initialSize );
+        }
+
+        long checksum() {
+            final CRC32 crc = new CRC32();
+            crc.update( buf, 0, count );
+            return crc.getValue();
+        }
+
+        void writePayloadTo( final OutputStream out ) throws IOException {
+            out.write( buf, 0, count );
+        }
+
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Progress callback of {@link ColumnFamilyExporter} and
+ * {@link ColumnFamilyImporter}, invoked after every completed segment.
+ * Persisting <code>segment</code> allows an interrupted import to be resumed
+ * with {@link ColumnFamilyImporter#importFrom(java.io.File, int)}.
+ */
+public interface BulkProgressListener {
+
+    /**
+     * @param segment zero based index of the segment that was just completed
+     * @param totalRows rows transferred so far; an export includes the rows of resumed segments
+     * @param totalBytes file bytes transferred so far; an export includes the bytes of resumed segments
+     * @param lastKey the last row key of the segment
+     */
+    void onSegmentCompleted( int segment, long totalRows, long totalBytes, String lastKey );
+
+}
@@ -0,0 +1,80 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Outcome of an export or import run.
+ */
+public final class BulkTransferSummary {
+
+    private final int _segments;
+    private final long _rows;
+    private final long _bytes;
+    private final int _resumedSegments;
+    private final long _elapsedMillis;
+
+    BulkTransferSummary( final int segments, final long rows, final long bytes, final int resumedSegments, final long elapsedMillis ) {
+        _segments = segments;
+        _rows = rows;
+        _bytes = bytes;
+        _resumedSegments = resumedSegments;
+        _elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return number of segments in the file after the run
+     */
+    public int getSegments() {
+        return _segments;
+    }
+
+    /**
+     * @return number of rows transferred by this run
+     */
+    public long getRows() {
+        return _rows;
+    }
+
+    /**
+     * @return number of file bytes written or read by this run
+     */
+    public long getBytes() {
+        return _bytes;
+    }
+
+    /**
+     * @return number of segments skipped because an earlier run already transferred them
+     */
+    public int getResumedSegments() {
+        return _resumedSegments;
+    }
+
+    public long getElapsedMillis() {
+        return _elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "BulkTransferSummary [_segments=" + _segments + ", _rows=" + _rows + ", _bytes=" + _bytes
+                + ", _resumedSegments=" + _resumedSegments + ", _elapsedMillis=" + _elapsedMillis + "]";
+    }
+
+}
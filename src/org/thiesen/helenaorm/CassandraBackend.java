@@ -0,0 +1,45 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import me.prettyprint.cassandra.dao.Command;
+
+/**
+ * Where the commands of the DAOs are executed. The factories made by
+ * {@link HelenaORMDAOFactory#withConfig(String, int)} talk Thrift to a
+ * Cassandra node, other backends can be plugged in with
+ * {@link HelenaORMDAOFactory#withBackend(CassandraBackend)}, e.g. an in
+ * process keyspace for load generation or tests.
+ */
+public interface CassandraBackend {
+
+    /**
+     * Runs the command against the keyspace, borrowing and releasing any
+     * connection it needs.
+     */
+    <V> V execute( Command<V> command, String keyspace ) throws Exception;
+
+    /**
+     * @return the name used for the circuit breaker and in log messages, e.g. <code>host:port</code>
+     */
+    String getName();
+
+}
@@ -0,0 +1,121 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Consecutive-failure circuit breaker for a single host. While open every
+ * call is rejected; once the open period has passed a single probe call is
+ * admitted and its outcome closes or re-opens the breaker.
+ */
+class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String _host;
+    private final int _failureThreshold;
+    private final long _openMillis;
+    private final ResilienceListener _listener;
+
+    private State _state = State.CLOSED;
+    private int _consecutiveFailures;
+    private long _openedAt;
+    /** Whether the single call admitted while half open is still running */
+    private boolean _probing;
+
+    CircuitBreaker( final String host, final int failureThreshold, final long openMillis, final ResilienceListener listener ) {
+        _host = host;
+        _failureThreshold = failureThreshold;
+        _openMillis = openMillis;
+        _listener = listener;
+    }
+
+    /**
+     * @return true if the caller may contact the host, false if it should fail fast
+     */
+    boolean allowRequest() {
+        synchronized ( this ) {
+            switch ( _state ) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if ( System.currentTimeMillis() - _openedAt < _openMillis ) {
+                    return false;
+                }
+                _state = State.HALF_OPEN;
+                _probing = true;
+                break;
+            case HALF_OPEN:
+                // only one probe at a time
+                if ( _probing ) {
+                    return false;
+                }
+                _probing = true;
+                return true;
+            }
+        }
+        _listener.onCircuitHalfOpen( _host );
+        return true;
+    }
+
+    void onSuccess() {
+        final boolean closed;
+        synchronized ( this ) {
+            closed = _state != State.CLOSED;
+            _state = State.CLOSED;
+            _consecutiveFailures = 0;
+            _probing = false;
+        }
+        if ( closed ) {
+            _listener.onCircuitClosed( _host );
+        }
+    }
+
+    void onFailure() {
+        final int failures;
+        synchronized ( this ) {
+            failures = ++_consecutiveFailures;
+            _probing = false;
+            if ( _state == State.OPEN || ( _state == State.CLOSED && failures < _failureThreshold ) ) {
+                return;
+            }
+            _state = State.OPEN;
+            _openedAt = System.currentTimeMillis();
+        }
+        _listener.onCircuitOpened( _host, failures );
+    }
+
+    /**
+     * Ends a probe that failed without telling anything about the host, so
+     * the next call probes instead; state and failure count are unchanged.
+     */
+    synchronized void releaseProbe() {
+        _probing = false;
+    }
+
+    synchronized State getState() {
+        return _state;
+    }
+
+    String getHost() {
+        return _host;
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.JarURLConnection;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.thiesen.helenaorm.annotations.HelenaBean;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Finds classes annotated with {@link HelenaBean} in packages (and their
+ * sub packages) on the classpath, looking into directories and jar files.
+ * Classes are loaded without being initialized.
+ */
+final class ClasspathScanner {
+    private static final Log LOG = LogFactory.getLog( ClasspathScanner.class );
+
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final ClassLoader _classLoader;
+
+    ClasspathScanner( final ClassLoader classLoader ) {
+        _classLoader = classLoader;
+    }
+
+    List<Class<?>> findHelenaBeans( final String packageName ) {
+        final String path = packageName.replace( '.', '/' );
+        final List<Class<?>> beans = Lists.newArrayList();
+        try {
+            final Enumeration<URL> resources = _classLoader.getResources( path );
+            while ( resources.hasMoreElements() ) {
+                final URL resource = resources.nextElement();
+                if ( "file".equals( resource.getProtocol() ) ) {
+                    scanDirectory( new File( decode( resource.getPath() ) ), packageName, beans );
+                } else if ( "jar".equals( resource.getProtocol() ) ) {
+                    scanJar( resource, path, beans );
+                }
+            }
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Could not scan package " + packageName, e );
+        }
+        return beans;
+    }
+
+    private void scanDirectory( final File directory, final String packageName, final List<Class<?>> beans ) {
+        final File[] files = directory.listFiles();
+        if ( files == null ) {
+            return;
+        }
+        for ( final File file : files ) {
+            if ( file.isDirectory() ) {
+                scanDirectory( file, packageName + "." + file.getName(), beans );
+            } else if ( file.getName().endsWith( CLASS_SUFFIX ) ) {
+                check( packageName + "." + file.getName().substring( 0, file.getName().length() - CLASS_SUFFIX.length() ), beans );
+            }
+        }
+    }
+
+    private void scanJar( final URL resource, final String path, final List<Class<?>> beans ) throws IOException {
+        final JarFile jar = ( (JarURLConnection) resource.openConnection() ).getJarFile();
+        final Enumeration<JarEntry> entries = jar.entries();
+        while ( entries.hasMoreElements() ) {
+            final String name = entries.nextElement().getName();
+            if ( name.startsWith( path + "/" ) && name.endsWith( CLASS_SUFFIX ) ) {
+                check( name.substring( 0, name.length() - CLASS_SUFFIX.length() ).replace( '/', '.' ), beans );
+            }
+        }
+    }
+
+    private void check( final String className, final List<Class<?>> beans ) {
+        try {
+            final Class<?> clz = Class.forName( className, false, _classLoader );
+            if ( clz.isAnnotationPresent( HelenaBean.class ) ) {
+                beans.add( clz );
+            }
+        } catch ( final ClassNotFoundException e ) {
+            skip( className, e );
+        } catch ( final LinkageError e ) {
+            // e.g. a class referring to an optional dependency that is not deployed, it can not be a usable bean
+            skip( className, e );
+        }
+    }
+
+    private static void skip( final String className, final Throwable cause ) {
+        if ( LOG.isDebugEnabled() ) {
+            LOG.debug( "Skipping " + className + ", it can not be loaded", cause );
+        }
+    }
+
+    private static String decode( final String path ) {
+        try {
+            return URLDecoder.decode( path, "UTF-8" );
+        } catch ( final UnsupportedEncodingException e ) {
+            throw new HelenaRuntimeException( e );
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Streams all raw columns of the column family behind a {@link HelenaDAO}
+ * into a length prefixed binary dump file, see {@link BulkFileFormat}. Rows
+ * are read with the paging range scan and grouped into checksummed segments.
+ * 
+ * Exporting into an existing dump file resumes behind its last intact
+ * segment, a partially written segment is discarded.
+ */
+public final class ColumnFamilyExporter {
+    private static final Log LOG = LogFactory.getLog( ColumnFamilyExporter.class );
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final int MAX_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    private final HelenaDAO<?> _dao;
+    private final int _pageSize;
+    private final int _rowsPerSegment;
+    private final int _maxColumnsPerRow;
+    private final BulkProgressListener _listener;
+
+    private ColumnFamilyExporter( final HelenaDAO<?> dao, final int pageSize, final int rowsPerSegment,
+            final int maxColumnsPerRow, final BulkProgressListener listener ) {
+        if ( dao.isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Exporting super column family " + dao.getColumnFamily() + " is not supported" );
+        }
+        _dao = dao;
+        _pageSize = pageSize;
+        _rowsPerSegment = rowsPerSegment;
+        _maxColumnsPerRow = maxColumnsPerRow;
+        _listener = listener;
+    }
+
+    public static ColumnFamilyExporter forDao( final HelenaDAO<?> dao ) {
+        return new ColumnFamilyExporter( dao, 500, 1000, 10000, null );
+    }
+
+    public ColumnFamilyExporter withPageSize( final int pageSize ) {
+        return new ColumnFamilyExporter( _dao, pageSize, _rowsPerSegment, _maxColumnsPerRow, _listener );
+    }
+
+    public ColumnFamilyExporter withRowsPerSegment( final int rowsPerSegment ) {
+        return new ColumnFamilyExporter( _dao, _pageSize, rowsPerSegment, _maxColumnsPerRow, _listener );
+    }
+
+    /**
+     * @param maxColumnsPerRow columns read per row with the range scan, wider rows are read in further pages of this size
+     */
+    public ColumnFamilyExporter withMaxColumnsPerRow( final int maxColumnsPerRow ) {
+        return new ColumnFamilyExporter( _dao, _pageSize, _rowsPerSegment, maxColumnsPerRow, _listener );
+    }
+
+    public ColumnFamilyExporter withProgressListener( final BulkProgressListener listener ) {
+        return new ColumnFamilyExporter( _dao, _pageSize, _rowsPerSegment, _maxColumnsPerRow, listener );
+    }
+
+    /**
+     * Exports all rows, resuming if the file already holds segments of an earlier run.
+     */
+    public BulkTransferSummary exportTo( final File file ) {
+        final long start = System.currentTimeMillis();
+        try {
+            final Resume resume = prepare( file );
+
+            final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file, true ), 64 * 1024 ) );
+            try {
+                if ( resume.bytes == 0 ) {
+                    BulkFileFormat.writeHeader( out, _dao.getColumnFamily() );
+                }
+                return export( out, resume, start );
+            } finally {
+                out.close();
+            }
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Export of " + _dao.getColumnFamily() + " to " + file + " failed", e );
+        }
+    }
+
+    private BulkTransferSummary export( final DataOutputStream out, final Resume resume, final long start ) throws IOException {
+        final SlicePredicate allColumns = new SlicePredicate();
+        allColumns.setSlice_range( new SliceRange( EMPTY, EMPTY, false, _maxColumnsPerRow ) );
+        final Iterator<Map.Entry<String, List<Column>>> rows = _dao.rawRangeIterator( resume.lastKey, "", _pageSize, allColumns );
+
+        final BulkFileFormat.SegmentBuffer segment = new BulkFileFormat.SegmentBuffer( 64 * 1024 );
+        final DataOutputStream segmentOut = new DataOutputStream( segment );
+        int segments = resume.segments;
+        long totalRows = resume.rows;
+        long totalBytes = resume.bytes;
+        long exportedRows = 0;
+        long exportedBytes = 0;
+        int rowsInSegment = 0;
+        String lastKey = null;
+
+        while ( true ) {
+            // Rows skipped at the end of the range must not keep the last segment from being written
+            final boolean more = rows.hasNext();
+            if ( more ) {
+                final Map.Entry<String, List<Column>> row = rows.next();
+                if ( row.getValue().isEmpty() || row.getKey().equals( resume.lastKey ) ) {
+                    continue;
+                }
+                BulkFileFormat.writeRow( segmentOut, row.getKey(), completeRow( row.getKey(), row.getValue() ) );
+                lastKey = row.getKey();
+                rowsInSegment++;
+            }
+
+            if ( rowsInSegment > 0 && ( !more || rowsInSegment >= _rowsPerSegment || segment.size() >= MAX_SEGMENT_BYTES ) ) {
+                final long written = writeSegment( out, segment, rowsInSegment );
+                totalRows += rowsInSegment;
+                exportedRows += rowsInSegment;
+                totalBytes += written;
+                exportedBytes += written;
+                if ( _listener != null ) {
+                    _listener.onSegmentCompleted( segments, totalRows, totalBytes, lastKey );
+                }
+                segments++;
+                rowsInSegment = 0;
+            }
+            if ( !more ) {
+                break;
+            }
+        }
+
+        final BulkTransferSummary summary = new BulkTransferSummary( segments, exportedRows, exportedBytes, resume.segments,
+                System.currentTimeMillis() - start );
+        LOG.info( "Exported " + _dao.getColumnFamily() + ": " + summary );
+        return summary;
+    }
+
+    /**
+     * Reads the columns of rows wider than the range scan fetches, a page of
+     * <code>maxColumnsPerRow</code> columns at a time.
+     */
+    private List<Column> completeRow( final String key, final List<Column> firstPage ) {
+        if ( firstPage.size() < _maxColumnsPerRow ) {
+            return firstPage;
+        }
+        final List<Column> columns = Lists.newArrayList( firstPage );
+        while ( true ) {
+            // Each page starts with the last column of the previous one
+            final List<Column> page = _dao.rawColumnSlice( key, columns.get( columns.size() - 1 ).name, _maxColumnsPerRow + 1 );
+            if ( page.size() > 1 ) {
+                columns.addAll( page.subList( 1, page.size() ) );
+            }
+            if ( page.size() <= _maxColumnsPerRow ) {
+                break;
+            }
+        }
+        if ( LOG.isDebugEnabled() ) {
+            LOG.debug( "Exported wide row " + key + " of " + _dao.getColumnFamily() + " with " + columns.size() + " columns" );
+        }
+        return columns;
+    }
+
+    /**
+     * Segments are flushed as a whole, so a crash leaves at most one partial
+     * segment, which the next run cuts off.
+     */
+    private long writeSegment( final DataOutputStream out, final BulkFileFormat.SegmentBuffer segment, final int rowCount ) throws IOException {
+        out.writeInt( BulkFileFormat.SEGMENT_MAGIC );
+        out.writeInt( rowCount );
+        out.writeInt( segment.size() );
+        segment.writePayloadTo( out );
+        out.writeLong( segment.checksum() );
+        out.flush();
+
+        final long written = BulkFileFormat.SEGMENT_HEADER_LENGTH + segment.size() + BulkFileFormat.SEGMENT_TRAILER_LENGTH;
+        segment.reset();
+        return written;
+    }
+
+    private Resume prepare( final File file ) throws IOException {
+        final Resume resume = new Resume();
+        if ( !file.exists() || file.length() == 0 ) {
+            return resume;
+        }
+
+        final DumpFileReader reader = new DumpFileReader( file, _dao.getColumnFamily() );
+        try {
+            ByteBuffer lastSegment = null;
+            int lastRowCount = 0;
+            ByteBuffer segment;
+            while ( ( segment = reader.nextSegment() ) != null ) {
+                lastSegment = segment;
+                lastRowCount = reader.getSegmentRowCount();
+                resume.segments++;
+                resume.rows += lastRowCount;
+            }
+            for ( int i = 0; i < lastRowCount; i++ ) {
+                resume.lastKey = BulkFileFormat.readRow( lastSegment ).getKey();
+            }
+            resume.bytes = reader.getPosition();
+        } finally {
+            reader.close();
+        }
+
+        if ( resume.bytes < file.length() ) {
+            LOG.warn( "Discarding " + ( file.length() - resume.bytes ) + " bytes of incomplete segment data in " + file );
+            final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+            try {
+                raf.setLength( resume.bytes );
+            } finally {
+                raf.close();
+            }
+        }
+        if ( resume.segments > 0 ) {
+            LOG.info( "Resuming export of " + _dao.getColumnFamily() + " after key " + resume.lastKey
+                    + " and " + resume.segments + " segments" );
+        }
+        return resume;
+    }
+
+    private static final class Resume {
+        int segments;
+        long rows;
+        long bytes;
+        String lastKey = "";
+    }
+
+}
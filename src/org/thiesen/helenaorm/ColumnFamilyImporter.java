@@ -0,0 +1,148 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.service.Column;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Loads a dump file written by {@link ColumnFamilyExporter} into the column
+ * family behind a {@link HelenaDAO}. The file is read through memory mapped
+ * segments, every segment is checksum verified before any of its rows is
+ * written, and rows are inserted in batches with their original timestamps,
+ * so re-importing a segment is harmless.
+ */
+public final class ColumnFamilyImporter {
+    private static final Log LOG = LogFactory.getLog( ColumnFamilyImporter.class );
+
+    private final HelenaDAO<?> _dao;
+    private final int _batchSize;
+    private final BulkProgressListener _listener;
+
+    private ColumnFamilyImporter( final HelenaDAO<?> dao, final int batchSize, final BulkProgressListener listener ) {
+        if ( dao.isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Importing super column family " + dao.getColumnFamily() + " is not supported" );
+        }
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException( "Batch size must be positive, got " + batchSize );
+        }
+        _dao = dao;
+        _batchSize = batchSize;
+        _listener = listener;
+    }
+
+    public static ColumnFamilyImporter forDao( final HelenaDAO<?> dao ) {
+        return new ColumnFamilyImporter( dao, 100, null );
+    }
+
+    /**
+     * @param batchSize rows written per backend round trip
+     */
+    public ColumnFamilyImporter withBatchSize( final int batchSize ) {
+        return new ColumnFamilyImporter( _dao, batchSize, _listener );
+    }
+
+    public ColumnFamilyImporter withProgressListener( final BulkProgressListener listener ) {
+        return new ColumnFamilyImporter( _dao, _batchSize, listener );
+    }
+
+    public BulkTransferSummary importFrom( final File file ) {
+        return importFrom( file, 0 );
+    }
+
+    /**
+     * Imports all segments starting at <code>firstSegment</code>, e.g. the
+     * segment after the last one reported to the progress listener of an
+     * interrupted run.
+     */
+    public BulkTransferSummary importFrom( final File file, final int firstSegment ) {
+        final long start = System.currentTimeMillis();
+        try {
+            final DumpFileReader reader = new DumpFileReader( file, _dao.getColumnFamily() );
+            try {
+                for ( int i = 0; i < firstSegment; i++ ) {
+                    if ( !reader.skipSegment() ) {
+                        throw new HelenaRuntimeException( file + " has less than " + firstSegment + " segments" );
+                    }
+                }
+                return importSegments( reader, firstSegment, start );
+            } finally {
+                reader.close();
+            }
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Import of " + file + " into " + _dao.getColumnFamily() + " failed", e );
+        }
+    }
+
+    private BulkTransferSummary importSegments( final DumpFileReader reader, final int firstSegment, final long start ) throws IOException {
+        int segment = firstSegment;
+        long rows = 0;
+        long bytes = 0;
+        long position = reader.getPosition();
+
+        ByteBuffer payload;
+        while ( ( payload = reader.nextSegment() ) != null ) {
+            final int rowCount = reader.getSegmentRowCount();
+            final Map<String, List<Column>> batch = Maps.newLinkedHashMap();
+            String lastKey = null;
+            for ( int i = 0; i < rowCount; i++ ) {
+                final Map.Entry<String, List<Column>> row = BulkFileFormat.readRow( payload );
+                batch.put( row.getKey(), row.getValue() );
+                lastKey = row.getKey();
+                if ( batch.size() >= _batchSize ) {
+                    _dao.insertRaw( batch );
+                    batch.clear();
+                }
+            }
+            if ( !batch.isEmpty() ) {
+                _dao.insertRaw( batch );
+            }
+
+            rows += rowCount;
+            bytes += reader.getPosition() - position;
+            position = reader.getPosition();
+            if ( _listener != null ) {
+                _listener.onSegmentCompleted( segment, rows, bytes, lastKey );
+            }
+            segment++;
+        }
+
+        if ( reader.isCorrupt() ) {
+            throw new HelenaRuntimeException( "Segment " + segment + " of the dump file is truncated or corrupt, "
+                    + rows + " rows were imported before it" );
+        }
+
+        final BulkTransferSummary summary = new BulkTransferSummary( segment, rows, bytes, firstSegment,
+                System.currentTimeMillis() - start );
+        LOG.info( "Imported into " + _dao.getColumnFamily() + ": " + summary );
+        return summary;
+    }
+
+}
@@ -0,0 +1,220 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.File;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+/**
+ * The settings a factory hands to every DAO it makes. Instances are
+ * immutable, the <code>with</code> methods return modified copies.
+ */
+final class DAOOptions {
+
+    static final DAOOptions DEFAULTS = new DAOOptions();
+
+    private boolean _registerMBeans;
+    private SlowOperationLog _slowOperationLog = SlowOperationLog.DISABLED;
+    private long _nearCacheBytes;
+    private int _hotKeys;
+    private long _hotKeyWindowMillis;
+    private AdmissionController _admission;
+    private ImmutableMap<String, AdmissionPolicy> _columnFamilyPolicies = ImmutableMap.of();
+    private ImmutableMap<String, AdmissionController> _columnFamilyAdmission = ImmutableMap.of();
+    private int _missCacheEntries;
+    private long _missCacheTtlMillis;
+    private int _keyFilterKeys;
+    private double _keyFilterFalsePositiveRate;
+    private File _diskCacheDirectory;
+    private long _diskCacheBytes;
+    private long _diskCacheMaxAgeMillis;
+
+    private DAOOptions() {
+        // defaults
+    }
+
+    private DAOOptions copy() {
+        final DAOOptions copy = new DAOOptions();
+        copy._registerMBeans = _registerMBeans;
+        copy._slowOperationLog = _slowOperationLog;
+        copy._nearCacheBytes = _nearCacheBytes;
+        copy._hotKeys = _hotKeys;
+        copy._hotKeyWindowMillis = _hotKeyWindowMillis;
+        copy._admission = _admission;
+        copy._columnFamilyPolicies = _columnFamilyPolicies;
+        copy._columnFamilyAdmission = _columnFamilyAdmission;
+        copy._missCacheEntries = _missCacheEntries;
+        copy._missCacheTtlMillis = _missCacheTtlMillis;
+        copy._keyFilterKeys = _keyFilterKeys;
+        copy._keyFilterFalsePositiveRate = _keyFilterFalsePositiveRate;
+        copy._diskCacheDirectory = _diskCacheDirectory;
+        copy._diskCacheBytes = _diskCacheBytes;
+        copy._diskCacheMaxAgeMillis = _diskCacheMaxAgeMillis;
+        return copy;
+    }
+
+    DAOOptions withMBeanRegistration() {
+        final DAOOptions copy = copy();
+        copy._registerMBeans = true;
+        return copy;
+    }
+
+    DAOOptions withSlowOperationLog( final SlowOperationLog slowOperationLog ) {
+        final DAOOptions copy = copy();
+        copy._slowOperationLog = slowOperationLog;
+        return copy;
+    }
+
+    DAOOptions withNearCacheBytes( final long nearCacheBytes ) {
+        final DAOOptions copy = copy();
+        copy._nearCacheBytes = nearCacheBytes;
+        return copy;
+    }
+
+    DAOOptions withHotKeyTracking( final int hotKeys, final long windowMillis ) {
+        final DAOOptions copy = copy();
+        copy._hotKeys = hotKeys;
+        copy._hotKeyWindowMillis = windowMillis;
+        return copy;
+    }
+
+    /**
+     * @param admission shared by all DAOs of the factory, the parent of the column family controllers
+     */
+    DAOOptions withAdmission( final AdmissionController admission ) {
+        final DAOOptions copy = copy();
+        copy._admission = admission;
+        final Map<String, AdmissionController> controllers = Maps.newHashMap();
+        for ( final Map.Entry<String, AdmissionPolicy> policy : _columnFamilyPolicies.entrySet() ) {
+            controllers.put( policy.getKey(), newColumnFamilyAdmission( policy.getKey(), policy.getValue(), admission ) );
+        }
+        copy._columnFamilyAdmission = ImmutableMap.copyOf( controllers );
+        return copy;
+    }
+
+    /**
+     * The controller is created here once, so all DAOs of the column family
+     * share its limits, also those made by derived factories.
+     */
+    DAOOptions withColumnFamilyAdmission( final String columnFamily, final AdmissionPolicy policy ) {
+        final Map<String, AdmissionPolicy> policies = Maps.newHashMap( _columnFamilyPolicies );
+        policies.put( columnFamily, policy );
+        final Map<String, AdmissionController> controllers = Maps.newHashMap( _columnFamilyAdmission );
+        controllers.put( columnFamily, newColumnFamilyAdmission( columnFamily, policy, _admission ) );
+        final DAOOptions copy = copy();
+        copy._columnFamilyPolicies = ImmutableMap.copyOf( policies );
+        copy._columnFamilyAdmission = ImmutableMap.copyOf( controllers );
+        return copy;
+    }
+
+    private static AdmissionController newColumnFamilyAdmission( final String columnFamily, final AdmissionPolicy policy,
+            final AdmissionController parent ) {
+        return new AdmissionController( "column family " + columnFamily, policy, parent );
+    }
+
+    DAOOptions withMissCache( final int entries, final long ttlMillis ) {
+        final DAOOptions copy = copy();
+        copy._missCacheEntries = entries;
+        copy._missCacheTtlMillis = ttlMillis;
+        return copy;
+    }
+
+    DAOOptions withKeyFilter( final int expectedKeys, final double falsePositiveRate ) {
+        final DAOOptions copy = copy();
+        copy._keyFilterKeys = expectedKeys;
+        copy._keyFilterFalsePositiveRate = falsePositiveRate;
+        return copy;
+    }
+
+    DAOOptions withDiskCache( final File directory, final long maxBytes, final long maxAgeMillis ) {
+        final DAOOptions copy = copy();
+        copy._diskCacheDirectory = directory;
+        copy._diskCacheBytes = maxBytes;
+        copy._diskCacheMaxAgeMillis = maxAgeMillis;
+        return copy;
+    }
+
+    boolean isRegisterMBeans() {
+        return _registerMBeans;
+    }
+
+    SlowOperationLog getSlowOperationLog() {
+        return _slowOperationLog;
+    }
+
+    /**
+     * @return direct memory per DAO for its {@link NearCache}, 0 for none
+     */
+    long getNearCacheBytes() {
+        return _nearCacheBytes;
+    }
+
+    /**
+     * @return a new tracker of the hottest keys, or null if they are not tracked
+     */
+    HotKeyTracker newHotKeyTracker() {
+        return _hotKeys > 0 ? new HotKeyTracker( _hotKeys, _hotKeyWindowMillis ) : null;
+    }
+
+    /**
+     * @return a new cache of missing keys, or null if misses are not cached
+     */
+    MissCache newMissCache() {
+        return _missCacheEntries > 0 ? new MissCache( _missCacheEntries, _missCacheTtlMillis ) : null;
+    }
+
+    /**
+     * @return a new, not yet built filter of the keys, or null if keys are not filtered
+     */
+    KeyFilter newKeyFilter() {
+        return _keyFilterKeys > 0 ? new KeyFilter( _keyFilterKeys, _keyFilterFalsePositiveRate ) : null;
+    }
+
+    /**
+     * Entity classes mapped to the same column family read different
+     * columns, so each has a directory of its own.
+     * 
+     * @return the disk cache of the entity class, opened from its directory
+     *         below the configured one, or null if rows are not cached on disk
+     */
+    DiskCache openDiskCache( final EntityMetadata<?> metadata ) {
+        if ( _diskCacheDirectory == null ) {
+            return null;
+        }
+        final File directory = new File( new File( new File( _diskCacheDirectory, metadata.getKeyspace() ), metadata.getColumnFamily() ),
+                metadata.getEntityClass().getName() );
+        return DiskCache.open( directory, _diskCacheBytes, _diskCacheMaxAgeMillis, metadata.getColumnFingerprint() );
+    }
+
+    /**
+     * @return the controller admitting the operations of the DAOs for the
+     *         column family, the one of the factory if the column family has
+     *         no policy of its own, null if nothing is limited
+     */
+    AdmissionController getAdmissionController( final String columnFamily ) {
+        final AdmissionController controller = _columnFamilyAdmission.get( columnFamily );
+        return controller == null ? _admission : controller;
+    }
+
+}
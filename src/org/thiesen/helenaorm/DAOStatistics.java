@@ -0,0 +1,424 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runtime statistics of one {@link HelenaDAO}, see {@link HelenaDAO#getStatistics()}.
+ */
+public final class DAOStatistics implements DAOStatisticsMBean {
+
+    private final String _keyspace;
+    private final String _columnFamily;
+    private final PayloadStatistics _payload;
+    private final NearCache _nearCache;
+    private final DiskCache _diskCache;
+    private final HotKeyTracker _hotReads;
+    private final HotKeyTracker _hotWrites;
+    private final AdmissionStatistics _admission;
+    private final MissCache _missCache;
+    private final KeyFilter _keyFilter;
+
+    DAOStatistics( final EntityMetadata<?> metadata, final NearCache nearCache, final DiskCache diskCache, final HotKeyTracker hotReads,
+            final HotKeyTracker hotWrites, final AdmissionStatistics admission, final MissCache missCache, final KeyFilter keyFilter ) {
+        _keyspace = metadata.getKeyspace();
+        _columnFamily = metadata.getColumnFamily();
+        _payload = new PayloadStatistics( metadata.getProperties() );
+        _nearCache = nearCache;
+        _diskCache = diskCache;
+        _hotReads = hotReads;
+        _hotWrites = hotWrites;
+        _admission = admission;
+        _missCache = missCache;
+        _keyFilter = keyFilter;
+    }
+
+    public PayloadStatistics getPayload() {
+        return _payload;
+    }
+
+    /**
+     * @return the most read keys, null unless the factory tracks hot keys
+     */
+    public HotKeyTracker getHotReads() {
+        return _hotReads;
+    }
+
+    /**
+     * @return the most written keys, null unless the factory tracks hot keys
+     */
+    public HotKeyTracker getHotWrites() {
+        return _hotWrites;
+    }
+
+    @Override
+    public String getKeyspace() {
+        return _keyspace;
+    }
+
+    @Override
+    public String getColumnFamily() {
+        return _columnFamily;
+    }
+
+    @Override
+    public long getWrittenRows() {
+        return _payload.getWrittenRows().getCount();
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return _payload.getWrittenRows().getTotalBytes();
+    }
+
+    @Override
+    public double getMeanWrittenRowBytes() {
+        return _payload.getWrittenRows().getMeanBytes();
+    }
+
+    @Override
+    public long getP99WrittenRowBytes() {
+        return _payload.getWrittenRows().getPercentileBytes( 99 );
+    }
+
+    @Override
+    public long getMaxWrittenRowBytes() {
+        return _payload.getWrittenRows().getMaxBytes();
+    }
+
+    @Override
+    public long getReadRows() {
+        return _payload.getReadRows().getCount();
+    }
+
+    @Override
+    public long getReadBytes() {
+        return _payload.getReadRows().getTotalBytes();
+    }
+
+    @Override
+    public double getMeanReadRowBytes() {
+        return _payload.getReadRows().getMeanBytes();
+    }
+
+    @Override
+    public long getP99ReadRowBytes() {
+        return _payload.getReadRows().getPercentileBytes( 99 );
+    }
+
+    @Override
+    public long getMaxReadRowBytes() {
+        return _payload.getReadRows().getMaxBytes();
+    }
+
+    @Override
+    public String[] getLargestRows() {
+        final List<PayloadStatistics.LargeRow> rows = _payload.getLargestRows();
+        final String[] result = new String[rows.size()];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = rows.get( i ).toString();
+        }
+        return result;
+    }
+
+    @Override
+    public String[] getPropertySizes() {
+        final Map<String, SizeHistogram> written = _payload.getWrittenProperties();
+        final Map<String, SizeHistogram> read = _payload.getReadProperties();
+        final String[] result = new String[written.size()];
+        int i = 0;
+        for ( final Map.Entry<String, SizeHistogram> property : written.entrySet() ) {
+            result[i++] = property.getKey() + ": written " + property.getValue() + "; read " + read.get( property.getKey() );
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isNearCacheEnabled() {
+        return _nearCache != null;
+    }
+
+    @Override
+    public long getNearCacheHits() {
+        return _nearCache == null ? 0 : _nearCache.getHits();
+    }
+
+    @Override
+    public long getNearCacheMisses() {
+        return _nearCache == null ? 0 : _nearCache.getMisses();
+    }
+
+    @Override
+    public double getNearCacheHitRate() {
+        final long hits = getNearCacheHits();
+        final long lookups = hits + getNearCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getNearCacheEvictions() {
+        return _nearCache == null ? 0 : _nearCache.getEvictions();
+    }
+
+    @Override
+    public long getNearCacheEntries() {
+        return _nearCache == null ? 0 : _nearCache.getEntries();
+    }
+
+    @Override
+    public long getNearCacheAllocatedBytes() {
+        return _nearCache == null ? 0 : _nearCache.getAllocatedBytes();
+    }
+
+    @Override
+    public long getNearCacheMaxBytes() {
+        return _nearCache == null ? 0 : _nearCache.getMaxBytes();
+    }
+
+    @Override
+    public void clearNearCache() {
+        if ( _nearCache != null ) {
+            _nearCache.clear();
+        }
+    }
+
+    @Override
+    public boolean isDiskCacheEnabled() {
+        return _diskCache != null;
+    }
+
+    @Override
+    public String getDiskCacheDirectory() {
+        return _diskCache == null ? null : _diskCache.getDirectory().getPath();
+    }
+
+    @Override
+    public long getDiskCacheHits() {
+        return _diskCache == null ? 0 : _diskCache.getHits();
+    }
+
+    @Override
+    public long getDiskCacheMisses() {
+        return _diskCache == null ? 0 : _diskCache.getMisses();
+    }
+
+    @Override
+    public double getDiskCacheHitRate() {
+        final long hits = getDiskCacheHits();
+        final long lookups = hits + getDiskCacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public long getDiskCacheExpired() {
+        return _diskCache == null ? 0 : _diskCache.getExpired();
+    }
+
+    @Override
+    public long getDiskCacheEvictedSegments() {
+        return _diskCache == null ? 0 : _diskCache.getEvictedSegments();
+    }
+
+    @Override
+    public int getDiskCacheEntries() {
+        return _diskCache == null ? 0 : _diskCache.getEntries();
+    }
+
+    @Override
+    public long getDiskCacheBytes() {
+        return _diskCache == null ? 0 : _diskCache.getBytes();
+    }
+
+    @Override
+    public long getDiskCacheMaxBytes() {
+        return _diskCache == null ? 0 : _diskCache.getMaxBytes();
+    }
+
+    @Override
+    public void clearDiskCache() {
+        if ( _diskCache != null ) {
+            _diskCache.clear();
+        }
+    }
+
+    @Override
+    public boolean isHotKeyTrackingEnabled() {
+        return _hotReads != null;
+    }
+
+    @Override
+    public String[] getHotReadKeys() {
+        return toStrings( _hotReads );
+    }
+
+    @Override
+    public String[] getHotWriteKeys() {
+        return toStrings( _hotWrites );
+    }
+
+    private static String[] toStrings( final HotKeyTracker tracker ) {
+        if ( tracker == null ) {
+            return new String[0];
+        }
+        final List<HotKeyTracker.HotKey> keys = tracker.getHotKeys();
+        final String[] result = new String[keys.size()];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = keys.get( i ).toString();
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isAdmissionControlEnabled() {
+        return _admission != null;
+    }
+
+    @Override
+    public long getAdmittedReads() {
+        return _admission == null ? 0 : _admission.getReads().getAdmitted();
+    }
+
+    @Override
+    public long getRejectedReads() {
+        return _admission == null ? 0 : _admission.getReads().getRejected();
+    }
+
+    @Override
+    public double getMeanReadAdmissionWaitMillis() {
+        return _admission == null ? 0 : _admission.getReads().getMeanWaitMillis();
+    }
+
+    @Override
+    public double getMaxReadAdmissionWaitMillis() {
+        return _admission == null ? 0 : _admission.getReads().getMaxWaitMillis();
+    }
+
+    @Override
+    public long getAdmittedWrites() {
+        return _admission == null ? 0 : _admission.getWrites().getAdmitted();
+    }
+
+    @Override
+    public long getRejectedWrites() {
+        return _admission == null ? 0 : _admission.getWrites().getRejected();
+    }
+
+    @Override
+    public double getMeanWriteAdmissionWaitMillis() {
+        return _admission == null ? 0 : _admission.getWrites().getMeanWaitMillis();
+    }
+
+    @Override
+    public double getMaxWriteAdmissionWaitMillis() {
+        return _admission == null ? 0 : _admission.getWrites().getMaxWaitMillis();
+    }
+
+    @Override
+    public int getOperationsInFlight() {
+        return _admission == null ? 0 : _admission.getInFlight();
+    }
+
+    @Override
+    public boolean isMissCacheEnabled() {
+        return _missCache != null;
+    }
+
+    @Override
+    public long getMissCacheHits() {
+        return _missCache == null ? 0 : _missCache.getHits();
+    }
+
+    @Override
+    public double getMissCacheHitRate() {
+        final long lookups = _missCache == null ? 0 : _missCache.getLookups();
+        return lookups == 0 ? 0 : (double) _missCache.getHits() / lookups;
+    }
+
+    @Override
+    public int getMissCacheEntries() {
+        return _missCache == null ? 0 : _missCache.getEntries();
+    }
+
+    @Override
+    public void clearMissCache() {
+        if ( _missCache != null ) {
+            _missCache.clear();
+        }
+    }
+
+    @Override
+    public boolean isKeyFilterEnabled() {
+        return _keyFilter != null;
+    }
+
+    @Override
+    public boolean isKeyFilterReady() {
+        return _keyFilter != null && _keyFilter.isReady();
+    }
+
+    @Override
+    public long getKeyFilterHits() {
+        return _keyFilter == null ? 0 : _keyFilter.getHits();
+    }
+
+    @Override
+    public double getKeyFilterHitRate() {
+        final long lookups = _keyFilter == null ? 0 : _keyFilter.getLookups();
+        return lookups == 0 ? 0 : (double) _keyFilter.getHits() / lookups;
+    }
+
+    @Override
+    public long getKeyFilterFalsePositives() {
+        return _keyFilter == null ? 0 : _keyFilter.getFalsePositives();
+    }
+
+    @Override
+    public double getKeyFilterFalsePositiveRate() {
+        final long absent = getKeyFilterHits() + getKeyFilterFalsePositives();
+        return absent == 0 ? 0 : (double) getKeyFilterFalsePositives() / absent;
+    }
+
+    @Override
+    public double getKeyFilterExpectedFalsePositiveRate() {
+        return _keyFilter == null ? 0 : _keyFilter.getExpectedFalsePositiveRate();
+    }
+
+    @Override
+    public void reset() {
+        _payload.reset();
+        if ( _admission != null ) {
+            _admission.reset();
+        }
+        if ( _hotReads != null ) {
+            _hotReads.reset();
+            _hotWrites.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DAOStatistics [" + _keyspace + "/" + _columnFamily + ", written " + _payload.getWrittenRows()
+            + ", read " + _payload.getReadRows() + "]";
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * JMX view of {@link DAOStatistics}, registered by factories configured
+ * with {@link HelenaORMDAOFactory#withMBeanRegistration()}.
+ */
+public interface DAOStatisticsMBean {
+
+    String getKeyspace();
+
+    String getColumnFamily();
+
+    long getWrittenRows();
+
+    long getWrittenBytes();
+
+    double getMeanWrittenRowBytes();
+
+    long getP99WrittenRowBytes();
+
+    long getMaxWrittenRowBytes();
+
+    long getReadRows();
+
+    long getReadBytes();
+
+    double getMeanReadRowBytes();
+
+    long getP99ReadRowBytes();
+
+    long getMaxReadRowBytes();
+
+    /**
+     * @return <code>key=bytes</code> of the largest rows, largest first
+     */
+    String[] getLargestRows();
+
+    /**
+     * @return one line per property summarizing its written and read sizes
+     */
+    String[] getPropertySizes();
+
+    boolean isNearCacheEnabled();
+
+    long getNearCacheHits();
+
+    long getNearCacheMisses();
+
+    double getNearCacheHitRate();
+
+    long getNearCacheEvictions();
+
+    long getNearCacheEntries();
+
+    /**
+     * @return direct memory taken by the slabs of the near cache, which never shrinks before it is cleared
+     */
+    long getNearCacheAllocatedBytes();
+
+    long getNearCacheMaxBytes();
+
+    void clearNearCache();
+
+    boolean isDiskCacheEnabled();
+
+    String getDiskCacheDirectory();
+
+    long getDiskCacheHits();
+
+    long getDiskCacheMisses();
+
+    double getDiskCacheHitRate();
+
+    /**
+     * @return rows not served because they were older than the maximum age
+     */
+    long getDiskCacheExpired();
+
+    long getDiskCacheEvictedSegments();
+
+    int getDiskCacheEntries();
+
+    /**
+     * @return disk space taken by the segment files
+     */
+    long getDiskCacheBytes();
+
+    long getDiskCacheMaxBytes();
+
+    /**
+     * Deletes all segment files.
+     */
+    void clearDiskCache();
+
+    boolean isHotKeyTrackingEnabled();
+
+    /**
+     * @return <code>key=rate/s</code> of the most read keys within the tracking window, hottest first
+     */
+    String[] getHotReadKeys();
+
+    /**
+     * @return <code>key=rate/s</code> of the most written keys within the tracking window, hottest first
+     */
+    String[] getHotWriteKeys();
+
+    boolean isAdmissionControlEnabled();
+
+    long getAdmittedReads();
+
+    long getRejectedReads();
+
+    /**
+     * @return the mean time reads waited for admission, rejected ones included
+     */
+    double getMeanReadAdmissionWaitMillis();
+
+    double getMaxReadAdmissionWaitMillis();
+
+    long getAdmittedWrites();
+
+    long getRejectedWrites();
+
+    double getMeanWriteAdmissionWaitMillis();
+
+    double getMaxWriteAdmissionWaitMillis();
+
+    /**
+     * @return operations of this DAO admitted and not yet completed
+     */
+    int getOperationsInFlight();
+
+    boolean isMissCacheEnabled();
+
+    /**
+     * @return reads answered from the cache of missing keys
+     */
+    long getMissCacheHits();
+
+    double getMissCacheHitRate();
+
+    int getMissCacheEntries();
+
+    void clearMissCache();
+
+    boolean isKeyFilterEnabled();
+
+    /**
+     * @return true once the key filter was built and is used
+     */
+    boolean isKeyFilterReady();
+
+    /**
+     * @return reads the key filter answered as missing without a round trip
+     */
+    long getKeyFilterHits();
+
+    double getKeyFilterHitRate();
+
+    /**
+     * @return reads the key filter let through that found no row
+     */
+    long getKeyFilterFalsePositives();
+
+    /**
+     * @return the fraction of reads of missing keys the key filter failed to rule out
+     */
+    double getKeyFilterFalsePositiveRate();
+
+    /**
+     * @return the false positive rate expected from the fill of the key filter
+     */
+    double getKeyFilterExpectedFalsePositiveRate();
+
+    void reset();
+
+}
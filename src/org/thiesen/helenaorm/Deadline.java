@@ -0,0 +1,208 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+/**
+ * A time budget and cancellation flag for the DAO calls made by one thread
+ * while it is entered:
+ * 
+ * <pre>
+ * final Deadline deadline = Deadline.after( 200, TimeUnit.MILLISECONDS );
+ * deadline.enter();
+ * try {
+ *     customers = customerDao.get( keys );
+ * } finally {
+ *     deadline.exit();
+ * }
+ * </pre>
+ * 
+ * Every backend call, including retries and the wait for admission, is
+ * bounded by the remaining time, and multi-step operations stop before
+ * their next page, batch or row once the deadline has expired or was
+ * cancelled, failing with {@link HelenaDeadlineExceededException} or
+ * {@link HelenaCancelledException}. Iterables and publishers returned by
+ * the DAO keep the deadlines that were entered when their iterator or
+ * publisher was created. A backend call already sent is not interrupted.
+ * <p>
+ * Deadlines may be nested, all entered ones apply. A deadline is thread
+ * safe, so it can be cancelled from another thread.
+ */
+public final class Deadline {
+
+    private static final ThreadLocal<List<Deadline>> ACTIVE = new ThreadLocal<List<Deadline>>();
+
+    private final long _timeoutNanos;
+    private final long _expiresAt;
+    private volatile boolean _cancelled;
+
+    private Deadline( final long timeoutNanos ) {
+        _timeoutNanos = timeoutNanos;
+        _expiresAt = System.nanoTime() + timeoutNanos;
+    }
+
+    /**
+     * @return a deadline expiring after the timeout, counted from now
+     */
+    public static Deadline after( final long timeout, final TimeUnit unit ) {
+        if ( timeout <= 0 ) {
+            throw new IllegalArgumentException( "Timeout must be positive, got " + timeout );
+        }
+        return new Deadline( unit.toNanos( timeout ) );
+    }
+
+    /**
+     * @return a deadline without time limit that only ends when cancelled
+     */
+    public static Deadline cancellable() {
+        return new Deadline( 0 );
+    }
+
+    /**
+     * Stops the operations running under this deadline before their next
+     * backend call, on all threads.
+     */
+    public void cancel() {
+        _cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return _cancelled;
+    }
+
+    public boolean isExpired() {
+        return _timeoutNanos > 0 && System.nanoTime() - _expiresAt >= 0;
+    }
+
+    /**
+     * @return the milliseconds left, {@link Long#MAX_VALUE} for a deadline without time limit
+     */
+    public long getRemainingMillis() {
+        final long nanos = remainingNanos();
+        return nanos == Long.MAX_VALUE ? Long.MAX_VALUE : TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    /**
+     * Applies the deadline to the DAO calls of this thread until {@link #exit()}.
+     */
+    public void enter() {
+        List<Deadline> active = ACTIVE.get();
+        if ( active == null ) {
+            active = Lists.newArrayListWithCapacity( 2 );
+            ACTIVE.set( active );
+        }
+        active.add( this );
+    }
+
+    /**
+     * @throws IllegalStateException if this is not the deadline entered last on this thread
+     */
+    public void exit() {
+        final List<Deadline> active = ACTIVE.get();
+        if ( active == null || active.isEmpty() || active.get( active.size() - 1 ) != this ) {
+            throw new IllegalStateException( "Deadline was not the last one entered on this thread" );
+        }
+        active.remove( active.size() - 1 );
+        if ( active.isEmpty() ) {
+            ACTIVE.remove();
+        }
+    }
+
+    private long remainingNanos() {
+        return _timeoutNanos == 0 ? Long.MAX_VALUE : Math.max( 0, _expiresAt - System.nanoTime() );
+    }
+
+    /**
+     * @return the deadlines entered on this thread, to be handed to work done later or elsewhere
+     */
+    static List<Deadline> capture() {
+        final List<Deadline> active = ACTIVE.get();
+        return active == null ? ImmutableList.<Deadline>of() : ImmutableList.copyOf( active );
+    }
+
+    /**
+     * Enters captured deadlines, a no-op for none.
+     */
+    static void enter( final List<Deadline> deadlines ) {
+        for ( final Deadline deadline : deadlines ) {
+            deadline.enter();
+        }
+    }
+
+    static void exit( final List<Deadline> deadlines ) {
+        for ( int i = deadlines.size() - 1; i >= 0; i-- ) {
+            deadlines.get( i ).exit();
+        }
+    }
+
+    /**
+     * @return true if a deadline is entered on this thread
+     */
+    static boolean isActive() {
+        return ACTIVE.get() != null;
+    }
+
+    /**
+     * @param failure the failure of the last attempt, if any, reported as cause
+     * @throws HelenaCancelledException if an entered deadline was cancelled
+     * @throws HelenaDeadlineExceededException if an entered deadline has expired
+     */
+    static void check( final String operation, final Throwable failure ) {
+        final List<Deadline> active = ACTIVE.get();
+        if ( active == null ) {
+            return;
+        }
+        for ( int i = 0; i < active.size(); i++ ) {
+            active.get( i ).verify( operation, failure );
+        }
+    }
+
+    private void verify( final String operation, final Throwable failure ) {
+        if ( _cancelled ) {
+            throw new HelenaCancelledException( operation + " was cancelled" );
+        }
+        if ( isExpired() ) {
+            throw new HelenaDeadlineExceededException( operation + " exceeded the deadline of its caller of "
+                    + TimeUnit.NANOSECONDS.toMillis( _timeoutNanos ) + "ms", failure );
+        }
+    }
+
+    /**
+     * @return the nanoseconds left until the first entered deadline expires,
+     *         {@link Long#MAX_VALUE} if none has a time limit
+     */
+    static long remainingNanosOfActive() {
+        final List<Deadline> active = ACTIVE.get();
+        long remaining = Long.MAX_VALUE;
+        if ( active != null ) {
+            for ( int i = 0; i < active.size(); i++ ) {
+                remaining = Math.min( remaining, active.get( i ).remainingNanos() );
+            }
+        }
+        return remaining;
+    }
+
+}
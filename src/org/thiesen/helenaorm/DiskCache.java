@@ -0,0 +1,609 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.cassandra.service.Column;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A second cache tier below the {@link NearCache} that keeps rows in
+ * memory mapped segment files, so a restarted process serves the rows it
+ * read before at once. Rows and removals are appended to the newest
+ * segment, the index from key to the latest record lives on the heap and is
+ * rebuilt by reading all segments when the cache is opened. When the
+ * segments exceed the size cap the oldest one is deleted with all rows it
+ * holds. Rows older than the maximum age are not served, which bounds how
+ * stale rows written by other clients or while the process was down can be.
+ * 
+ * A segment starts with a header holding the format and the fingerprint of
+ * the mapping whose columns it caches, see
+ * {@link EntityMetadata#getColumnFingerprint()}. Segments of another
+ * mapping are deleted when the cache is opened, so a deployment that
+ * changes which columns are read or how they are decoded starts empty.
+ * 
+ * A record is its length followed by the time it was written, the key, the
+ * number of columns, -1 for a removal, the columns and a CRC32 of all but
+ * the length. The length is written last, so a record cut short by a crash
+ * ends the segment when it is read again.
+ * 
+ * The directory is locked while the cache is open, only one process can
+ * use it at a time. Within the process all DAOs opening the same directory,
+ * also those of different factories, share one instance, which is closed
+ * when the last of them is closed.
+ */
+final class DiskCache {
+    private static final Log LOG = LogFactory.getLog( DiskCache.class );
+
+    private static final Charset UTF8 = Charset.forName( "UTF-8" );
+    private static final int MAGIC = 0x48454C43; // HELC
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 16;
+    private static final int MIN_SEGMENT_BYTES = 64 * 1024;
+    static final long MIN_BYTES = 2 * MIN_SEGMENT_BYTES;
+    private static final int SEGMENTS = 16;
+    private static final int STRIPES = 64;
+    private static final String SUFFIX = ".segment";
+    /** The caches open in this process by canonical directory, guarded by itself */
+    private static final Map<File, DiskCache> OPEN = new HashMap<File, DiskCache>();
+
+    private final File _directory;
+    private final int _segmentBytes;
+    private final int _maxSegments;
+    private final long _maxAgeMillis;
+    private final long _fingerprint;
+    private final RandomAccessFile _lockFile;
+    private final FileLock _lock;
+    /** Readers hold it while they access a mapped segment, closing unmaps them */
+    private final ReadWriteLock _access = new ReentrantReadWriteLock();
+    private int _references = 1;
+    private boolean _closed;
+    private final ConcurrentMap<String, Location> _index = new ConcurrentHashMap<String, Location>();
+    private final LinkedList<Segment> _segments = new LinkedList<Segment>();
+    private final long[] _generations = new long[STRIPES];
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _misses = new AtomicLong();
+    private final AtomicLong _expired = new AtomicLong();
+    private final AtomicLong _evictedSegments = new AtomicLong();
+    private long _nextSequence;
+
+    /**
+     * Opens the cache in the directory, creating it if needed, and indexes
+     * the rows found in its segments. If the directory is already open in
+     * this process its cache is shared, with the size and age it was opened
+     * with. Every call has to be followed by a call to {@link #close()}.
+     * 
+     * @param fingerprint identifies the columns and codecs of the cached rows
+     * @throws HelenaRuntimeException if the directory can not be used, is locked by another process
+     *             or is open in this process for another mapping
+     */
+    static DiskCache open( final File directory, final long maxBytes, final long maxAgeMillis, final long fingerprint ) {
+        if ( maxBytes < MIN_BYTES || maxAgeMillis <= 0 ) {
+            throw new IllegalArgumentException( "Need at least " + MIN_BYTES + " bytes and a positive maximum age, got "
+                    + maxBytes + " bytes and " + maxAgeMillis + "ms" );
+        }
+        if ( !directory.isDirectory() && !directory.mkdirs() ) {
+            throw new HelenaRuntimeException( "Could not create disk cache directory " + directory );
+        }
+        final File canonical;
+        try {
+            canonical = directory.getCanonicalFile();
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Could not resolve disk cache directory " + directory, e );
+        }
+        synchronized ( OPEN ) {
+            final DiskCache open = OPEN.get( canonical );
+            if ( open != null ) {
+                if ( open._fingerprint != fingerprint ) {
+                    throw new HelenaRuntimeException( "Disk cache " + canonical + " is already open for another mapping" );
+                }
+                if ( open._segmentBytes != segmentBytesFor( maxBytes ) || open._maxSegments != maxSegmentsFor( maxBytes )
+                        || open._maxAgeMillis != maxAgeMillis ) {
+                    LOG.warn( "Disk cache " + canonical + " is already open with other settings, sharing it" );
+                }
+                open._references++;
+                return open;
+            }
+            final DiskCache created = new DiskCache( canonical, maxBytes, maxAgeMillis, fingerprint );
+            OPEN.put( canonical, created );
+            return created;
+        }
+    }
+
+    private DiskCache( final File directory, final long maxBytes, final long maxAgeMillis, final long fingerprint ) {
+        _directory = directory;
+        _fingerprint = fingerprint;
+        _segmentBytes = segmentBytesFor( maxBytes );
+        _maxSegments = maxSegmentsFor( maxBytes );
+        _maxAgeMillis = maxAgeMillis;
+        try {
+            _lockFile = new RandomAccessFile( new File( directory, "lock" ), "rw" );
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Could not lock disk cache " + directory, e );
+        }
+        boolean opened = false;
+        try {
+            _lock = lock( _lockFile, directory );
+            load();
+            opened = true;
+        } catch ( final IOException e ) {
+            throw new HelenaRuntimeException( "Could not read disk cache " + directory, e );
+        } finally {
+            if ( !opened ) {
+                release();
+            }
+        }
+    }
+
+    private static int segmentBytesFor( final long maxBytes ) {
+        return (int) Math.min( Integer.MAX_VALUE, Math.max( MIN_SEGMENT_BYTES, maxBytes / SEGMENTS ) );
+    }
+
+    private static int maxSegmentsFor( final long maxBytes ) {
+        return (int) Math.max( 2, maxBytes / segmentBytesFor( maxBytes ) );
+    }
+
+    private static FileLock lock( final RandomAccessFile lockFile, final File directory ) throws IOException {
+        try {
+            final FileLock lock = lockFile.getChannel().tryLock();
+            if ( lock == null ) {
+                throw new HelenaRuntimeException( "Disk cache " + directory + " is used by another process" );
+            }
+            return lock;
+        } catch ( final OverlappingFileLockException e ) {
+            throw new HelenaRuntimeException( "Disk cache " + directory + " is locked by another instance in this process", e );
+        }
+    }
+
+    /**
+     * Releases one reference; the last one unmaps the segments and unlocks
+     * the directory. The files are kept for the next process.
+     */
+    void close() {
+        synchronized ( OPEN ) {
+            if ( --_references > 0 ) {
+                return;
+            }
+            OPEN.remove( _directory );
+        }
+        synchronized ( this ) {
+            _access.writeLock().lock();
+            try {
+                _closed = true;
+                _index.clear();
+                for ( final Segment segment : _segments ) {
+                    unmap( segment._buffer );
+                }
+                _segments.clear();
+            } finally {
+                _access.writeLock().unlock();
+            }
+        }
+        release();
+        if ( LOG.isInfoEnabled() ) {
+            LOG.info( "Closed disk cache " + _directory );
+        }
+    }
+
+    /**
+     * Closing the file releases the lock on the directory.
+     */
+    private void release() {
+        try {
+            _lockFile.close();
+        } catch ( final IOException e ) {
+            LOG.warn( "Could not unlock disk cache " + _directory, e );
+        }
+    }
+
+    /**
+     * Unmaps the buffer at once where the runtime allows it, otherwise it is
+     * unmapped when it is collected.
+     */
+    private static void unmap( final MappedByteBuffer buffer ) {
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            final Object cleaner = cleanerMethod.invoke( buffer );
+            if ( cleaner != null ) {
+                cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            }
+        } catch ( final Exception e ) {
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug( "Leaving the unmapping of a disk cache segment to the garbage collector", e );
+            }
+        }
+    }
+
+    /**
+     * Indexes the segments oldest first, so later records of a key replace
+     * earlier ones, and deletes segments beyond the size cap or of another size.
+     */
+    private void load() throws IOException {
+        final File[] files = _directory.listFiles( new FilenameFilter() {
+            @Override
+            public boolean accept( final File dir, final String name ) {
+                return name.endsWith( SUFFIX );
+            }
+        } );
+        final long[] sequences = new long[files.length];
+        int count = 0;
+        for ( final File file : files ) {
+            try {
+                sequences[count] = Long.parseLong( file.getName().substring( 0, file.getName().length() - SUFFIX.length() ) );
+                count++;
+            } catch ( final NumberFormatException e ) {
+                LOG.warn( "Ignoring unexpected file " + file + " in disk cache" );
+            }
+        }
+        Arrays.sort( sequences, 0, count );
+        final long oldest = System.currentTimeMillis() - _maxAgeMillis;
+        for ( int i = 0; i < count; i++ ) {
+            final File file = segmentFile( sequences[i] );
+            if ( count - i > _maxSegments || file.length() != _segmentBytes ) {
+                delete( file );
+                continue;
+            }
+            final Segment segment = new Segment( sequences[i], map( file ) );
+            if ( segment._buffer.getInt( 0 ) != MAGIC || segment._buffer.getInt( 4 ) != VERSION ) {
+                LOG.warn( "Deleting disk cache segment " + file + " of an unknown format" );
+                delete( file );
+                continue;
+            }
+            if ( segment._buffer.getLong( 8 ) != _fingerprint ) {
+                LOG.info( "Deleting disk cache segment " + file + " written for another mapping of the entity" );
+                delete( file );
+                continue;
+            }
+            segment._position = index( segment, oldest );
+            _segments.add( segment );
+            _nextSequence = sequences[i] + 1;
+        }
+        if ( LOG.isInfoEnabled() ) {
+            LOG.info( "Opened disk cache " + _directory + " with " + _index.size() + " rows in " + _segments.size() + " segments" );
+        }
+    }
+
+    /**
+     * @return the end of the last complete record
+     */
+    private int index( final Segment segment, final long oldest ) {
+        final ByteBuffer buffer = segment._buffer.duplicate();
+        int position = HEADER_LENGTH;
+        while ( position + 4 <= _segmentBytes ) {
+            final int length = buffer.getInt( position );
+            if ( length <= 12 || length > _segmentBytes - position - 4 || !checksumMatches( buffer, position, length ) ) {
+                break;
+            }
+            final long written = buffer.getLong( position + 4 );
+            final int keyLength = buffer.getInt( position + 12 );
+            final byte[] key = new byte[keyLength];
+            buffer.position( position + 16 );
+            buffer.get( key );
+            final int columns = buffer.getInt();
+            final String keyString = new String( key, UTF8 );
+            if ( columns < 0 || written < oldest ) {
+                _index.remove( keyString );
+            } else {
+                _index.put( keyString, new Location( segment, position, written ) );
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    private static boolean checksumMatches( final ByteBuffer buffer, final int position, final int length ) {
+        return checksum( buffer, position + 4, position + length ) == buffer.getInt( position + length );
+    }
+
+    private static int checksum( final ByteBuffer buffer, final int from, final int to ) {
+        final ByteBuffer range = buffer.duplicate();
+        range.position( from );
+        final byte[] chunk = new byte[Math.min( 4096, to - from )];
+        final CRC32 crc = new CRC32();
+        for ( int remaining = to - from; remaining > 0; remaining -= chunk.length ) {
+            final int length = Math.min( chunk.length, remaining );
+            range.get( chunk, 0, length );
+            crc.update( chunk, 0, length );
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * @return the cached columns of the row, or null if it is not cached or too old
+     */
+    List<Column> get( final String key ) {
+        _access.readLock().lock();
+        try {
+            return read( key );
+        } finally {
+            _access.readLock().unlock();
+        }
+    }
+
+    private List<Column> read( final String key ) {
+        final Location location = _index.get( key );
+        if ( location == null ) {
+            _misses.incrementAndGet();
+            return null;
+        }
+        if ( location._written < System.currentTimeMillis() - _maxAgeMillis ) {
+            _index.remove( key, location );
+            _expired.incrementAndGet();
+            _misses.incrementAndGet();
+            return null;
+        }
+        final ByteBuffer buffer = location._segment._buffer.duplicate();
+        buffer.position( location._offset + 12 );
+        buffer.position( buffer.position() + 4 + buffer.getInt() );
+        final int count = buffer.getInt();
+        final Column[] columns = new Column[count];
+        for ( int i = 0; i < count; i++ ) {
+            final byte[] name = new byte[buffer.getInt()];
+            buffer.get( name );
+            final byte[] value = new byte[buffer.getInt()];
+            buffer.get( value );
+            columns[i] = new Column( name, value, buffer.getLong() );
+        }
+        _hits.incrementAndGet();
+        return ImmutableList.of( columns );
+    }
+
+    /**
+     * Returns a token to pass to {@link #put(String, List, long)} for columns
+     * read after this call, see {@link NearCache#generation(String)}.
+     */
+    long generation( final String key ) {
+        synchronized ( this ) {
+            return _generations[stripe( key )];
+        }
+    }
+
+    void put( final String key, final List<Column> columns, final long generation ) {
+        final byte[] keyBytes = key.getBytes( UTF8 );
+        int length = 8 + 4 + keyBytes.length + 4 + 4;
+        for ( final Column column : columns ) {
+            length += 4 + column.name.length + 4 + column.value.length + 8;
+        }
+        if ( length + 4 > _segmentBytes - HEADER_LENGTH ) {
+            return;
+        }
+        synchronized ( this ) {
+            if ( _closed || _generations[stripe( key )] != generation ) {
+                return;
+            }
+            final long now = System.currentTimeMillis();
+            final Location location = append( length, now, keyBytes, columns );
+            if ( location != null ) {
+                _index.put( key, location );
+            }
+        }
+    }
+
+    void invalidate( final String key ) {
+        synchronized ( this ) {
+            _generations[stripe( key )]++;
+            if ( _index.remove( key ) != null && !_closed ) {
+                append( 8 + 4 + key.getBytes( UTF8 ).length + 4 + 4, System.currentTimeMillis(), key.getBytes( UTF8 ), null );
+            }
+        }
+    }
+
+    /**
+     * Deletes all segments.
+     */
+    void clear() {
+        synchronized ( this ) {
+            for ( int i = 0; i < STRIPES; i++ ) {
+                _generations[i]++;
+            }
+            _index.clear();
+            while ( !_segments.isEmpty() ) {
+                delete( segmentFile( _segments.removeFirst()._sequence ) );
+            }
+        }
+    }
+
+    /**
+     * @param columns null for a removal
+     * @return where the record was written, null if the segment could not be created
+     */
+    private Location append( final int length, final long now, final byte[] key, final List<Column> columns ) {
+        Segment segment = _segments.isEmpty() ? null : _segments.getLast();
+        if ( segment == null || segment._position + 4 + length > _segmentBytes ) {
+            segment = newSegment();
+            if ( segment == null ) {
+                return null;
+            }
+        }
+        final ByteBuffer buffer = segment._buffer.duplicate();
+        final int offset = segment._position;
+        buffer.position( offset + 4 );
+        buffer.putLong( now );
+        buffer.putInt( key.length );
+        buffer.put( key );
+        if ( columns == null ) {
+            buffer.putInt( -1 );
+        } else {
+            buffer.putInt( columns.size() );
+            for ( final Column column : columns ) {
+                buffer.putInt( column.name.length );
+                buffer.put( column.name );
+                buffer.putInt( column.value.length );
+                buffer.put( column.value );
+                buffer.putLong( column.timestamp );
+            }
+        }
+        buffer.putInt( checksum( buffer, offset + 4, offset + length ) );
+        buffer.putInt( offset, length );
+        segment._position = offset + 4 + length;
+        return new Location( segment, offset, now );
+    }
+
+    /**
+     * Starts a new segment, deleting the oldest one beyond the size cap and
+     * dropping the rows it holds from the index.
+     */
+    private Segment newSegment() {
+        final long sequence = _nextSequence++;
+        final Segment segment;
+        try {
+            final MappedByteBuffer buffer = map( segmentFile( sequence ) );
+            buffer.putInt( 0, MAGIC );
+            buffer.putInt( 4, VERSION );
+            buffer.putLong( 8, _fingerprint );
+            segment = new Segment( sequence, buffer );
+        } catch ( final IOException e ) {
+            LOG.warn( "Could not create disk cache segment in " + _directory + ", not caching", e );
+            return null;
+        }
+        segment._position = HEADER_LENGTH;
+        _segments.add( segment );
+        while ( _segments.size() > _maxSegments ) {
+            final Segment evicted = _segments.removeFirst();
+            final Iterator<Map.Entry<String, Location>> entries = _index.entrySet().iterator();
+            while ( entries.hasNext() ) {
+                if ( entries.next().getValue()._segment == evicted ) {
+                    entries.remove();
+                }
+            }
+            delete( segmentFile( evicted._sequence ) );
+            _evictedSegments.incrementAndGet();
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer map( final File file ) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            raf.setLength( _segmentBytes );
+            return raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, _segmentBytes );
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File segmentFile( final long sequence ) {
+        return new File( _directory, String.format( "%016d", Long.valueOf( sequence ) ) + SUFFIX );
+    }
+
+    /**
+     * Mapped segments stay readable until their buffer is collected, so
+     * readers holding a location into a deleted segment are not affected.
+     */
+    private static void delete( final File file ) {
+        if ( !file.delete() && file.exists() ) {
+            LOG.warn( "Could not delete disk cache segment " + file );
+        }
+    }
+
+    private static int stripe( final String key ) {
+        final int hash = key.hashCode();
+        return ( hash ^ hash >>> 16 ) & STRIPES - 1;
+    }
+
+    long getHits() {
+        return _hits.get();
+    }
+
+    long getMisses() {
+        return _misses.get();
+    }
+
+    /**
+     * @return rows not served because they were older than the maximum age
+     */
+    long getExpired() {
+        return _expired.get();
+    }
+
+    long getEvictedSegments() {
+        return _evictedSegments.get();
+    }
+
+    int getEntries() {
+        return _index.size();
+    }
+
+    long getBytes() {
+        synchronized ( this ) {
+            return (long) _segments.size() * _segmentBytes;
+        }
+    }
+
+    long getMaxBytes() {
+        return (long) _maxSegments * _segmentBytes;
+    }
+
+    File getDirectory() {
+        return _directory;
+    }
+
+    private static final class Segment {
+        private final long _sequence;
+        private final MappedByteBuffer _buffer;
+        private int _position;
+
+        Segment( final long sequence, final MappedByteBuffer buffer ) {
+            _sequence = sequence;
+            _buffer = buffer;
+        }
+    }
+
+    private static final class Location {
+        private final Segment _segment;
+        private final int _offset;
+        private final long _written;
+
+        Location( final Segment segment, final int offset, final long written ) {
+            _segment = segment;
+            _offset = offset;
+            _written = written;
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * Walks the segments of a dump file through memory mapped regions, one
+ * mapping per segment so files larger than 2GB can be read.
+ */
+final class DumpFileReader implements Closeable {
+
+    private final RandomAccessFile _file;
+    private final FileChannel _channel;
+    private final long _size;
+
+    private long _position;
+    private int _segmentRowCount;
+    private boolean _corrupt;
+
+    DumpFileReader( final File file, final String columnFamily ) throws IOException {
+        _file = new RandomAccessFile( file, "r" );
+        _channel = _file.getChannel();
+        _size = _channel.size();
+
+        final MappedByteBuffer header = _channel.map( MapMode.READ_ONLY, 0, Math.min( _size, 4096 ) );
+        try {
+            BulkFileFormat.readHeader( header, columnFamily );
+        } catch ( final RuntimeException e ) {
+            close();
+            throw e;
+        }
+        _position = header.position();
+    }
+
+    /**
+     * @return the checksum verified payload of the next segment, or null if
+     *  there is none. Check {@link #isCorrupt()} to tell a truncated or
+     *  damaged segment from the end of the file.
+     */
+    ByteBuffer nextSegment() throws IOException {
+        if ( _corrupt || _position == _size ) {
+            return null;
+        }
+        if ( _size - _position < BulkFileFormat.SEGMENT_HEADER_LENGTH ) {
+            _corrupt = true;
+            return null;
+        }
+        final ByteBuffer header = _channel.map( MapMode.READ_ONLY, _position, BulkFileFormat.SEGMENT_HEADER_LENGTH );
+        final int magic = header.getInt();
+        final int rowCount = header.getInt();
+        final int payloadLength = header.getInt();
+        final long end = _position + BulkFileFormat.SEGMENT_HEADER_LENGTH + payloadLength + BulkFileFormat.SEGMENT_TRAILER_LENGTH;
+        if ( magic != BulkFileFormat.SEGMENT_MAGIC || rowCount < 0 || payloadLength < 0 || end > _size ) {
+            _corrupt = true;
+            return null;
+        }
+
+        final ByteBuffer segment = _channel.map( MapMode.READ_ONLY, _position + BulkFileFormat.SEGMENT_HEADER_LENGTH,
+                payloadLength + BulkFileFormat.SEGMENT_TRAILER_LENGTH );
+        final long checksum = segment.getLong( payloadLength );
+        if ( BulkFileFormat.checksum( segment, payloadLength ) != checksum ) {
+            _corrupt = true;
+            return null;
+        }
+
+        _position = end;
+        _segmentRowCount = rowCount;
+        segment.limit( payloadLength );
+        return segment.slice();
+    }
+
+    /**
+     * Skips the next segment without verifying its checksum.
+     */
+    boolean skipSegment() throws IOException {
+        if ( _size - _position < BulkFileFormat.SEGMENT_HEADER_LENGTH ) {
+            return false;
+        }
+        final ByteBuffer header = _channel.map( MapMode.READ_ONLY, _position, BulkFileFormat.SEGMENT_HEADER_LENGTH );
+        if ( header.getInt() != BulkFileFormat.SEGMENT_MAGIC ) {
+            _corrupt = true;
+            return false;
+        }
+        header.getInt();
+        _position += BulkFileFormat.SEGMENT_HEADER_LENGTH + header.getInt() + BulkFileFormat.SEGMENT_TRAILER_LENGTH;
+        return _position <= _size;
+    }
+
+    int getSegmentRowCount() {
+        return _segmentRowCount;
+    }
+
+    /**
+     * @return file offset directly behind the last segment returned
+     */
+    long getPosition() {
+        return _position;
+    }
+
+    boolean isCorrupt() {
+        return _corrupt;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _file.close();
+    }
+
+}
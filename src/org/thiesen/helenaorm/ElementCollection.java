@@ -0,0 +1,205 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.cassandra.service.Column;
+
+/**
+ * How a property annotated with {@link org.thiesen.helenaorm.annotations.ElementColumns}
+ * is spread over columns: every element is a column whose name is the
+ * property name, a separator and the encoded element (or map key).
+ */
+final class ElementCollection {
+
+    static final byte SEPARATOR = ':';
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private final String _property;
+    private final Class<?> _type;
+    private final boolean _map;
+    private final byte[] _prefix;
+    private final PropertyCodec _elementCodec;
+    private final PropertyCodec _valueCodec;
+
+    private ElementCollection( final String property, final Class<?> type, final boolean map, final byte[] prefix,
+            final PropertyCodec elementCodec, final PropertyCodec valueCodec ) {
+        _property = property;
+        _type = type;
+        _map = map;
+        _prefix = prefix;
+        _elementCodec = elementCodec;
+        _valueCodec = valueCodec;
+    }
+
+    static ElementCollection create( final String property, final Class<?> type, final Type genericType,
+            final TypeConverter typeConverter ) {
+        final boolean map;
+        if ( Map.class.isAssignableFrom( type ) ) {
+            map = true;
+        } else if ( Set.class.isAssignableFrom( type ) ) {
+            map = false;
+        } else {
+            throw new HelenaRuntimeException( "@ElementColumns property " + property + " must be a Set or a Map, "
+                    + "other collections are stored serialized" );
+        }
+        if ( !( genericType instanceof ParameterizedType ) ) {
+            throw new HelenaRuntimeException( "@ElementColumns property " + property + " must declare its element types" );
+        }
+        final Type[] arguments = ( (ParameterizedType) genericType ).getActualTypeArguments();
+
+        final byte[] name = typeConverter.stringToBytes( property );
+        final byte[] prefix = new byte[name.length + 1];
+        System.arraycopy( name, 0, prefix, 0, name.length );
+        prefix[name.length] = SEPARATOR;
+
+        final Class<?> elementType = mappableClass( property, arguments[0], typeConverter );
+        final ElementCollection collection = new ElementCollection( property, type, map, prefix,
+                typeConverter.codecFor( elementType ),
+                map ? typeConverter.codecFor( mappableClass( property, arguments[1], typeConverter ) ) : null );
+        // fail now rather than on the first read
+        collection.newCollection();
+        return collection;
+    }
+
+    private static Class<?> mappableClass( final String property, final Type type, final TypeConverter typeConverter ) {
+        final Class<?> clz = rawClass( property, type );
+        if ( !typeConverter.isMappable( clz ) ) {
+            throw new HelenaRuntimeException( "Element type " + clz.getName() + " of @ElementColumns property " + property
+                    + " has no type mapping" );
+        }
+        return clz;
+    }
+
+    private static Class<?> rawClass( final String property, final Type type ) {
+        if ( type instanceof Class<?> ) {
+            return (Class<?>) type;
+        }
+        if ( type instanceof ParameterizedType ) {
+            return (Class<?>) ( (ParameterizedType) type ).getRawType();
+        }
+        throw new HelenaRuntimeException( "Can not map element type " + type + " of @ElementColumns property " + property );
+    }
+
+    boolean isMap() {
+        return _map;
+    }
+
+    /**
+     * @return whether the column name belongs to this collection
+     */
+    boolean matches( final byte[] columnName ) {
+        if ( columnName.length < _prefix.length ) {
+            return false;
+        }
+        for ( int i = 0; i < _prefix.length; i++ ) {
+            if ( columnName[i] != _prefix[i] ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    byte[] columnName( final Object element ) {
+        final byte[] encoded = _elementCodec.encode( element );
+        final byte[] name = new byte[_prefix.length + encoded.length];
+        System.arraycopy( _prefix, 0, name, 0, _prefix.length );
+        System.arraycopy( encoded, 0, name, _prefix.length, encoded.length );
+        return name;
+    }
+
+    byte[] columnValue( final Object value ) {
+        return _map ? _valueCodec.encode( value ) : EMPTY_BYTES;
+    }
+
+    /**
+     * Adds one column per element of the collection (or entry of the map) to the marshalled object.
+     * 
+     * @return the encoded size of the added columns
+     */
+    int marshal( final Object collection, final MarshalledObject marshalledObject ) {
+        if ( collection == null ) {
+            return 0;
+        }
+        int bytes = 0;
+        if ( _map ) {
+            for ( final Map.Entry<?, ?> entry : ( (Map<?, ?>) collection ).entrySet() ) {
+                final byte[] name = columnName( entry.getKey() );
+                final byte[] value = columnValue( entry.getValue() );
+                marshalledObject.addColumn( name, value );
+                bytes += name.length + value.length;
+            }
+        } else {
+            for ( final Object element : (Collection<?>) collection ) {
+                final byte[] name = columnName( element );
+                marshalledObject.addColumn( name, EMPTY_BYTES );
+                bytes += name.length;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Creates an empty collection of a type assignable to the property.
+     */
+    @SuppressWarnings( "unchecked" )
+    Object newCollection() {
+        final Object collection;
+        if ( _map ) {
+            collection = SortedMap.class.isAssignableFrom( _type ) ? new TreeMap<Object, Object>() : new LinkedHashMap<Object, Object>();
+        } else {
+            collection = SortedSet.class.isAssignableFrom( _type ) ? new TreeSet<Object>() : new LinkedHashSet<Object>();
+        }
+        if ( !_type.isInstance( collection ) ) {
+            throw new HelenaRuntimeException( "@ElementColumns property " + _property + " must be declared as an interface, "
+                    + "can not create a " + _type.getName() );
+        }
+        return collection;
+    }
+
+    /**
+     * Adds the element stored in the column to a collection created by {@link #newCollection()}.
+     */
+    @SuppressWarnings( "unchecked" )
+    void add( final Object collection, final Column column ) {
+        final byte[] encoded = new byte[column.name.length - _prefix.length];
+        System.arraycopy( column.name, _prefix.length, encoded, 0, encoded.length );
+        final Object element = _elementCodec.decode( encoded );
+        if ( _map ) {
+            ( (Map<Object, Object>) collection ).put( element, _valueCodec.decode( column.value ) );
+        } else {
+            ( (Collection<Object>) collection ).add( element );
+        }
+    }
+
+}
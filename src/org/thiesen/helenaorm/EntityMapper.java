@@ -0,0 +1,65 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Access to the mapped properties of a {@link org.thiesen.helenaorm.annotations.HelenaBean}
+ * by ordinal. Implementations are generated at compile time by
+ * {@link org.thiesen.helenaorm.processor.HelenaBeanProcessor} as
+ * <code>&lt;binary class name with $ replaced by _&gt;HelenaMapper</code> in the package
+ * of the bean; beans without a generated mapper are accessed through reflection.
+ * 
+ * Only properties with both a getter and a setter are mapped.
+ */
+public interface EntityMapper<T> {
+
+    public static final String MAPPER_SUFFIX = "HelenaMapper";
+
+    Class<T> getEntityClass();
+
+    T newInstance();
+
+    /**
+     * @return the names of the mapped properties, indexed by ordinal
+     */
+    String[] getPropertyNames();
+
+    /**
+     * @return the declared types of the mapped properties, indexed by ordinal
+     */
+    Class<?>[] getPropertyTypes();
+
+    /**
+     * @return the ordinal of the first property annotated with @KeyProperty,
+     *         the others of a composite key are found by their annotations
+     */
+    int getKeyProperty();
+
+    /**
+     * @return the ordinal of the property annotated with @SuperColumnProperty, or -1
+     */
+    int getSuperColumnProperty();
+
+    Object get( T entity, int property );
+
+    void set( T entity, int property, Object value );
+
+}
@@ -0,0 +1,432 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.beans.Introspector;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.thiesen.helenaorm.annotations.ElementColumns;
+import org.thiesen.helenaorm.annotations.Embedded;
+import org.thiesen.helenaorm.annotations.HelenaBean;
+import org.thiesen.helenaorm.annotations.KeyProperty;
+import org.thiesen.helenaorm.annotations.Lazy;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Everything HelenaORM knows about a mapped class: where it is stored, how
+ * its properties are accessed and how their values are encoded.
+ */
+final class EntityMetadata<T> {
+    private static final Log LOG = LogFactory.getLog( EntityMetadata.class );
+
+    private final Class<T> _clz;
+    private final String _keyspace;
+    private final String _columnFamily;
+    private final EntityMapper<T> _mapper;
+    private final ImmutableList<PropertyMetadata> _properties;
+    private final ImmutableMap<String, PropertyMetadata> _propertiesByName;
+    private final ImmutableMap<String, PropertyMetadata> _embeddedProperties;
+    private final ImmutableList<byte[]> _columnNames;
+    private final ImmutableList<byte[]> _eagerColumnNames;
+    private final ImmutableList<PropertyMetadata> _lazyProperties;
+    private final RowKey _rowKey;
+    private final PropertyMetadata _superColumnProperty;
+    private final ImmutableList<PropertyMetadata> _elementCollectionProperties;
+
+    EntityMetadata( final Class<T> clz, final TypeConverter typeConverter ) {
+        if ( !clz.isAnnotationPresent( HelenaBean.class ) ) {
+            throw new IllegalArgumentException("Trying to get a HelenaDAO for a class that is not mapped with @HelenaBean");
+        }
+        final HelenaBean annotation = clz.getAnnotation( HelenaBean.class );
+        _clz = clz;
+        _keyspace = annotation.keyspace();
+        _columnFamily = annotation.columnFamily();
+        _mapper = mapperFor( clz );
+
+        final List<PropertyMetadata> collected = Lists.newArrayList();
+        final Map<String, PropertyMetadata> embedded = Maps.newLinkedHashMap();
+        collectProperties( clz, _mapper, "", null, typeConverter, collected, embedded, Sets.<Class<?>>newHashSet() );
+
+        final ImmutableMap.Builder<String, PropertyMetadata> byName = ImmutableMap.builder();
+        final ImmutableList.Builder<byte[]> columnNames = ImmutableList.builder();
+        final ImmutableList.Builder<byte[]> eagerColumnNames = ImmutableList.builder();
+        final ImmutableList.Builder<PropertyMetadata> elementCollections = ImmutableList.builder();
+        final ImmutableList.Builder<PropertyMetadata> lazyProperties = ImmutableList.builder();
+        for ( final PropertyMetadata property : collected ) {
+            if ( property.getElementCollection() != null ) {
+                elementCollections.add( property );
+            }
+            if ( property.isLazy() ) {
+                lazyProperties.add( property );
+            } else {
+                eagerColumnNames.add( property.getColumnName() );
+            }
+            byName.put( property.getName(), property );
+            columnNames.add( property.getColumnName() );
+        }
+        _properties = ImmutableList.copyOf( collected );
+        _propertiesByName = byName.build();
+        _embeddedProperties = ImmutableMap.copyOf( embedded );
+        _columnNames = columnNames.build();
+        _eagerColumnNames = eagerColumnNames.build();
+        _elementCollectionProperties = elementCollections.build();
+        _lazyProperties = lazyProperties.build();
+
+        if ( _mapper.getKeyProperty() < 0 ) {
+            throw new HelenaRuntimeException("Could not find key of class " + clz.getName() + ", did you annotate with @KeyProperty" );
+        }
+        topLevelProperty( _mapper.getKeyProperty(), "@KeyProperty" );
+        _rowKey = RowKey.create( keyProperties(), typeConverter );
+        _superColumnProperty = _mapper.getSuperColumnProperty() < 0 ? null : topLevelProperty( _mapper.getSuperColumnProperty(), "@SuperColumnProperty" );
+        if ( _superColumnProperty != null && !_elementCollectionProperties.isEmpty() ) {
+            throw new HelenaRuntimeException( "@ElementColumns are not supported in super column family " + _columnFamily );
+        }
+        if ( !_lazyProperties.isEmpty() ) {
+            validateLazyProperties();
+        }
+    }
+
+    private void validateLazyProperties() {
+        for ( final PropertyMetadata keyProperty : _rowKey.getProperties() ) {
+            if ( keyProperty.isLazy() ) {
+                throw new HelenaRuntimeException( "The key and super column of " + _clz.getName() + " must not be @Lazy" );
+            }
+        }
+        if ( _superColumnProperty != null && _superColumnProperty.isLazy() ) {
+            throw new HelenaRuntimeException( "The key and super column of " + _clz.getName() + " must not be @Lazy" );
+        }
+        if ( !_elementCollectionProperties.isEmpty() ) {
+            throw new HelenaRuntimeException( _clz.getName() + " has @ElementColumns, its rows are read whole and can not have @Lazy properties" );
+        }
+    }
+
+    /**
+     * Adds the properties of the bean described by <code>mapper</code> to
+     * <code>properties</code>, replacing @Embedded properties by the
+     * properties of the nested bean.
+     * 
+     * @param prefix prepended to the property names, empty for the entity itself
+     * @param parent the property holding the bean, null for the entity itself
+     * @param enclosing the classes of all beans enclosing this one, to detect cycles
+     */
+    private static void collectProperties( final Class<?> clz, final EntityMapper<?> mapper, final String prefix, final PropertyMetadata parent,
+            final TypeConverter typeConverter, final List<PropertyMetadata> properties, final Map<String, PropertyMetadata> embedded,
+            final Set<Class<?>> enclosing ) {
+        if ( !enclosing.add( clz ) ) {
+            throw new HelenaRuntimeException( "@Embedded " + clz.getName() + " contains itself via " + prefix );
+        }
+        final EntityMapper<Object> owner = untyped( mapper );
+        final String[] names = mapper.getPropertyNames();
+        final Class<?>[] types = mapper.getPropertyTypes();
+        final Map<String, Map<Class<? extends Annotation>, Annotation>> annotations = collectAccessorAnnotations( clz );
+        for ( int i = 0; i < names.length; i++ ) {
+            final String name = prefix + names[i];
+            final Map<Class<? extends Annotation>, Annotation> propertyAnnotations = annotations.get( names[i] );
+            final ImmutableMap<Class<? extends Annotation>, Annotation> annotationMap = propertyAnnotations == null
+                    ? ImmutableMap.<Class<? extends Annotation>, Annotation>of() : ImmutableMap.copyOf( propertyAnnotations );
+
+            if ( annotationMap.containsKey( Embedded.class ) ) {
+                if ( annotationMap.containsKey( Lazy.class ) ) {
+                    throw new HelenaRuntimeException( "@Embedded property " + name + " can not be @Lazy, annotate its properties instead" );
+                }
+                final EntityMapper<?> nestedMapper = mapperFor( types[i] );
+                if ( nestedMapper.getPropertyNames().length == 0 ) {
+                    throw new HelenaRuntimeException( "@Embedded property " + name + " of type " + types[i].getName()
+                            + " has no read/write properties" );
+                }
+                final PropertyMetadata property = new PropertyMetadata( -1, name, null, types[i], null, annotationMap, null,
+                        owner, i, parent, untyped( nestedMapper ) );
+                embedded.put( name, property );
+                collectProperties( types[i], nestedMapper, name + ".", property, typeConverter, properties, embedded, enclosing );
+                continue;
+            }
+
+            final ElementCollection elementCollection = annotationMap.containsKey( ElementColumns.class )
+                    ? ElementCollection.create( name, types[i], genericTypeOf( clz, names[i] ), typeConverter ) : null;
+            if ( elementCollection == null && !typeConverter.isMappable( types[i] ) ) {
+                throw new HelenaRuntimeException( "Property " + name + " of " + clz.getName() + " has type " + types[i].getName()
+                        + " without a type mapping, add one or make the type serializable and serialize unknown classes" );
+            }
+            properties.add( new PropertyMetadata( properties.size(), name, typeConverter.stringToBytes( name ),
+                    types[i], typeConverter.codecFor( types[i] ), annotationMap, elementCollection, owner, i, parent, null ) );
+        }
+        enclosing.remove( clz );
+    }
+
+    @SuppressWarnings( "unchecked" )
+    private static EntityMapper<Object> untyped( final EntityMapper<?> mapper ) {
+        return (EntityMapper<Object>) mapper;
+    }
+
+    private PropertyMetadata topLevelProperty( final int ordinal, final String annotation ) {
+        for ( final PropertyMetadata property : _properties ) {
+            if ( property.isTopLevel() && property.getOwnerOrdinal() == ordinal ) {
+                return property;
+            }
+        }
+        throw new HelenaRuntimeException( "The " + annotation + " of " + _clz.getName() + " must not be @Embedded" );
+    }
+
+    /**
+     * @return the properties annotated with @KeyProperty, ordered by their position
+     */
+    private List<PropertyMetadata> keyProperties() {
+        final SortedMap<Integer, PropertyMetadata> keyProperties = Maps.newTreeMap();
+        for ( final PropertyMetadata property : _properties ) {
+            if ( !property.isTopLevel() || !property.isAnnotationPresent( KeyProperty.class ) ) {
+                continue;
+            }
+            final Integer position = Integer.valueOf( property.getAnnotation( KeyProperty.class ).position() );
+            final PropertyMetadata previous = keyProperties.put( position, property );
+            if ( previous != null ) {
+                throw new HelenaRuntimeException( "@KeyProperty " + previous.getName() + " and " + property.getName() + " of "
+                        + _clz.getName() + " share the position " + position );
+            }
+        }
+        return ImmutableList.copyOf( keyProperties.values() );
+    }
+
+    private static Type genericTypeOf( final Class<?> clz, final String propertyName ) {
+        for ( final Method method : clz.getMethods() ) {
+            if ( method.getParameterTypes().length == 0 && propertyName.equals( propertyNameOf( method ) ) ) {
+                return method.getGenericReturnType();
+            }
+        }
+        throw new HelenaRuntimeException( "No getter for property " + propertyName + " of " + clz.getName() );
+    }
+
+    /**
+     * Groups the annotations of public getters and setters by property name.
+     */
+    private static Map<String, Map<Class<? extends Annotation>, Annotation>> collectAccessorAnnotations( final Class<?> clz ) {
+        final Map<String, Map<Class<? extends Annotation>, Annotation>> annotations = Maps.newHashMap();
+        for ( final Method method : clz.getMethods() ) {
+            final String propertyName = propertyNameOf( method );
+            if ( propertyName == null || method.getAnnotations().length == 0 ) {
+                continue;
+            }
+            Map<Class<? extends Annotation>, Annotation> propertyAnnotations = annotations.get( propertyName );
+            if ( propertyAnnotations == null ) {
+                propertyAnnotations = Maps.newHashMap();
+                annotations.put( propertyName, propertyAnnotations );
+            }
+            for ( final Annotation annotation : method.getAnnotations() ) {
+                propertyAnnotations.put( annotation.annotationType(), annotation );
+            }
+        }
+        return annotations;
+    }
+
+    private static String propertyNameOf( final Method method ) {
+        final String name = method.getName();
+        final int parameters = method.getParameterTypes().length;
+        if ( parameters == 0 && name.startsWith( "get" ) && name.length() > 3 ) {
+            return Introspector.decapitalize( name.substring( 3 ) );
+        }
+        if ( parameters == 0 && name.startsWith( "is" ) && name.length() > 2 ) {
+            return Introspector.decapitalize( name.substring( 2 ) );
+        }
+        if ( parameters == 1 && name.startsWith( "set" ) && name.length() > 3 ) {
+            return Introspector.decapitalize( name.substring( 3 ) );
+        }
+        return null;
+    }
+
+    /**
+     * @return the single property carrying the annotation, or null if there is none
+     * @throws HelenaRuntimeException if more than one property is annotated
+     */
+    PropertyMetadata getAnnotatedProperty( final Class<? extends Annotation> annotation ) {
+        PropertyMetadata found = null;
+        for ( final PropertyMetadata property : _properties ) {
+            if ( property.isAnnotationPresent( annotation ) ) {
+                if ( found != null ) {
+                    throw new HelenaRuntimeException( _clz.getName() + " has more than one property annotated with @"
+                            + annotation.getSimpleName() );
+                }
+                found = property;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Prefers the mapper generated at compile time and falls back to reflection.
+     */
+    private static <T> EntityMapper<T> mapperFor( final Class<T> clz ) {
+        final String mapperName = clz.getName().replace( '$', '_' ) + EntityMapper.MAPPER_SUFFIX;
+        final EntityMapper<T> mapper;
+        try {
+            final Class<?> mapperClass = Class.forName( mapperName, true, clz.getClassLoader() );
+            @SuppressWarnings( "unchecked" )
+            final EntityMapper<T> generated = (EntityMapper<T>) mapperClass.getConstructor().newInstance();
+            mapper = generated;
+        } catch ( final ClassNotFoundException e ) {
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug( "No generated mapper for " + clz.getName() + ", using reflection" );
+            }
+            return new ReflectionEntityMapper<T>( clz );
+        } catch ( final Exception e ) {
+            throw new HelenaRuntimeException( "Could not instantiate generated mapper " + mapperName, e );
+        }
+        if ( mapper.getEntityClass() != clz ) {
+            throw new HelenaRuntimeException( mapperName + " maps " + mapper.getEntityClass() + " instead of " + clz );
+        }
+        return mapper;
+    }
+
+    Class<T> getEntityClass() {
+        return _clz;
+    }
+
+    String getKeyspace() {
+        return _keyspace;
+    }
+
+    String getColumnFamily() {
+        return _columnFamily;
+    }
+
+    EntityMapper<T> getMapper() {
+        return _mapper;
+    }
+
+    List<PropertyMetadata> getProperties() {
+        return _properties;
+    }
+
+    /**
+     * @return the property or null if no property of that name is mapped
+     */
+    PropertyMetadata getProperty( final String name ) {
+        return _propertiesByName.get( name );
+    }
+
+    /**
+     * Resolves a property name to the columns it is stored in: the column of
+     * a plain property, or the columns of all properties of an embedded bean.
+     * Nested properties are addressed by their path, e.g. <code>address.city</code>.
+     * 
+     * @throws HelenaRuntimeException if no such property is mapped
+     */
+    List<PropertyMetadata> resolveProperties( final String name ) {
+        final PropertyMetadata property = _propertiesByName.get( name );
+        if ( property != null ) {
+            return ImmutableList.of( property );
+        }
+        if ( !_embeddedProperties.containsKey( name ) ) {
+            throw new HelenaRuntimeException( _clz.getName() + " has no mapped property " + name );
+        }
+        final ImmutableList.Builder<PropertyMetadata> nested = ImmutableList.builder();
+        final String prefix = name + ".";
+        for ( final PropertyMetadata candidate : _properties ) {
+            if ( candidate.getName().startsWith( prefix ) ) {
+                nested.add( candidate );
+            }
+        }
+        return nested.build();
+    }
+
+    /**
+     * @return the encoded names of all mapped columns
+     */
+    ImmutableList<byte[]> getColumnNames() {
+        return _columnNames;
+    }
+
+    /**
+     * @return the encoded names of all mapped columns except those of {@link Lazy} properties
+     */
+    ImmutableList<byte[]> getEagerColumnNames() {
+        return _eagerColumnNames;
+    }
+
+    List<PropertyMetadata> getElementCollectionProperties() {
+        return _elementCollectionProperties;
+    }
+
+    /**
+     * @return the property whose element columns include the given column, or null
+     */
+    PropertyMetadata getElementCollectionProperty( final byte[] columnName ) {
+        for ( final PropertyMetadata property : _elementCollectionProperties ) {
+            if ( property.getElementCollection().matches( columnName ) ) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    RowKey getRowKey() {
+        return _rowKey;
+    }
+
+    PropertyMetadata getSuperColumnProperty() {
+        return _superColumnProperty;
+    }
+
+    boolean isSuperColumnFamily() {
+        return _superColumnProperty != null;
+    }
+
+    /**
+     * @return a hash of the mapped columns and how their values are encoded,
+     *         which changes when a deployment changes what a read fetches or
+     *         how it is decoded
+     */
+    long getColumnFingerprint() {
+        final StringBuilder description = new StringBuilder( _clz.getName() );
+        for ( final PropertyMetadata property : _properties ) {
+            description.append( '|' ).append( property.getName() )
+                .append( ':' ).append( Arrays.toString( property.getColumnName() ) )
+                .append( ':' ).append( property.getType().getName() )
+                .append( ':' ).append( property.getCodec() == null ? "-" : property.getCodec().getClass().getName() )
+                .append( ':' ).append( property.isLazy() ? "lazy" : "eager" )
+                .append( property.getElementCollection() == null ? "" : ":elements" );
+        }
+        // 64 bit FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for ( int i = 0; i < description.length(); i++ ) {
+            hash ^= description.charAt( i );
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    boolean isGenerated() {
+        return !( _mapper instanceof ReflectionEntityMapper<?> );
+    }
+
+}
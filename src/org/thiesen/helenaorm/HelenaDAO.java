@@ -20,13 +20,14 @@
  */
 package org.thiesen.helenaorm;
 
-import java.beans.PropertyDescriptor;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import me.prettyprint.cassandra.dao.Command;
 import me.prettyprint.cassandra.service.Keyspace;
@@ -36,134 +37,160 @@ import org.apache.cassandra.service.ColumnParent;
 import org.apache.cassandra.service.ColumnPath;
 import org.apache.cassandra.service.NotFoundException;
 import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
 import org.apache.cassandra.service.SuperColumn;
-import org.apache.commons.beanutils.PropertyUtils;
-import org.thiesen.helenaorm.annotations.HelenaBean;
-import org.thiesen.helenaorm.annotations.KeyProperty;
-import org.thiesen.helenaorm.annotations.SuperColumnProperty;
+import org.thiesen.helenaorm.reactive.Publisher;
 
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
-import com.google.common.collect.ImmutableSet.Builder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 
 public class HelenaDAO<T> {
 
-    private final String _hostname;
-    private final int _port;
+    private static final Predicate<Map.Entry<String, List<Column>>> NOT_EMPTY = new Predicate<Map.Entry<String, List<Column>>>() {
+        @Override
+        public boolean apply( final Map.Entry<String, List<Column>> row ) {
+            return !row.getValue().isEmpty();
+        }
+    };
+
+    private static final byte[] EMPTY_BYTES = new byte[0];
+    private static final int MAX_ROW_COLUMNS = 1000000;
+    private static final int MULTIGET_CHUNK_SIZE = 500;
+
+    private final ResilientExecutor _executor;
     private final String _keyspace;
     private final String _columnFamily;
-    private final PropertyDescriptor[] _propertyDescriptors;
-    private final ImmutableList<byte[]> _columnNames;
-    private final Class<T> _clz;
-    private PropertyDescriptor _keyPropertyDescriptor;
-    private PropertyDescriptor _superColumnPropertyDescriptor;
+    private final EntityMetadata<T> _metadata;
+    private final EntityMapper<T> _mapper;
+    private final RowKey _rowKey;
     private final TypeConverter _typeConverter;
-
-    HelenaDAO( final Class<T> clz, final String hostname, final int port, final SerializeUnknownClasses serializationPolicy,
-            final ImmutableMap<Class<?>, TypeMapping<?>> typeMappings ) {
-        if ( !clz.isAnnotationPresent( HelenaBean.class ) ) {
-            throw new IllegalArgumentException("Trying to get a HelenaDAO for a class that is not mapped with @HelenaBean");
+    private final DAOStatistics _statistics;
+    private final PayloadStatistics _payload;
+    private final SlowOperationLog _slowOperationLog;
+    private final NearCache _nearCache;
+    private final DiskCache _diskCache;
+    private final HotKeyTracker _hotReads;
+    private final HotKeyTracker _hotWrites;
+    private final AdmissionController _admission;
+    private final MissCache _missCache;
+    private final KeyFilter _keyFilter;
+    private final AdmissionStatistics _admissionStatistics;
+    private final ThreadLocal<MarshalledObject> _marshalBuffers = new ThreadLocal<MarshalledObject>() {
+        @Override
+        protected MarshalledObject initialValue() {
+            return MarshalledObject.create( _metadata.getProperties().size() );
         }
-        final HelenaBean annotation = clz.getAnnotation( HelenaBean.class );
-        _typeConverter = new TypeConverter( typeMappings, serializationPolicy );
-        _clz = clz;
-        _propertyDescriptors = PropertyUtils.getPropertyDescriptors( clz );
-        _columnFamily = annotation.columnFamily();
-        _hostname = hostname;
-        _port = port;
-        _keyspace = annotation.keyspace();
+    };
 
-        final Builder<byte[]> setBuilder = ImmutableSet.<byte[]>builder();
-        for ( final PropertyDescriptor descriptor : _propertyDescriptors ) {
-            setBuilder.add( _typeConverter.stringToBytes( descriptor.getName() ) );
-            if ( isKeyProperty( descriptor  ) ) {
-                _keyPropertyDescriptor = descriptor;
-            }
-            if ( isSuperColumnProperty( descriptor ) ) {
-                _superColumnPropertyDescriptor = descriptor;
-            }
-        }
-        _columnNames = ImmutableList.copyOf( setBuilder.build() );
-
-        if ( _keyPropertyDescriptor == null ) {
-            throw new HelenaRuntimeException("Could not find key of class " + clz.getName() + ", did you annotate with @KeyProperty" );
-        }
+    HelenaDAO( final Class<T> clz, final ResilientExecutor executor, final SerializeUnknownClasses serializationPolicy,
+            final ImmutableMap<Class<?>, TypeMapping<?>> typeMappings, final DAOOptions options ) {
+        _typeConverter = new TypeConverter( typeMappings, serializationPolicy );
+        _metadata = new EntityMetadata<T>( clz, _typeConverter );
+        _rowKey = _metadata.getRowKey();
+        _mapper = _metadata.getMapper();
+        _columnFamily = _metadata.getColumnFamily();
+        _keyspace = _metadata.getKeyspace();
+        _executor = executor;
+        _slowOperationLog = options.getSlowOperationLog();
+        _nearCache = options.getNearCacheBytes() > 0 && !_metadata.isSuperColumnFamily()
+                ? new NearCache( options.getNearCacheBytes() ) : null;
+        _diskCache = _metadata.isSuperColumnFamily() ? null : options.openDiskCache( _metadata );
+        _missCache = _metadata.isSuperColumnFamily() ? null : options.newMissCache();
+        _keyFilter = _metadata.isSuperColumnFamily() ? null : options.newKeyFilter();
+        _hotReads = options.newHotKeyTracker();
+        _hotWrites = options.newHotKeyTracker();
+        _admission = options.getAdmissionController( _columnFamily );
+        _admissionStatistics = _admission == null ? null : new AdmissionStatistics();
+        _statistics = new DAOStatistics( _metadata, _nearCache, _diskCache, _hotReads, _hotWrites, _admissionStatistics, _missCache,
+                _keyFilter );
+        _payload = _statistics.getPayload();
     }
 
-    private boolean isSuperColumnProperty( final PropertyDescriptor descriptor ) {
-        return safeIsAnnotationPresent( descriptor, SuperColumnProperty.class );
+    /**
+     * Releases the resources held beyond the heap, see {@link HelenaORMDAOFactory#close()}.
+     */
+    void close() {
+        if ( _diskCache != null ) {
+            _diskCache.close();
+        }
     }
 
     public void insert( final T object ) {
-
-        final MarshalledObject marshalledObject = MarshalledObject.create();
-
-        for ( final PropertyDescriptor d : _propertyDescriptors ) {
-            if ( isReadWrite( d ) ) {
-                try {
-                    final String name = d.getName();
-                    final byte[] value = _typeConverter.convertValueObjectToByteArray( PropertyUtils.getProperty( object, name ) );
-                    if ( isKeyProperty( d ) ) {
-                        marshalledObject.setKey( value );
-                    } if ( isSuperColumnProperty( d ) ) {
-                        marshalledObject.setSuperColumn( value );
-                    } else {
-                        marshalledObject.addValue( name, value );
-                    }
-
-                } catch ( final NoSuchMethodException e ) {
-                    throw new HelenaRuntimeException( e );
-                } catch ( final IllegalAccessException e ) {
-                    throw new HelenaRuntimeException( e );
-                } catch ( final InvocationTargetException e ) {
-                    throw new HelenaRuntimeException( e );
-                }
+        final OperationTrace trace = _slowOperationLog.begin( "insert" );
+        try {
+            final MarshalledObject marshalledObject = marshal( object );
+            final String key = marshalledObject.getKey();
+            try {
+                store( marshalledObject );
+            } finally {
+                afterWrite( key );
             }
+        } finally {
+            _slowOperationLog.end( trace, _columnFamily );
         }
-
-        if ( marshalledObject.getKey() == null ||
-                marshalledObject.getKey().length == 0 ) {
-            throw new HelenaRuntimeException("Key is null, can't store object");
-        }
-
-
-        store( marshalledObject );
-
     }
 
-    private boolean isKeyProperty( final PropertyDescriptor d ) {
-        return safeIsAnnotationPresent( d, KeyProperty.class );
-    }
-
-    private boolean safeIsAnnotationPresent( final PropertyDescriptor d, final Class<? extends Annotation> annotation ) {
-        return nullSafeAnnotationPresent( annotation, d.getReadMethod() ) ||
-        nullSafeAnnotationPresent( annotation, d.getWriteMethod() );
-    }
-
-    private boolean nullSafeAnnotationPresent( final Class<? extends Annotation> annotation, final Method method ) {
-        if ( method != null ) {
-            if ( method.isAnnotationPresent( annotation ) ) {
-                return true;
+    /**
+     * Encodes the entity into the marshalling buffer of the current thread.
+     * The buffer is reused by the next call on the same thread, so it has
+     * to be converted to columns before marshalling another entity.
+     */
+    MarshalledObject marshal( final T object ) {
+        final OperationTrace trace = _slowOperationLog.isEnabled() ? OperationTrace.current() : null;
+        final long start = trace == null ? 0 : System.nanoTime();
+        final MarshalledObject marshalledObject = _marshalBuffers.get();
+        marshalledObject.reset();
+        long rowBytes = 0;
+
+        final List<PropertyMetadata> properties = _metadata.getProperties();
+        for ( int i = 0; i < properties.size(); i++ ) {
+            final PropertyMetadata property = properties.get( i );
+            final Object propertyValue = property.get( object );
+            if ( propertyValue == null && property.isLazy() ) {
+                continue;
+            }
+            final int bytes;
+            if ( property.getElementCollection() != null ) {
+                bytes = property.getElementCollection().marshal( propertyValue, marshalledObject );
+            } else {
+                final byte[] value = property.getCodec().encode( propertyValue );
+                if ( property == _metadata.getSuperColumnProperty() ) {
+                    marshalledObject.setSuperColumn( value );
+                    bytes = value.length;
+                } else {
+                    marshalledObject.setValue( property, value );
+                    bytes = property.getColumnName().length + value.length;
+                }
             }
+            _payload.recordWrittenProperty( property, bytes );
+            rowBytes += bytes;
         }
-        return false;
-    }
 
-    private boolean isReadWrite( final PropertyDescriptor d ) {
-        return d.getReadMethod() != null && d.getWriteMethod() != null;
+        marshalledObject.setKey( _rowKey.keyOf( object ) );
+
+        _payload.recordWrittenRow( rowBytes );
+        if ( _payload.isLargest( rowBytes ) ) {
+            _payload.offerLargest( marshalledObject.getKey(), rowBytes );
+        }
+        if ( trace != null ) {
+            trace.addMarshal( System.nanoTime() - start, marshalledObject.getColumnCount(), rowBytes );
+        }
+        return marshalledObject;
     }
 
     private void store( final MarshalledObject marshalledObject ) {
-        final byte[] idColumn = marshalledObject.getKey();
-        final List<Column> columnList = Lists.newLinkedList();
-        final long timestamp = System.currentTimeMillis();
-        for ( final Map.Entry<String, byte[]> property : marshalledObject.getEntries() ) {
-            columnList.add( toColumn( property, timestamp ) );
-        }
+        final String key = marshalledObject.getKey();
+        final List<Column> columnList = toColumns( marshalledObject, System.currentTimeMillis() );
 
         final Map<String, List<Column>> columnMap;
         final Map<String, List<SuperColumn>> superColumnMap;
@@ -177,81 +204,241 @@ public class HelenaDAO<T> {
             superColumnMap = null;
         }
 
-        try {
-            execute(new Command<Void>(){
-                @Override
-                public Void execute(final Keyspace ks) throws Exception {
-                    ks.batchInsert( _typeConverter.bytesToString( idColumn ), 
-                            columnMap, superColumnMap );
+        execute( "insert", false, new Command<Void>(){
+            @Override
+            public Void execute(final Keyspace ks) throws Exception {
+                ks.batchInsert( key, columnMap, superColumnMap );
 
-                    return null;
-                }
-            } );
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException(e);
+                return null;
+            }
+        } );
+
+    }
+
+    /**
+     * Builds the columns in one pre-sized array. Column names are the
+     * pre-encoded names shared by all columns of a property.
+     */
+    List<Column> toColumns( final MarshalledObject marshalledObject, final long timestamp ) {
+        final Column[] columns = new Column[marshalledObject.getColumnCount()];
+        int index = 0;
+        final List<PropertyMetadata> properties = _metadata.getProperties();
+        for ( int i = 0; i < properties.size(); i++ ) {
+            final byte[] value = marshalledObject.getValue( i );
+            if ( value != null ) {
+                columns[index++] = new Column( properties.get( i ).getColumnName(), value, timestamp );
+            }
         }
+        for ( int i = 0; i < marshalledObject.getExtraColumnCount(); i++ ) {
+            columns[index++] = new Column( marshalledObject.getExtraColumnName( i ), marshalledObject.getExtraColumnValue( i ), timestamp );
+        }
+        return Arrays.asList( columns );
+    }
 
+    /**
+     * Executes an idempotent command as read and all others as writes.
+     */
+    <V> V execute( final String operation, final boolean idempotent, final Command<V> command ) {
+        return execute( operation, idempotent ? AdmissionController.Lane.READ : AdmissionController.Lane.WRITE, idempotent, command );
     }
 
-    private Column toColumn( final Entry<String, byte[]> property, final long timestamp ) {
-        return new Column( _typeConverter.stringToBytes( property.getKey() ), property.getValue(), timestamp );
+    /**
+     * @param lane the admission lane of the command
+     */
+    <V> V execute( final String operation, final AdmissionController.Lane lane, final boolean idempotent, final Command<V> command ) {
+        Deadline.check( operation, null );
+        if ( _admission == null ) {
+            return dispatch( operation, idempotent, command );
+        }
+        final long start = System.nanoTime();
+        try {
+            _admission.admit( lane, Deadline.remainingNanosOfActive() );
+        } catch ( final RuntimeException e ) {
+            _admissionStatistics.recordRejected( lane, System.nanoTime() - start );
+            throw e;
+        }
+        _admissionStatistics.recordAdmitted( lane, System.nanoTime() - start );
+        try {
+            return dispatch( operation, idempotent, command );
+        } finally {
+            _admission.release( lane );
+            _admissionStatistics.recordCompleted();
+        }
     }
 
-    private <V> V execute(final Command<V> command) throws Exception {
-        return command.execute(_hostname, _port, _keyspace);
+    private <V> V dispatch( final String operation, final boolean idempotent, final Command<V> command ) {
+        if ( !_slowOperationLog.isEnabled() ) {
+            return _executor.execute( operation, _keyspace, idempotent, command, null );
+        }
+        final OperationTrace current = OperationTrace.current();
+        if ( current != null ) {
+            return _executor.execute( operation, _keyspace, idempotent, command, current );
+        }
+        final OperationTrace trace = _slowOperationLog.begin( operation );
+        try {
+            return _executor.execute( operation, _keyspace, idempotent, command, trace );
+        } finally {
+            _slowOperationLog.end( trace, _columnFamily );
+        }
     }
 
     public T get(final String key) {
+        recordRead( key );
+        if ( isKnownMissing( key ) ) {
+            return applyColumns( key, ImmutableList.<Column>of() );
+        }
+        final List<Column> cached = getCached( key );
+        if ( cached != null ) {
+            return applyColumns( key, cached );
+        }
+        final long generation = _nearCache == null ? 0 : _nearCache.generation( key );
+        final long diskGeneration = _diskCache == null ? 0 : _diskCache.generation( key );
+        final long missToken = missToken( key );
         final ColumnParent parent = makeColumnParent();
         final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
 
-        try {
-            return execute(new Command<T>(){
-                @Override
-                public T execute(final Keyspace ks) throws Exception {
-                    try {
-                        final List<Column> slice = ks.getSlice( key, parent , predicate );
-
-
-                        return applyColumns( key, slice );
-                    } catch (final NotFoundException e) {
-                        return null;
+        return execute( "get", true, new Command<T>(){
+            @Override
+            public T execute(final Keyspace ks) throws Exception {
+                try {
+                    final List<Column> slice = ks.getSlice( key, parent , predicate );
+                    if ( slice.isEmpty() ) {
+                        recordMiss( key, missToken );
+                    } else {
+                        cache( key, slice, generation, diskGeneration );
                     }
+
+                    return applyColumns( key, slice );
+                } catch (final NotFoundException e) {
+                    return null;
                 }
-            }); 
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException( e );
+            }
+        }); 
+    }
+
+    /**
+     * Reads the entity by the values of its key properties, in key order,
+     * e.g. <code>get( uuid )</code> for a single UUID key or
+     * <code>get( "customer", 2010L )</code> for a composite key.
+     * 
+     * @return the entity, or null as {@link #get(String)}
+     */
+    public T get( final Object... keyComponents ) {
+        return get( keyOf( keyComponents ) );
+    }
+
+    /**
+     * @return the row key of the entity with the given key property values, in key order
+     */
+    public String keyOf( final Object... keyComponents ) {
+        return _rowKey.encode( keyComponents );
+    }
+
+    /**
+     * Reads the first <code>amount</code> entities whose leading key
+     * properties equal the given values, in key order. Needs a composite key
+     * and an order preserving partitioner.
+     */
+    public List<T> getRangeByPrefix( final int amount, final Object... leadingKeyComponents ) {
+        return getRange( _rowKey.prefixStart( leadingKeyComponents ), _rowKey.prefixEnd( leadingKeyComponents ), amount );
+    }
+
+    /**
+     * Lazily walks all entities whose leading key properties equal the given
+     * values, as {@link #getRangeByPrefix(int, Object...)} does.
+     */
+    public Iterable<T> getRangePagedByPrefix( final int pageSize, final Object... leadingKeyComponents ) {
+        return getRangePaged( _rowKey.prefixStart( leadingKeyComponents ), _rowKey.prefixEnd( leadingKeyComponents ), pageSize );
+    }
+
+    /**
+     * Reads only the columns of the given properties. Properties of embedded
+     * beans are addressed by their path, e.g. <code>address.city</code>,
+     * naming an embedded bean reads all of its properties. The key is always
+     * set, all other properties keep the values of a new instance.
+     * 
+     * @return the partially filled entity, or null if the row holds none of the columns
+     */
+    public T getProjection( final String key, final String... propertyNames ) {
+        if ( isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Projections are not supported for super column family " + _columnFamily );
+        }
+        final ColumnParent parent = makeColumnParent();
+        final SlicePredicate predicate = makeSlicePredicateWithColumnsOf( resolveColumnProperties( "projected", propertyNames ) );
+        recordRead( key );
+        if ( isKnownMissing( key ) ) {
+            return null;
         }
+
+        return execute( "getProjection", true, new Command<T>(){
+            @Override
+            public T execute(final Keyspace ks) throws Exception {
+                try {
+                    final List<Column> slice = ks.getSlice( key, parent, predicate );
+                    return slice.isEmpty() ? null : applyColumns( key, slice, ImmutableList.<PropertyMetadata>of() );
+                } catch (final NotFoundException e) {
+                    return null;
+                }
+            }
+        });
     }
 
-    private T applyColumns( final String key, final Iterable<Column> slice ) {
-        try {
-            final T newInstance = _clz.newInstance();
-
-            PropertyUtils.setProperty( newInstance, _keyPropertyDescriptor.getName(),
-                    _typeConverter.convertByteArrayToValueObject( _keyPropertyDescriptor.getReadMethod().getReturnType(),
-                            _typeConverter.stringToBytes( key ) ) );
-
-            for ( final Column c : slice ) {
-                final String name = _typeConverter.bytesToString( c.name );
-                if ( PropertyUtils.isWriteable( newInstance, name ) ) {
-                    final PropertyDescriptor propertyDescriptor = PropertyUtils.getPropertyDescriptor( newInstance, name );
-                    final Class<?> returnType = propertyDescriptor.getReadMethod().getReturnType();
-                    PropertyUtils.setProperty( newInstance, name, _typeConverter.convertByteArrayToValueObject( returnType, c.value ) );
+    T applyColumns( final String key, final Iterable<Column> slice ) {
+        return applyColumns( key, slice, _metadata.getElementCollectionProperties() );
+    }
+
+    /**
+     * @param elementCollectionProperties the element column properties that were read and are
+     *            to be set, empty ones included
+     */
+    private T applyColumns( final String key, final Iterable<Column> slice, final List<PropertyMetadata> elementCollectionProperties ) {
+        final OperationTrace trace = _slowOperationLog.isEnabled() ? OperationTrace.current() : null;
+        final long start = trace == null ? 0 : System.nanoTime();
+        final T newInstance = _mapper.newInstance();
+
+        _rowKey.apply( newInstance, key );
+
+        final Object[] collections = elementCollectionProperties.isEmpty() ? null : new Object[_metadata.getProperties().size()];
+        final long[] collectionBytes = collections == null ? null : new long[collections.length];
+        long rowBytes = 0;
+        int columns = 0;
+
+        for ( final Column c : slice ) {
+            final int bytes = c.name.length + c.value.length;
+            rowBytes += bytes;
+            columns++;
+            final PropertyMetadata property = _metadata.getProperty( _typeConverter.bytesToString( c.name ) );
+            if ( property != null ) {
+                property.set( newInstance, property.getCodec().decode( c.value ) );
+                _payload.recordReadProperty( property, bytes );
+            } else if ( collections != null ) {
+                final PropertyMetadata collectionProperty = _metadata.getElementCollectionProperty( c.name );
+                if ( collectionProperty != null ) {
+                    final ElementCollection elementCollection = collectionProperty.getElementCollection();
+                    final int ordinal = collectionProperty.getOrdinal();
+                    if ( collections[ordinal] == null ) {
+                        collections[ordinal] = elementCollection.newCollection();
+                    }
+                    elementCollection.add( collections[ordinal], c );
+                    collectionBytes[ordinal] += bytes;
                 }
             }
+        }
 
-            return newInstance;
+        for ( final PropertyMetadata property : elementCollectionProperties ) {
+            final Object collection = collections[property.getOrdinal()];
+            property.set( newInstance, collection != null ? collection : property.getElementCollection().newCollection() );
+            _payload.recordReadProperty( property, collectionBytes[property.getOrdinal()] );
+        }
 
-        } catch ( final InstantiationException e ) {
-            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName(), e );
-        } catch ( final IllegalAccessException e ) {
-            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName(), e );
-        } catch ( final InvocationTargetException e ) {
-            throw new HelenaRuntimeException( e );
-        } catch ( final NoSuchMethodException e ) {
-            throw new HelenaRuntimeException( e );
+        _payload.recordReadRow( rowBytes );
+        if ( _payload.isLargest( rowBytes ) ) {
+            _payload.offerLargest( key, rowBytes );
+        }
+        if ( trace != null ) {
+            trace.addHydrate( System.nanoTime() - start, columns, rowBytes );
         }
+        return newInstance;
     }
 
     private List<T> applyColumns( final String key, final List<SuperColumn> slice ) {
@@ -266,93 +453,800 @@ public class HelenaDAO<T> {
     }
 
     private void applySuperColumnName( final T object, final byte[] value ) {
-        final Class<?> returnType = _superColumnPropertyDescriptor.getReadMethod().getReturnType();
-        try {
-            PropertyUtils.setProperty( object, _superColumnPropertyDescriptor.getName(),
-                    _typeConverter.convertByteArrayToValueObject( returnType, value ) );
-        } catch ( final IllegalAccessException e ) {
-            throw new HelenaRuntimeException( e );
-        } catch ( final InvocationTargetException e ) {
-            throw new HelenaRuntimeException( e );
-        } catch ( final NoSuchMethodException e ) {
-            throw new HelenaRuntimeException( e );
-        }
+        final PropertyMetadata superColumnProperty = _metadata.getSuperColumnProperty();
+        superColumnProperty.set( object, superColumnProperty.getCodec().decode( value ) );
     }
 
     public void delete( final T object ) {
         delete( getKeyFrom( object ) );
     }
 
-    private String getKeyFrom( final T object ) {
-        try {
-            return _typeConverter.bytesToString( _typeConverter.convertValueObjectToByteArray( PropertyUtils.getProperty( object, _keyPropertyDescriptor.getName() ) ) );
-        } catch ( final IllegalAccessException e ) {
-            throw new HelenaRuntimeException( e );
-        } catch ( final InvocationTargetException e ) {
-            throw new HelenaRuntimeException( e );
-        } catch ( final NoSuchMethodException e ) {
-            throw new HelenaRuntimeException( e );
-        }
+    String getKeyFrom( final T object ) {
+        return _rowKey.keyOf( object );
     }
 
     public void delete( final String key ) {
         try {
-            execute(new Command<Void>(){
+            execute( "delete", false, new Command<Void>(){
                 @Override
                 public Void execute(final Keyspace ks) throws Exception {
                     ks.remove( key, new ColumnPath( _columnFamily, null, null ) );
                     return null;
                 }
             });
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException( e );
+        } finally {
+            afterWrite( key );
+        }
+    }
+
+    /**
+     * Drops the row from the near cache and counts the write. Called after
+     * writes, failed ones included, as they may have been applied anyway.
+     */
+    private void afterWrite( final String key ) {
+        if ( _nearCache != null ) {
+            _nearCache.invalidate( key );
+        }
+        if ( _diskCache != null ) {
+            _diskCache.invalidate( key );
+        }
+        if ( _missCache != null ) {
+            _missCache.invalidate( key );
+        }
+        if ( _keyFilter != null ) {
+            _keyFilter.add( key );
+        }
+        if ( _hotWrites != null ) {
+            _hotWrites.record( key );
+        }
+    }
+
+    private void cache( final String key, final List<Column> columns, final long generation, final long diskGeneration ) {
+        if ( _nearCache != null ) {
+            _nearCache.put( key, columns, generation );
+        }
+        if ( _diskCache != null ) {
+            _diskCache.put( key, columns, diskGeneration );
+        }
+    }
+
+    /**
+     * @return true if the miss cache or the key filter rule out a row for the key
+     */
+    private boolean isKnownMissing( final String key ) {
+        if ( _keyFilter != null && !_keyFilter.mightContain( key ) ) {
+            return true;
+        }
+        return _missCache != null && _missCache.isMissing( key );
+    }
+
+    private long missToken( final String key ) {
+        return _missCache == null ? 0 : _missCache.token( key );
+    }
+
+    /**
+     * @param missToken taken from {@link #missToken(String)} before the read
+     */
+    private void recordMiss( final String key, final long missToken ) {
+        if ( _missCache != null ) {
+            _missCache.recordMiss( key, missToken );
+        }
+        if ( _keyFilter != null ) {
+            _keyFilter.recordFalsePositive();
+        }
+    }
+
+    /**
+     * Scans all keys of the column family and replaces the key filter by one
+     * holding them, see {@link HelenaORMDAOFactory#withKeyFilter(int, double)}.
+     * Reads keep using the previous filter, or none, until the scan is complete.
+     * 
+     * @return the number of keys found
+     */
+    public long rebuildKeyFilter( final int pageSize ) {
+        if ( _keyFilter == null ) {
+            throw new HelenaRuntimeException( "The DAO for " + _columnFamily + " has no key filter, see HelenaORMDAOFactory.withKeyFilter" );
+        }
+        return _keyFilter.rebuild( getKeys( "", "", pageSize ) );
+    }
+
+    private void recordRead( final String key ) {
+        if ( _hotReads != null ) {
+            _hotReads.record( key );
+        }
+    }
+
+    /**
+     * Deletes the rows of all keys, see {@link BulkDeleter} for batch size,
+     * parallelism and progress reporting.
+     * 
+     * @throws HelenaRuntimeException if any row could not be deleted, after all others were attempted
+     */
+    public BulkDeleteSummary deleteAll( final Iterable<String> keys ) {
+        return failOnFailures( BulkDeleter.forDao( this ).deleteAll( keys ) );
+    }
+
+    /**
+     * Deletes all rows between keyStart and keyEnd (both inclusive, empty for
+     * unbounded), see {@link BulkDeleter#deleteRange(String, String)}.
+     * 
+     * @throws HelenaRuntimeException if any row could not be deleted, after all others were attempted
+     */
+    public BulkDeleteSummary deleteRange( final String keyStart, final String keyEnd ) {
+        return failOnFailures( BulkDeleter.forDao( this ).deleteRange( keyStart, keyEnd ) );
+    }
+
+    /**
+     * @throws HelenaDeadlineExceededException if the deadline of the caller ended the run
+     * @throws HelenaCancelledException if the caller cancelled the run
+     */
+    private BulkDeleteSummary failOnFailures( final BulkDeleteSummary summary ) {
+        if ( summary.getStopCause() != null ) {
+            throw summary.getStopCause();
+        }
+        if ( summary.hasFailures() ) {
+            throw new HelenaRuntimeException( "Could not delete " + summary.getFailedKeys().size() + " rows from " + _columnFamily
+                    + ", " + summary.getDeleted() + " were deleted", summary.getFirstFailure() );
+        }
+        return summary;
+    }
+
+    /**
+     * Removes the rows one after another over a single connection.
+     * 
+     * @param deleted counts the removed rows, so a failure leaves the keys not yet removed known
+     */
+    void deleteRows( final List<String> keys, final AtomicInteger deleted ) {
+        final ColumnPath path = new ColumnPath( _columnFamily, null, null );
+        try {
+            execute( "deleteBatch", false, new Command<Void>(){
+                @Override
+                public Void execute(final Keyspace ks) throws Exception {
+                    while ( deleted.get() < keys.size() ) {
+                        Deadline.check( "deleteBatch", null );
+                        ks.remove( keys.get( deleted.get() ), path );
+                        deleted.incrementAndGet();
+                    }
+                    return null;
+                }
+            });
+        } finally {
+            for ( int i = 0; i < keys.size(); i++ ) {
+                afterWrite( keys.get( i ) );
+            }
         }
     }
 
     public List<T> get( final Iterable<String> keys ) {
+        final List<String> keyList = ImmutableList.copyOf( keys );
+        for ( final String key : keyList ) {
+            recordRead( key );
+        }
         final ColumnParent parent = makeColumnParent();
         final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
-        try {
-            return execute(new Command<List<T>>(){
-                @Override
-                public List<T> execute(final Keyspace ks) throws Exception {
+        if ( _nearCache != null || _diskCache != null || _missCache != null || _keyFilter != null ) {
+            return getKnown( keyList, parent, predicate );
+        }
+        return convertToList( multiget( "multiget", keyList, parent, predicate ) );
+    }
 
-                    final Map<String,List<Column>> slice = ks.multigetSlice( ImmutableList.copyOf( keys ), parent , predicate );
+    /**
+     * Reads the keys in chunks of at most {@link #MULTIGET_CHUNK_SIZE}, so
+     * the {@link Deadline} of the caller can stop a large multi-get between
+     * backend calls.
+     */
+    private Map<String, List<Column>> multiget( final String operation, final List<String> keys, final ColumnParent parent,
+            final SlicePredicate predicate ) {
+        if ( keys.size() <= MULTIGET_CHUNK_SIZE ) {
+            return multigetChunk( operation, keys, parent, predicate );
+        }
+        final Map<String, List<Column>> rows = Maps.newLinkedHashMap();
+        for ( final List<String> chunk : Iterables.partition( keys, MULTIGET_CHUNK_SIZE ) ) {
+            rows.putAll( multigetChunk( operation, chunk, parent, predicate ) );
+        }
+        return rows;
+    }
 
-                    return convertToList( slice );
+    private Map<String, List<Column>> multigetChunk( final String operation, final List<String> keys, final ColumnParent parent,
+            final SlicePredicate predicate ) {
+        return execute( operation, true, new Command<Map<String, List<Column>>>(){
+            @Override
+            public Map<String, List<Column>> execute(final Keyspace ks) throws Exception {
+                return ks.multigetSlice( keys, parent, predicate );
+            }
+        });
+    }
+
+    /**
+     * @return the columns from the near cache or, copied to the near cache, from the disk cache, null if neither holds the row
+     */
+    private List<Column> getCached( final String key ) {
+        if ( _nearCache != null ) {
+            final List<Column> cached = _nearCache.get( key );
+            if ( cached != null ) {
+                return cached;
+            }
+        }
+        if ( _diskCache == null ) {
+            return null;
+        }
+        final long generation = _nearCache == null ? 0 : _nearCache.generation( key );
+        final List<Column> stored = _diskCache.get( key );
+        if ( stored != null && _nearCache != null ) {
+            _nearCache.put( key, stored, generation );
+        }
+        return stored;
+    }
 
+    /**
+     * Serves the keys known to be missing and the keys found in the near
+     * or disk cache locally and reads only the others.
+     */
+    private List<T> getKnown( final List<String> keys, final ColumnParent parent, final SlicePredicate predicate ) {
+        final Map<String, List<Column>> rows = Maps.newLinkedHashMap();
+        final List<String> missing = Lists.newArrayList();
+        for ( final String key : keys ) {
+            final List<Column> known = isKnownMissing( key ) ? ImmutableList.<Column>of() : getCached( key );
+            if ( known != null ) {
+                rows.put( key, known );
+            } else {
+                missing.add( key );
+            }
+        }
+        if ( !missing.isEmpty() ) {
+            final long[] generations = new long[missing.size()];
+            final long[] diskGenerations = new long[missing.size()];
+            final long[] missTokens = new long[missing.size()];
+            for ( int i = 0; i < generations.length; i++ ) {
+                generations[i] = _nearCache == null ? 0 : _nearCache.generation( missing.get( i ) );
+                diskGenerations[i] = _diskCache == null ? 0 : _diskCache.generation( missing.get( i ) );
+                missTokens[i] = missToken( missing.get( i ) );
+            }
+            final Map<String, List<Column>> slice = multiget( "multiget", missing, parent, predicate );
+            for ( int i = 0; i < generations.length; i++ ) {
+                final List<Column> columns = slice.get( missing.get( i ) );
+                if ( columns != null ) {
+                    if ( columns.isEmpty() ) {
+                        recordMiss( missing.get( i ), missTokens[i] );
+                    } else {
+                        cache( missing.get( i ), columns, generations[i], diskGenerations[i] );
+                    }
+                    rows.put( missing.get( i ), columns );
                 }
-            }); 
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException( e );
+            }
         }
+        return convertToList( rows );
     }
 
     public List<T> getRange( final String keyStart, final String keyEnd, final int amount ) {
         final ColumnParent parent = makeColumnParent();
         final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
+        return execute( "getRange", true, new Command<List<T>>(){
+            @Override
+            public List<T> execute(final Keyspace ks) throws Exception {
+
+                final Map<String,List<Column>> slice = ks.getRangeSlice( parent, predicate, keyStart, keyEnd , amount );
+
+                return convertToList( slice );
+
+            }
+        }); 
+    }
+
+    /**
+     * Lazily walks all rows between keyStart and keyEnd (both inclusive, empty
+     * for unbounded), fetching <code>pageSize</code> rows per backend call.
+     * Rows without any mapped column (e.g. deleted rows) are skipped.
+     */
+    public Iterable<T> getRangePaged( final String keyStart, final String keyEnd, final int pageSize ) {
+        final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return Iterators.transform( Iterators.filter( rawRangeIterator( keyStart, keyEnd, pageSize, predicate ), NOT_EMPTY ),
+                        hydrator() );
+            }
+        };
+    }
+
+    /**
+     * Lazily walks the rows between keyStart and keyEnd like
+     * {@link #getRangePaged(String, String, int)}, returning only the
+     * entities accepted by the filter. The filter is applied to an entity
+     * with just the key and the <code>filterProperties</code> set, decoded
+     * from their columns alone, so rows the filter rejects cost little more
+     * than their transfer. Accepted rows are decoded in full.
+     * 
+     * @param filterProperties the properties the filter reads, embedded ones by their path
+     */
+    public Iterable<T> getRangePaged( final String keyStart, final String keyEnd, final int pageSize,
+            final Predicate<? super T> filter, final String... filterProperties ) {
+        return filteredRange( keyStart, keyEnd, pageSize, filter, resolveColumnProperties( "filtered", filterProperties ), null );
+    }
+
+    /**
+     * Lazily walks the rows between keyStart and keyEnd like
+     * {@link #getRangePaged(String, String, int, Predicate, String...)} but
+     * reads only the columns of the filter and projected properties, see
+     * {@link #getProjection(String, String...)}. Accepted entities have the
+     * key, the filter and the projected properties set.
+     */
+    public Iterable<T> getProjectionRangePaged( final String keyStart, final String keyEnd, final int pageSize,
+            final Predicate<? super T> filter, final Collection<String> filterProperties, final String... propertyNames ) {
+        return filteredRange( keyStart, keyEnd, pageSize, filter,
+                resolveColumnProperties( "filtered", filterProperties.toArray( new String[filterProperties.size()] ) ),
+                resolveColumnProperties( "projected", propertyNames ) );
+    }
+
+    /**
+     * @param projection the properties to set on accepted entities, null for all
+     */
+    private Iterable<T> filteredRange( final String keyStart, final String keyEnd, final int pageSize, final Predicate<? super T> filter,
+            final List<PropertyMetadata> filterProperties, final List<PropertyMetadata> projection ) {
+        if ( isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Filtered scans are not supported for super column family " + _columnFamily );
+        }
+        for ( final PropertyMetadata property : filterProperties ) {
+            if ( projection == null && property.isLazy() ) {
+                throw new HelenaRuntimeException( "@Lazy property " + property.getName() + " is not read by scans and can not be filtered on" );
+            }
+        }
+        final SlicePredicate predicate;
+        if ( projection == null ) {
+            predicate = makeSlicePredicateWithAllPropertyColumns();
+        } else {
+            final Set<PropertyMetadata> read = Sets.newLinkedHashSet( filterProperties );
+            read.addAll( projection );
+            predicate = makeSlicePredicateWithColumnsOf( read );
+        }
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                final Iterator<Map.Entry<String, List<Column>>> rows = rawRangeIterator( keyStart, keyEnd, pageSize, predicate );
+                return new AbstractIterator<T>() {
+                    @Override
+                    protected T computeNext() {
+                        while ( rows.hasNext() ) {
+                            final Map.Entry<String, List<Column>> row = rows.next();
+                            if ( row.getValue().isEmpty() ) {
+                                continue;
+                            }
+                            final T entity = _mapper.newInstance();
+                            _rowKey.apply( entity, row.getKey() );
+                            setColumns( entity, row.getValue(), filterProperties );
+                            if ( filter.apply( entity ) ) {
+                                if ( projection == null ) {
+                                    return applyColumns( row.getKey(), row.getValue() );
+                                }
+                                setColumns( entity, row.getValue(), projection );
+                                return entity;
+                            }
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Decodes only the columns of the given properties, comparing the raw
+     * column names instead of looking up every column by its name.
+     */
+    private static void setColumns( final Object entity, final List<Column> columns, final List<PropertyMetadata> properties ) {
+        for ( final PropertyMetadata property : properties ) {
+            for ( final Column column : columns ) {
+                if ( Arrays.equals( column.name, property.getColumnName() ) ) {
+                    property.set( entity, property.getCodec().decode( column.value ) );
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param usage how the properties are used, for the error message
+     * @throws HelenaRuntimeException if a property is not mapped or stored in element columns
+     */
+    private List<PropertyMetadata> resolveColumnProperties( final String usage, final String... propertyNames ) {
+        final List<PropertyMetadata> properties = Lists.newArrayList();
+        for ( final String propertyName : propertyNames ) {
+            for ( final PropertyMetadata property : _metadata.resolveProperties( propertyName ) ) {
+                if ( property.getElementCollection() != null ) {
+                    throw new HelenaRuntimeException( "Property " + property.getName() + " is stored in element columns and can not be " + usage );
+                }
+                properties.add( property );
+            }
+        }
+        return properties;
+    }
+
+    private static SlicePredicate makeSlicePredicateWithColumnsOf( final Iterable<PropertyMetadata> properties ) {
+        final List<byte[]> columnNames = Lists.newArrayList();
+        for ( final PropertyMetadata property : properties ) {
+            columnNames.add( property.getColumnName() );
+        }
+        final SlicePredicate predicate = new SlicePredicate();
+        predicate.setColumn_names( columnNames );
+        return predicate;
+    }
+
+    /**
+     * Lazily walks the keys of all rows between keyStart and keyEnd (both
+     * inclusive, empty for unbounded), <code>pageSize</code> keys per
+     * backend call. Only a single column per row is transferred and no
+     * entity is built. Deleted rows are skipped.
+     */
+    public Iterable<String> getKeys( final String keyStart, final String keyEnd, final int pageSize ) {
+        if ( isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Key scans are not supported for super column family " + _columnFamily );
+        }
+        final SlicePredicate predicate = new SlicePredicate();
+        // Deleted rows come back without columns, so at least one column is needed to tell them apart
+        predicate.setSlice_range( new SliceRange( EMPTY_BYTES, EMPTY_BYTES, false, 1 ) );
+        return new Iterable<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return Iterators.transform( Iterators.filter( rawRangeIterator( keyStart, keyEnd, pageSize, predicate ), NOT_EMPTY ),
+                        new Function<Map.Entry<String, List<Column>>, String>() {
+                    @Override
+                    public String apply( final Map.Entry<String, List<Column>> row ) {
+                        return row.getKey();
+                    }
+                } );
+            }
+        };
+    }
+
+    /**
+     * Counts the rows between keyStart and keyEnd with a key scan, see
+     * {@link #getKeys(String, String, int)}. Takes one backend call per
+     * <code>pageSize</code> rows.
+     */
+    public long countKeys( final String keyStart, final String keyEnd, final int pageSize ) {
+        long count = 0;
+        for ( final Iterator<String> keys = getKeys( keyStart, keyEnd, pageSize ).iterator(); keys.hasNext(); keys.next() ) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Publishes the rows between keyStart and keyEnd like
+     * {@link #getRangePaged(String, String, int)}, fetching the next page
+     * only while subscribers have outstanding demand. Backend calls run on a
+     * shared pool of daemon threads.
+     */
+    public Publisher<T> publishRange( final String keyStart, final String keyEnd, final int pageSize ) {
+        return publishRange( keyStart, keyEnd, pageSize, null );
+    }
+
+    /**
+     * @param executor runs the backend calls
+     * @see #publishRange(String, String, int)
+     */
+    public Publisher<T> publishRange( final String keyStart, final String keyEnd, final int pageSize, final Executor executor ) {
+        final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
+        final List<Deadline> deadlines = Deadline.capture();
+        return new RowPublisher<T>( new Iterable<Map.Entry<String, List<Column>>>() {
+            @Override
+            public Iterator<Map.Entry<String, List<Column>>> iterator() {
+                return rawRangeIterator( keyStart, keyEnd, pageSize, predicate, deadlines );
+            }
+        }, pageSize, hydrator(), executor );
+    }
+
+    /**
+     * Publishes the entities stored under the given keys in their order,
+     * reading <code>batchSize</code> keys per backend call only while
+     * subscribers have outstanding demand. Keys without a row are skipped.
+     * Backend calls run on a shared pool of daemon threads.
+     */
+    public Publisher<T> publish( final Iterable<String> keys, final int batchSize ) {
+        return publish( keys, batchSize, null );
+    }
+
+    /**
+     * @param executor runs the backend calls
+     * @see #publish(Iterable, int)
+     */
+    public Publisher<T> publish( final Iterable<String> keys, final int batchSize, final Executor executor ) {
+        final ColumnParent parent = makeColumnParent();
+        final SlicePredicate predicate = makeSlicePredicateWithAllPropertyColumns();
+        final List<Deadline> deadlines = Deadline.capture();
+        final Function<List<String>, Iterator<Map.Entry<String, List<Column>>>> fetchBatch =
+            new Function<List<String>, Iterator<Map.Entry<String, List<Column>>>>() {
+            @Override
+            public Iterator<Map.Entry<String, List<Column>>> apply( final List<String> batch ) {
+                final Map<String, List<Column>> slice;
+                Deadline.enter( deadlines );
+                try {
+                    slice = execute( "multigetPage", true, new Command<Map<String, List<Column>>>(){
+                        @Override
+                        public Map<String, List<Column>> execute(final Keyspace ks) throws Exception {
+                            return ks.multigetSlice( batch, parent, predicate );
+                        }
+                    } );
+                } finally {
+                    Deadline.exit( deadlines );
+                }
+                final List<Map.Entry<String, List<Column>>> rows = Lists.newArrayListWithCapacity( batch.size() );
+                for ( final String key : batch ) {
+                    final List<Column> columns = slice.get( key );
+                    rows.add( Maps.immutableEntry( key, columns == null ? ImmutableList.<Column>of() : columns ) );
+                }
+                return rows.iterator();
+            }
+        };
+        return new RowPublisher<T>( new Iterable<Map.Entry<String, List<Column>>>() {
+            @Override
+            public Iterator<Map.Entry<String, List<Column>>> iterator() {
+                return Iterators.concat( Iterators.transform( Iterators.partition( keys.iterator(), batchSize ), fetchBatch ) );
+            }
+        }, batchSize, hydrator(), executor );
+    }
+
+    private Function<Map.Entry<String, List<Column>>, T> hydrator() {
+        return new Function<Map.Entry<String, List<Column>>, T>() {
+            @Override
+            public T apply( final Map.Entry<String, List<Column>> row ) {
+                return applyColumns( row.getKey(), row.getValue() );
+            }
+        };
+    }
+
+    /**
+     * Pages under the {@link Deadline}s entered when the iterator is created.
+     */
+    Iterator<Map.Entry<String, List<Column>>> rawRangeIterator( final String keyStart, final String keyEnd, final int pageSize,
+            final SlicePredicate predicate ) {
+        return rawRangeIterator( keyStart, keyEnd, pageSize, predicate, Deadline.capture() );
+    }
+
+    private Iterator<Map.Entry<String, List<Column>>> rawRangeIterator( final String keyStart, final String keyEnd, final int pageSize,
+            final SlicePredicate predicate, final List<Deadline> deadlines ) {
+        final ColumnParent parent = makeColumnParent();
+        return new PagingRangeIterator<List<Column>>( new PagingRangeIterator.PageFetcher<List<Column>>() {
+            @Override
+            public Map<String, List<Column>> fetch( final String start, final String end, final int count ) {
+                Deadline.enter( deadlines );
+                try {
+                    return execute( "getRangePage", true, new Command<Map<String, List<Column>>>(){
+                        @Override
+                        public Map<String, List<Column>> execute(final Keyspace ks) throws Exception {
+                            return ks.getRangeSlice( parent, predicate, start, end, count );
+                        }
+                    } );
+                } finally {
+                    Deadline.exit( deadlines );
+                }
+            }
+        }, keyStart, keyEnd, pageSize );
+    }
+
+    /**
+     * Reads up to <code>count</code> raw columns of one row, starting with the
+     * column named <code>start</code> (inclusive).
+     */
+    List<Column> rawColumnSlice( final String key, final byte[] start, final int count ) {
+        final ColumnParent parent = makeColumnParent();
+        final SlicePredicate predicate = new SlicePredicate();
+        predicate.setSlice_range( new SliceRange( start, EMPTY_BYTES, false, count ) );
+        return execute( "getColumnPage", true, new Command<List<Column>>(){
+            @Override
+            public List<Column> execute(final Keyspace ks) throws Exception {
+                try {
+                    return ks.getSlice( key, parent, predicate );
+                } catch (final NotFoundException e) {
+                    return ImmutableList.of();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes rows of raw columns as they are, keeping their timestamps, which
+     * makes the write safe to retry. All rows share one connection.
+     */
+    void insertRaw( final Map<String, List<Column>> rows ) {
+        if ( isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Raw inserts are not supported for super column family " + _columnFamily );
+        }
         try {
-            return execute(new Command<List<T>>(){
+            execute( "insertRaw", AdmissionController.Lane.WRITE, true, new Command<Void>(){
                 @Override
-                public List<T> execute(final Keyspace ks) throws Exception {
+                public Void execute(final Keyspace ks) throws Exception {
+                    for ( final Map.Entry<String, List<Column>> row : rows.entrySet() ) {
+                        Deadline.check( "insertRaw", null );
+                        ks.batchInsert( row.getKey(), ImmutableMap.<String, List<Column>>of( _columnFamily, row.getValue() ), null );
+                    }
+                    return null;
+                }
+            } );
+        } finally {
+            for ( final String key : rows.keySet() ) {
+                afterWrite( key );
+            }
+        }
+    }
+
+    /**
+     * @return the live statistics of this DAO, also available through JMX if
+     *         the factory registers MBeans
+     */
+    public DAOStatistics getStatistics() {
+        return _statistics;
+    }
 
-                    final Map<String,List<Column>> slice = ks.getRangeSlice( parent, predicate, keyStart, keyEnd , amount );
+    EntityMetadata<T> getMetadata() {
+        return _metadata;
+    }
 
-                    return convertToList( slice );
+    TypeConverter getTypeConverter() {
+        return _typeConverter;
+    }
 
+    String getColumnFamily() {
+        return _columnFamily;
+    }
+
+    String getKeyspace() {
+        return _keyspace;
+    }
+
+    boolean isSuperColumnFamily() {
+        return _metadata.isSuperColumnFamily();
+    }
+
+    /**
+     * Element columns have no fixed names, rows of entities with
+     * {@link org.thiesen.helenaorm.annotations.ElementColumns} are read as a whole.
+     */
+    private SlicePredicate makeSlicePredicateWithAllPropertyColumns() {
+        final SlicePredicate predicate = new SlicePredicate();
+        if ( _metadata.getElementCollectionProperties().isEmpty() ) {
+            predicate.setColumn_names( _metadata.getEagerColumnNames() );
+        } else {
+            predicate.setSlice_range( new SliceRange( EMPTY_BYTES, EMPTY_BYTES, false, MAX_ROW_COLUMNS ) );
+        }
+        return predicate;
+    }
+
+    /**
+     * Adds a single element to an {@link org.thiesen.helenaorm.annotations.ElementColumns}
+     * set without reading or rewriting the rest of it.
+     */
+    public void addElement( final String key, final String property, final Object element ) {
+        final ElementCollection collection = elementCollection( property, false );
+        insertColumn( "addElement", key, collection.columnName( element ), collection.columnValue( null ) );
+    }
+
+    public void removeElement( final String key, final String property, final Object element ) {
+        removeColumn( "removeElement", key, elementCollection( property, false ).columnName( element ) );
+    }
+
+    /**
+     * Puts a single entry into an {@link org.thiesen.helenaorm.annotations.ElementColumns}
+     * map without reading or rewriting the rest of it.
+     */
+    public void putEntry( final String key, final String property, final Object mapKey, final Object value ) {
+        final ElementCollection collection = elementCollection( property, true );
+        insertColumn( "putEntry", key, collection.columnName( mapKey ), collection.columnValue( value ) );
+    }
+
+    public void removeEntry( final String key, final String property, final Object mapKey ) {
+        removeColumn( "removeEntry", key, elementCollection( property, true ).columnName( mapKey ) );
+    }
+
+    /**
+     * Reads a {@link org.thiesen.helenaorm.annotations.Lazy} property of an
+     * entity and sets it, to null if the row holds no value.
+     */
+    public void loadLazy( final T entity, final String propertyName ) {
+        final PropertyMetadata property = lazyProperty( propertyName );
+        final String key = getKeyFrom( entity );
+        recordRead( key );
+        final ColumnParent parent = makeColumnParent();
+        final SlicePredicate predicate = makeSlicePredicateWithColumn( property );
+        final List<Column> slice = execute( "loadLazy", true, new Command<List<Column>>(){
+            @Override
+            public List<Column> execute(final Keyspace ks) throws Exception {
+                try {
+                    return ks.getSlice( key, parent, predicate );
+                } catch (final NotFoundException e) {
+                    return ImmutableList.of();
                 }
-            }); 
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException( e );
+            }
+        });
+        setLazy( entity, property, slice );
+    }
+
+    /**
+     * Reads a {@link org.thiesen.helenaorm.annotations.Lazy} property of all
+     * entities in as few multi-gets as possible and sets it, see {@link #loadLazy(Object, String)}.
+     */
+    public void loadLazy( final Iterable<? extends T> entities, final String propertyName ) {
+        final PropertyMetadata property = lazyProperty( propertyName );
+        final List<T> targets = ImmutableList.copyOf( entities );
+        if ( targets.isEmpty() ) {
+            return;
+        }
+        final List<String> keys = Lists.newArrayListWithCapacity( targets.size() );
+        for ( final T entity : targets ) {
+            final String key = getKeyFrom( entity );
+            recordRead( key );
+            keys.add( key );
+        }
+        final ColumnParent parent = makeColumnParent();
+        final SlicePredicate predicate = makeSlicePredicateWithColumn( property );
+        final Map<String, List<Column>> slice = multiget( "loadLazyBatch", ImmutableList.copyOf( ImmutableSet.copyOf( keys ) ), parent, predicate );
+        for ( int i = 0; i < targets.size(); i++ ) {
+            setLazy( targets.get( i ), property, slice.get( keys.get( i ) ) );
         }
     }
 
-    private SlicePredicate makeSlicePredicateWithAllPropertyColumns() {
+    private PropertyMetadata lazyProperty( final String propertyName ) {
+        final PropertyMetadata property = _metadata.getProperty( propertyName );
+        if ( property == null || !property.isLazy() ) {
+            throw new IllegalArgumentException( propertyName + " is not a @Lazy property of " + _metadata.getEntityClass().getName() );
+        }
+        return property;
+    }
+
+    private SlicePredicate makeSlicePredicateWithColumn( final PropertyMetadata property ) {
         final SlicePredicate predicate = new SlicePredicate();
-        predicate.setColumn_names( _columnNames );
+        predicate.setColumn_names( ImmutableList.of( property.getColumnName() ) );
         return predicate;
     }
 
+    private void setLazy( final T entity, final PropertyMetadata property, final List<Column> slice ) {
+        if ( slice == null || slice.isEmpty() ) {
+            property.set( entity, null );
+            return;
+        }
+        final byte[] value = slice.get( 0 ).value;
+        _payload.recordReadProperty( property, property.getColumnName().length + value.length );
+        property.set( entity, property.getCodec().decode( value ) );
+    }
+
+    private ElementCollection elementCollection( final String propertyName, final boolean map ) {
+        final PropertyMetadata property = _metadata.getProperty( propertyName );
+        if ( property == null || property.getElementCollection() == null || property.getElementCollection().isMap() != map ) {
+            throw new IllegalArgumentException( propertyName + " is not an @ElementColumns " + ( map ? "map" : "set" )
+                    + " of " + _metadata.getEntityClass().getName() );
+        }
+        return property.getElementCollection();
+    }
+
+    private void insertColumn( final String operation, final String key, final byte[] name, final byte[] value ) {
+        final Column column = new Column( name, value, System.currentTimeMillis() );
+        try {
+            execute( operation, false, new Command<Void>(){
+                @Override
+                public Void execute(final Keyspace ks) throws Exception {
+                    ks.batchInsert( key, ImmutableMap.<String, List<Column>>of( _columnFamily, ImmutableList.of( column ) ), null );
+                    return null;
+                }
+            } );
+        } finally {
+            afterWrite( key );
+        }
+    }
+
+    private void removeColumn( final String operation, final String key, final byte[] name ) {
+        try {
+            execute( operation, false, new Command<Void>(){
+                @Override
+                public Void execute(final Keyspace ks) throws Exception {
+                    ks.remove( key, new ColumnPath( _columnFamily, null, name ) );
+                    return null;
+                }
+            } );
+        } finally {
+            afterWrite( key );
+        }
+    }
+
     private ColumnParent makeColumnParent() {
         final ColumnParent parent = new ColumnParent();
         parent.setColumn_family( _columnFamily );
@@ -373,24 +1267,141 @@ public class HelenaDAO<T> {
         final ColumnParent parent = makeColumnParent();
         final SlicePredicate predicate = makeSlicePredicateWithColumns( columns );
 
-        try {
-            return execute(new Command<List<T>>(){
-                @Override
-                public List<T> execute(final Keyspace ks) throws Exception {
-                    try {
-                        final List<SuperColumn> slice = ks.getSuperSlice( key, parent, predicate );
+        return execute( "getSuperSlice", true, new Command<List<T>>(){
+            @Override
+            public List<T> execute(final Keyspace ks) throws Exception {
+                try {
+                    final List<SuperColumn> slice = ks.getSuperSlice( key, parent, predicate );
 
-                        return applyColumns( key, slice );
-                    } catch (final NotFoundException e) {
-                        return null;
-                    }
+                    return applyColumns( key, slice );
+                } catch (final NotFoundException e) {
+                    return null;
                 }
+            }
 
-            }); 
-        } catch ( final Exception e ) {
-            throw new HelenaRuntimeException( e );
+        }); 
+
+
+    }
+
+    /**
+     * Reads up to <code>count</code> super columns of a row whose names lie
+     * between start and finish (both inclusive). Start and finish are values
+     * of the @SuperColumnProperty, null for an open end. With
+     * <code>reversed</code> the super columns are returned in descending
+     * order and start is expected to be the greater bound.
+     */
+    public List<T> getSuperRange( final String key, final Object start, final Object finish, final boolean reversed, final int count ) {
+        final PropertyMetadata superColumnProperty = requireSuperColumnProperty();
+        final SlicePredicate predicate = new SlicePredicate();
+        predicate.setSlice_range( new SliceRange( superColumnProperty.getCodec().encode( start ),
+                superColumnProperty.getCodec().encode( finish ), reversed, count ) );
+        return applyColumns( key, superSlice( "getSuperRange", key, predicate ) );
+    }
+
+    /**
+     * Lazily walks the super columns of a row between start and finish like
+     * {@link #getSuperRange(String, Object, Object, boolean, int)}, fetching
+     * at most <code>pageSize</code> super columns per backend call, so rows
+     * too wide to be read at once can be processed.
+     */
+    public Iterable<T> getSuperRangePaged( final String key, final Object start, final Object finish, final boolean reversed,
+            final int pageSize ) {
+        final PropertyMetadata superColumnProperty = requireSuperColumnProperty();
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive, got " + pageSize );
         }
+        final byte[] startName = superColumnProperty.getCodec().encode( start );
+        final byte[] finishName = superColumnProperty.getCodec().encode( finish );
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new SuperColumnIterator( key, startName, finishName, reversed, pageSize );
+            }
+        };
+    }
+
+    private PropertyMetadata requireSuperColumnProperty() {
+        if ( !isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( _columnFamily + " is not mapped as super column family, there is no @SuperColumnProperty" );
+        }
+        return _metadata.getSuperColumnProperty();
+    }
 
+    private List<SuperColumn> superSlice( final String operation, final String key, final SlicePredicate predicate ) {
+        recordRead( key );
+        final ColumnParent parent = makeColumnParent();
+        return execute( operation, true, new Command<List<SuperColumn>>(){
+            @Override
+            public List<SuperColumn> execute(final Keyspace ks) throws Exception {
+                try {
+                    return ks.getSuperSlice( key, parent, predicate );
+                } catch (final NotFoundException e) {
+                    return ImmutableList.of();
+                }
+            }
+        } );
+    }
+
+    /**
+     * Pages through the super columns of one row. Follow-up pages start at
+     * the last super column seen and fetch one more to make up for it.
+     */
+    private final class SuperColumnIterator extends AbstractIterator<T> {
+
+        private final String _key;
+        private final byte[] _finish;
+        private final boolean _reversed;
+        private final int _pageSize;
+        private final List<Deadline> _deadlines = Deadline.capture();
+
+        private byte[] _pageStart;
+        private boolean _followUp;
+        private boolean _exhausted;
+        private Iterator<SuperColumn> _page = ImmutableList.<SuperColumn>of().iterator();
+
+        SuperColumnIterator( final String key, final byte[] start, final byte[] finish, final boolean reversed, final int pageSize ) {
+            _key = key;
+            _pageStart = start;
+            _finish = finish;
+            _reversed = reversed;
+            _pageSize = pageSize;
+        }
+
+        @Override
+        protected T computeNext() {
+            while ( !_page.hasNext() ) {
+                if ( _exhausted ) {
+                    return endOfData();
+                }
+                fetchPage();
+            }
+            final SuperColumn superColumn = _page.next();
+            final T object = applyColumns( _key, superColumn.getColumns() );
+            applySuperColumnName( object, superColumn.getName() );
+            return object;
+        }
+
+        private void fetchPage() {
+            final int requested = _followUp ? _pageSize + 1 : _pageSize;
+            final SlicePredicate predicate = new SlicePredicate();
+            predicate.setSlice_range( new SliceRange( _pageStart, _finish, _reversed, requested ) );
+            final List<SuperColumn> superColumns;
+            Deadline.enter( _deadlines );
+            try {
+                superColumns = superSlice( "getSuperRangePage", _key, predicate );
+            } finally {
+                Deadline.exit( _deadlines );
+            }
+
+            _exhausted = superColumns.size() < requested;
+            final boolean skipFirst = _followUp && !superColumns.isEmpty() && Arrays.equals( superColumns.get( 0 ).getName(), _pageStart );
+            if ( !superColumns.isEmpty() ) {
+                _pageStart = superColumns.get( superColumns.size() - 1 ).getName();
+            }
+            _followUp = true;
+            _page = ( skipFirst ? superColumns.subList( 1, superColumns.size() ) : superColumns ).iterator();
+        }
 
     }
 
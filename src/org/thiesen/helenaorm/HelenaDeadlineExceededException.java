@@ -0,0 +1,39 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Thrown when an operation ran out of its time budget before it could be
+ * completed.
+ */
+public class HelenaDeadlineExceededException extends HelenaRuntimeException {
+
+    private static final long serialVersionUID = -3385546413093270871L;
+
+    HelenaDeadlineExceededException( final String message ) {
+        super( message );
+    }
+
+    HelenaDeadlineExceededException( final String message, final Throwable cause ) {
+        super( message, cause );
+    }
+
+}
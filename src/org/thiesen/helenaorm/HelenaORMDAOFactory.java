@@ -20,9 +20,24 @@
  */
 package org.thiesen.helenaorm;
 
+import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.net.URI;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -33,9 +48,10 @@ import org.thiesen.helenaorm.mappings.URITypeMapping;
 import org.thiesen.helenaorm.mappings.UUIDTypeMapping;
 
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 
 public class HelenaORMDAOFactory {
-    @SuppressWarnings( "unused" )
     private static final Log LOG = LogFactory.getLog( HelenaORMDAOFactory.class );
     
     private static final Map<Class<?>, TypeMapping<?>> DEFAULT_TYPES = ImmutableMap.<Class<?>, TypeMapping<?>>of(
@@ -46,17 +62,24 @@ public class HelenaORMDAOFactory {
             URI.class, new URITypeMapping()
     );
     
-    private final String _hostname;
-    private final int _port;
+    private final CassandraBackend _backend;
     private final SerializeUnknownClasses _serializationPolicy;
+    private final Map<Class<?>, TypeMapping<?>> _customMappings;
     private final ImmutableMap<Class<?>, TypeMapping<?>> _typeMappings;
+    private final ResilientExecutor _executor;
+    private final ResiliencePolicy _resiliencePolicy;
+    private final DAOOptions _options;
+    private final ConcurrentMap<Class<?>, FutureTask<HelenaDAO<?>>> _daos = new ConcurrentHashMap<Class<?>, FutureTask<HelenaDAO<?>>>();
 
-    private HelenaORMDAOFactory( final String hostname, final int port,
-            final SerializeUnknownClasses serializationPolicy, final Map<Class<?>, TypeMapping<?>> mappings ) {
-        _hostname = hostname;
-        _port = port;
+    private HelenaORMDAOFactory( final CassandraBackend backend, final SerializeUnknownClasses serializationPolicy, final Map<Class<?>, TypeMapping<?>> mappings,
+            final ResiliencePolicy resiliencePolicy, final DAOOptions options ) {
+        _backend = backend;
         _serializationPolicy = serializationPolicy;
+        _customMappings = mappings;
         _typeMappings = ImmutableMap.<Class<?>, TypeMapping<?>>builder().putAll( DEFAULT_TYPES ).putAll(  mappings ).build();
+        _executor = new ResilientExecutor( backend, resiliencePolicy );
+        _resiliencePolicy = resiliencePolicy;
+        _options = options;
     }
     
     public static HelenaORMDAOFactory withConfig( final String hostname, final int port ) {
@@ -65,17 +88,357 @@ public class HelenaORMDAOFactory {
     
     public static HelenaORMDAOFactory withConfig( final String hostname, final int port,
             final SerializeUnknownClasses serializationPolicy ) {
-        return new HelenaORMDAOFactory( hostname, port, serializationPolicy, ImmutableMap.<Class<?>, TypeMapping<?>>of() );
+        return new HelenaORMDAOFactory( new ThriftBackend( hostname, port ), serializationPolicy,
+                ImmutableMap.<Class<?>, TypeMapping<?>>of(), ResiliencePolicy.none(), DAOOptions.DEFAULTS );
     }
     
     public static HelenaORMDAOFactory withConfig( final String hostname, final int port,
             final SerializeUnknownClasses serializationPolicy, final Map<Class<?>,TypeMapping<?>> mappings ) {
-        return new HelenaORMDAOFactory( hostname, port, serializationPolicy, mappings );
+        return new HelenaORMDAOFactory( new ThriftBackend( hostname, port ), serializationPolicy, mappings, ResiliencePolicy.none(),
+                DAOOptions.DEFAULTS );
+    }
+    
+    /**
+     * Returns a factory with the same configuration whose DAOs execute their
+     * commands on the given backend instead of the configured host.
+     */
+    public HelenaORMDAOFactory withBackend( final CassandraBackend backend ) {
+        return new HelenaORMDAOFactory( backend, _serializationPolicy, _customMappings, _resiliencePolicy, _options );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs execute
+     * according to the given policy. Circuit breakers are shared by all DAOs
+     * made by the returned factory.
+     */
+    public HelenaORMDAOFactory withResiliencePolicy( final ResiliencePolicy resiliencePolicy ) {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, resiliencePolicy, _options );
+    }
+
+    /**
+     * Returns a factory with the same configuration that registers the
+     * {@link DAOStatistics} of every DAO it makes with the platform MBean
+     * server, named
+     * <code>org.thiesen.helenaorm:type=HelenaDAO,keyspace=&lt;keyspace&gt;,columnFamily=&lt;column family&gt;</code>.
+     */
+    public HelenaORMDAOFactory withMBeanRegistration() {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withMBeanRegistration() );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs log operations
+     * taking at least <code>thresholdMillis</code> at WARN and a sample of
+     * all other operations at INFO, with the time split into marshalling,
+     * connection borrow, network and hydration. The log category is
+     * <code>org.thiesen.helenaorm.SlowOperationLog</code>.
+     * 
+     * @param thresholdMillis 0 to only log sampled operations
+     * @param sampleRate fraction of operations to log regardless of their duration, 0 for none
+     */
+    public HelenaORMDAOFactory withSlowOperationLog( final long thresholdMillis, final double sampleRate ) {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withSlowOperationLog( new SlowOperationLog( thresholdMillis, sampleRate ) ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs keep the rows
+     * they read in a cache of up to <code>maxBytesPerColumnFamily</code> of
+     * direct memory each, see {@link NearCache}. Single and multi key reads
+     * are served from the cache, writes and deletes through the DAO
+     * invalidate the rows they touch. Rows written by other clients stay
+     * stale until evicted, so only cache column families this application
+     * owns. Super column families are never cached. The JVM has to allow
+     * enough direct memory, see <code>-XX:MaxDirectMemorySize</code>.
+     */
+    public HelenaORMDAOFactory withNearCache( final long maxBytesPerColumnFamily ) {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withNearCacheBytes( maxBytesPerColumnFamily ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs track the
+     * <code>count</code> most read and the <code>count</code> most written
+     * row keys of their column family within a sliding window, see
+     * {@link HotKeyTracker}. The keys and their rates are available from
+     * {@link DAOStatistics} and its MBean. Memory use is fixed, 64KB per
+     * DAO for up to 16 keys and proportionally more for larger counts.
+     */
+    public HelenaORMDAOFactory withHotKeyTracking( final int count, final long windowMillis ) {
+        if ( count <= 0 || windowMillis < HotKeyTracker.SLICES ) {
+            throw new IllegalArgumentException( "Need a positive count and a window of at least " + HotKeyTracker.SLICES + "ms" );
+        }
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withHotKeyTracking( count, windowMillis ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs keep the rows
+     * they read in memory mapped files below <code>directory</code>, one
+     * subdirectory per keyspace, column family and entity class, see {@link DiskCache}.
+     * The files survive restarts, so a new process serves the rows read by
+     * the previous one without asking the cluster. Each column family takes
+     * up to <code>maxBytesPerColumnFamily</code> of disk, rows older than
+     * <code>maxAgeMillis</code> are not served. Writes and deletes through
+     * the DAO remove the rows they touch, rows written by other clients or
+     * while the process was down are stale for at most the maximum age. A
+     * directory can only be used by one process at a time, factories of the
+     * same process share it. {@link #close()} releases it. Super column
+     * families are never cached.
+     */
+    public HelenaORMDAOFactory withDiskCache( final File directory, final long maxBytesPerColumnFamily, final long maxAgeMillis ) {
+        if ( directory == null || maxBytesPerColumnFamily < DiskCache.MIN_BYTES || maxAgeMillis <= 0 ) {
+            throw new IllegalArgumentException( "Need a directory, at least " + DiskCache.MIN_BYTES + " bytes and a positive maximum age, got "
+                    + directory + ", " + maxBytesPerColumnFamily + " bytes and " + maxAgeMillis + "ms" );
+        }
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withDiskCache( directory, maxBytesPerColumnFamily, maxAgeMillis ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs remember up
+     * to <code>maxEntries</code> keys they read without finding a row, for
+     * <code>ttlMillis</code> each, and answer reads of them without a round
+     * trip. Writes through the DAO forget the key at once, rows written by
+     * other clients are seen after the time to live at the latest. Super
+     * column families are not covered.
+     */
+    public HelenaORMDAOFactory withMissCache( final int maxEntries, final long ttlMillis ) {
+        if ( maxEntries <= 0 || ttlMillis <= 0 ) {
+            throw new IllegalArgumentException( "Need a positive size and time to live, got " + maxEntries + " entries for "
+                    + ttlMillis + "ms" );
+        }
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withMissCache( maxEntries, ttlMillis ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration whose DAOs keep a Bloom
+     * filter of their keys, see {@link KeyFilter}, sized for
+     * <code>expectedKeys</code> at the given false positive rate. The filter
+     * is used once {@link HelenaDAO#rebuildKeyFilter(int)} scanned all keys,
+     * reads of keys it rules out need no round trip. Rows written by other
+     * clients are missed until the next rebuild, so only filter column
+     * families this application owns. Super column families are not covered.
+     */
+    public HelenaORMDAOFactory withKeyFilter( final int expectedKeys, final double falsePositiveRate ) {
+        if ( expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 ) {
+            throw new IllegalArgumentException( "Need a positive number of keys and a false positive rate between 0 and 1, got "
+                    + expectedKeys + " and " + falsePositiveRate );
+        }
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withKeyFilter( expectedKeys, falsePositiveRate ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration that limits the
+     * operations of all DAOs it makes together, see {@link AdmissionPolicy}.
+     * The limits are shared by all DAOs made by the returned factory and
+     * apply in addition to limits per column family.
+     */
+    public HelenaORMDAOFactory withAdmissionControl( final AdmissionPolicy policy ) {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withAdmission( new AdmissionController( "factory", policy, null ) ) );
+    }
+
+    /**
+     * Returns a factory with the same configuration that limits the
+     * operations on one column family, in addition to the limits of the
+     * factory. Operations wait up to the maximum wait of each policy.
+     */
+    public HelenaORMDAOFactory withAdmissionControl( final String columnFamily, final AdmissionPolicy policy ) {
+        return new HelenaORMDAOFactory( _backend, _serializationPolicy, _customMappings, _resiliencePolicy,
+                _options.withColumnFamilyAdmission( columnFamily, policy ) );
     }
     
+    /**
+     * Returns the DAO for the given class. DAOs are thread safe and built
+     * only once per class and factory, later calls return the cached instance.
+     * Concurrent first calls wait for the one building the DAO, which owns
+     * resources such as the lock of its disk cache. A failed build is retried
+     * by the next call.
+     */
     public <T> HelenaDAO<T> makeDaoForClass( final Class<T> clz ) {
-        return new HelenaDAO<T>( clz,
-                _hostname, _port, _serializationPolicy, _typeMappings );
+        FutureTask<HelenaDAO<?>> task = _daos.get( clz );
+        if ( task == null ) {
+            final FutureTask<HelenaDAO<?>> created = new FutureTask<HelenaDAO<?>>( new Callable<HelenaDAO<?>>() {
+                @Override
+                public HelenaDAO<?> call() {
+                    return buildDao( clz );
+                }
+            } );
+            task = _daos.putIfAbsent( clz, created );
+            if ( task == null ) {
+                task = created;
+                created.run();
+            }
+        }
+        try {
+            @SuppressWarnings( "unchecked" )
+            final HelenaDAO<T> dao = (HelenaDAO<T>) task.get();
+            return dao;
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted while waiting for the DAO of " + clz.getName(), e );
+        } catch ( final ExecutionException e ) {
+            _daos.remove( clz, task );
+            final Throwable cause = e.getCause();
+            if ( cause instanceof RuntimeException ) {
+                throw (RuntimeException) cause;
+            }
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw new HelenaRuntimeException( "Could not build the DAO of " + clz.getName(), cause );
+        }
+    }
+
+    /**
+     * Closes the DAOs made by this factory, releasing their disk caches. The
+     * DAOs must not be used afterwards, later calls to
+     * {@link #makeDaoForClass(Class)} build new ones.
+     */
+    public void close() {
+        for ( final Map.Entry<Class<?>, FutureTask<HelenaDAO<?>>> entry : _daos.entrySet() ) {
+            if ( _daos.remove( entry.getKey(), entry.getValue() ) ) {
+                try {
+                    entry.getValue().get().close();
+                } catch ( final InterruptedException e ) {
+                    Thread.currentThread().interrupt();
+                    throw new HelenaRuntimeException( "Interrupted while closing the DAO of " + entry.getKey().getName(), e );
+                } catch ( final ExecutionException e ) {
+                    // never built, nothing to close
+                }
+            }
+        }
+    }
+
+    private <T> HelenaDAO<T> buildDao( final Class<T> clz ) {
+        final HelenaDAO<T> created = new HelenaDAO<T>( clz,
+                _executor, _serializationPolicy, _typeMappings, _options );
+        if ( _options.isRegisterMBeans() ) {
+            registerMBean( created.getStatistics() );
+        }
+        return created;
+    }
+
+    /**
+     * Registration failures are logged only, statistics must not keep DAOs
+     * from working. Another factory registering the same column family is
+     * the common cause.
+     */
+    private static void registerMBean( final DAOStatistics statistics ) {
+        try {
+            final ObjectName name = new ObjectName( "org.thiesen.helenaorm:type=HelenaDAO,keyspace=" + statistics.getKeyspace()
+                    + ",columnFamily=" + statistics.getColumnFamily() );
+            ManagementFactory.getPlatformMBeanServer().registerMBean( statistics, name );
+        } catch ( final JMException e ) {
+            LOG.warn( "Could not register statistics of " + statistics.getColumnFamily() + " with JMX", e );
+        }
+    }
+
+    /**
+     * Returns a DAO storing the given {@link org.thiesen.helenaorm.annotations.TimeSeries}
+     * class as wide rows, see {@link TimeSeriesDAO}.
+     */
+    public <T> TimeSeriesDAO<T> makeTimeSeriesDaoForClass( final Class<T> clz ) {
+        return new TimeSeriesDAO<T>( makeDaoForClass( clz ) );
+    }
+
+    /**
+     * Builds and validates the DAOs of all given classes in parallel, so the
+     * first request using them does not pay for introspection. All classes
+     * are built before failing, so a single run reports every invalid mapping.
+     * 
+     * @throws HelenaRuntimeException naming every class whose mapping is invalid
+     */
+    public WarmupReport warmup( final Iterable<? extends Class<?>> classes ) {
+        return warmup( classes, 0 );
+    }
+
+    /**
+     * Finds all @HelenaBean classes in the given packages and their sub
+     * packages and warms them up, see {@link #warmup(Iterable)}.
+     * 
+     * @throws HelenaRuntimeException if a package holds no @HelenaBean class, which usually is a misspelled package
+     */
+    public WarmupReport warmup( final String... packageNames ) {
+        final long start = System.currentTimeMillis();
+        final ClasspathScanner scanner = new ClasspathScanner( classLoader() );
+        final Set<Class<?>> classes = Sets.newLinkedHashSet();
+        for ( final String packageName : packageNames ) {
+            final List<Class<?>> found = scanner.findHelenaBeans( packageName );
+            if ( found.isEmpty() ) {
+                throw new HelenaRuntimeException( "No @HelenaBean classes found in package " + packageName );
+            }
+            classes.addAll( found );
+        }
+        return warmup( classes, System.currentTimeMillis() - start );
+    }
+
+    private WarmupReport warmup( final Iterable<? extends Class<?>> classes, final long discoveryMillis ) {
+        final List<Class<?>> pending = Lists.newArrayList();
+        int classCount = 0;
+        for ( final Class<?> clz : classes ) {
+            classCount++;
+            if ( !_daos.containsKey( clz ) ) {
+                pending.add( clz );
+            }
+        }
+        if ( pending.isEmpty() ) {
+            return new WarmupReport( classCount, discoveryMillis, 0, ImmutableMap.<Class<?>, Long>of() );
+        }
+
+        final long start = System.currentTimeMillis();
+        final Map<Class<?>, Long> buildMillis = new ConcurrentHashMap<Class<?>, Long>();
+        final int threads = Math.min( pending.size(), Runtime.getRuntime().availableProcessors() );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            final List<Callable<HelenaDAO<?>>> tasks = Lists.newArrayList();
+            for ( final Class<?> clz : pending ) {
+                tasks.add( new Callable<HelenaDAO<?>>() {
+                    @Override
+                    public HelenaDAO<?> call() {
+                        final long buildStart = System.currentTimeMillis();
+                        final HelenaDAO<?> dao = makeDaoForClass( clz );
+                        buildMillis.put( clz, Long.valueOf( System.currentTimeMillis() - buildStart ) );
+                        return dao;
+                    }
+                } );
+            }
+
+            final List<Future<HelenaDAO<?>>> results = executor.invokeAll( tasks );
+            final StringBuilder failed = new StringBuilder();
+            Throwable firstFailure = null;
+            for ( int i = 0; i < results.size(); i++ ) {
+                try {
+                    results.get( i ).get();
+                } catch ( final ExecutionException e ) {
+                    failed.append( failed.length() == 0 ? "" : ", " ).append( pending.get( i ).getName() )
+                        .append( ": " ).append( e.getCause().getMessage() );
+                    if ( firstFailure == null ) {
+                        firstFailure = e.getCause();
+                    }
+                }
+            }
+            if ( firstFailure != null ) {
+                throw new HelenaRuntimeException( "Invalid mappings: " + failed, firstFailure );
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted during warmup", e );
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final WarmupReport report = new WarmupReport( classCount, discoveryMillis, System.currentTimeMillis() - start, buildMillis );
+        LOG.info( report );
+        return report;
+    }
+
+    private static ClassLoader classLoader() {
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        return contextClassLoader != null ? contextClassLoader : HelenaORMDAOFactory.class.getClassLoader();
     }
 
 
@@ -0,0 +1,289 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Finds the most frequently accessed row keys of a column family in fixed
+ * memory. Accesses are counted in a count-min sketch per slice of the
+ * window: every key increments one counter in each of {@value #DEPTH} rows,
+ * and its count is the smallest of them, which overestimates by at most a
+ * small fraction of all accesses. The sliding window is made of
+ * {@value #SLICES} slices, the oldest is cleared when a new one starts.
+ * Keys whose count reaches the smallest count of the current top keys
+ * replace it.
+ * 
+ * Recording an access takes a few atomic increments and no lock unless the
+ * key is hot. Counts racing with the start of a new slice may be lost or
+ * land in the wrong slice, which does not matter for finding hot keys.
+ */
+public final class HotKeyTracker {
+
+    static final int DEPTH = 4;
+    static final int SLICES = 4;
+    private static final int MIN_WIDTH = 512;
+
+    private static final Comparator<HotKey> BY_COUNT = new Comparator<HotKey>() {
+        @Override
+        public int compare( final HotKey o1, final HotKey o2 ) {
+            return o1._count > o2._count ? -1 : ( o1._count == o2._count ? 0 : 1 );
+        }
+    };
+
+    private final int _capacity;
+    private final int _mask;
+    private final long _sliceMillis;
+    private final AtomicIntegerArray[] _slices = new AtomicIntegerArray[SLICES];
+
+    private final String[] _keys;
+    private final int[] _counts;
+    private int _size;
+    private volatile int _threshold;
+
+    private volatile int _current;
+    private volatile long _sliceEnd;
+    private long _started;
+
+    /**
+     * @param capacity the number of top keys to track
+     * @param windowMillis the time over which accesses are counted
+     */
+    HotKeyTracker( final int capacity, final long windowMillis ) {
+        if ( capacity <= 0 || windowMillis < SLICES ) {
+            throw new IllegalArgumentException( "Need a positive capacity and a window of at least " + SLICES + "ms" );
+        }
+        _capacity = capacity;
+        final int width = Math.max( MIN_WIDTH, Integer.highestOneBit( capacity * 32 - 1 ) << 1 );
+        _mask = width - 1;
+        _sliceMillis = windowMillis / SLICES;
+        for ( int i = 0; i < SLICES; i++ ) {
+            _slices[i] = new AtomicIntegerArray( DEPTH * width );
+        }
+        _keys = new String[capacity];
+        _counts = new int[capacity];
+        _started = System.currentTimeMillis();
+        _sliceEnd = _started + _sliceMillis;
+    }
+
+    void record( final String key ) {
+        final long now = System.currentTimeMillis();
+        if ( now >= _sliceEnd ) {
+            advance( now );
+        }
+        final int hash = key.hashCode();
+        final int step = mix( hash ) | 1;
+        final int current = _current;
+        int count = 0;
+        for ( int i = 0; i < SLICES; i++ ) {
+            final AtomicIntegerArray slice = _slices[i];
+            int estimate = Integer.MAX_VALUE;
+            for ( int row = 0; row < DEPTH; row++ ) {
+                final int index = row * ( _mask + 1 ) + ( hash + row * step & _mask );
+                final int value = i == current ? slice.incrementAndGet( index ) : slice.get( index );
+                estimate = Math.min( estimate, value );
+            }
+            count += estimate;
+        }
+        if ( count > _threshold ) {
+            offer( key, count );
+        }
+    }
+
+    /**
+     * The finalizer of MurmurHash3, derives the second hash of the rows from the first.
+     */
+    private static int mix( final int hash ) {
+        int h = hash;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private synchronized void offer( final String key, final int count ) {
+        int smallest = -1;
+        for ( int i = 0; i < _size; i++ ) {
+            if ( _keys[i].equals( key ) ) {
+                _counts[i] = Math.max( _counts[i], count );
+                updateThreshold();
+                return;
+            }
+            if ( smallest < 0 || _counts[i] < _counts[smallest] ) {
+                smallest = i;
+            }
+        }
+        if ( _size < _capacity ) {
+            _keys[_size] = key;
+            _counts[_size] = count;
+            _size++;
+        } else if ( count > _counts[smallest] ) {
+            _keys[smallest] = key;
+            _counts[smallest] = count;
+        }
+        updateThreshold();
+    }
+
+    private void updateThreshold() {
+        if ( _size < _capacity ) {
+            _threshold = 0;
+            return;
+        }
+        int threshold = Integer.MAX_VALUE;
+        for ( int i = 0; i < _size; i++ ) {
+            threshold = Math.min( threshold, _counts[i] );
+        }
+        _threshold = threshold;
+    }
+
+    /**
+     * Starts the slices up to <code>now</code>, clearing their counters, and
+     * recounts the top keys over the remaining ones.
+     */
+    private synchronized void advance( final long now ) {
+        if ( now < _sliceEnd ) {
+            return;
+        }
+        final long passed = ( now - _sliceEnd ) / _sliceMillis + 1;
+        int current = _current;
+        for ( int i = 0; i < Math.min( passed, SLICES ); i++ ) {
+            current = ( current + 1 ) % SLICES;
+            final AtomicIntegerArray slice = _slices[current];
+            for ( int j = 0; j < slice.length(); j++ ) {
+                slice.set( j, 0 );
+            }
+        }
+        _current = current;
+        _sliceEnd += passed * _sliceMillis;
+        recount();
+    }
+
+    private void recount() {
+        int size = 0;
+        for ( int i = 0; i < _size; i++ ) {
+            final int count = estimate( _keys[i] );
+            if ( count > 0 ) {
+                _keys[size] = _keys[i];
+                _counts[size] = count;
+                size++;
+            }
+        }
+        Arrays.fill( _keys, size, _size, null );
+        _size = size;
+        updateThreshold();
+    }
+
+    private int estimate( final String key ) {
+        final int hash = key.hashCode();
+        final int step = mix( hash ) | 1;
+        int count = 0;
+        for ( final AtomicIntegerArray slice : _slices ) {
+            int estimate = Integer.MAX_VALUE;
+            for ( int row = 0; row < DEPTH; row++ ) {
+                estimate = Math.min( estimate, slice.get( row * ( _mask + 1 ) + ( hash + row * step & _mask ) ) );
+            }
+            count += estimate;
+        }
+        return count;
+    }
+
+    /**
+     * @return the tracked keys with their estimated accesses within the window, most accessed first
+     */
+    public List<HotKey> getHotKeys() {
+        final long now = System.currentTimeMillis();
+        if ( now >= _sliceEnd ) {
+            advance( now );
+        }
+        synchronized ( this ) {
+            recount();
+            final long windowStart = Math.max( _started, _sliceEnd - SLICES * _sliceMillis );
+            final double seconds = Math.max( 1, now - windowStart ) / 1000.0;
+            final List<HotKey> result = Lists.newArrayListWithCapacity( _size );
+            for ( int i = 0; i < _size; i++ ) {
+                result.add( new HotKey( _keys[i], _counts[i], _counts[i] / seconds ) );
+            }
+            Collections.sort( result, BY_COUNT );
+            return result;
+        }
+    }
+
+    /**
+     * @return the time over which accesses are counted
+     */
+    public long getWindowMillis() {
+        return _sliceMillis * SLICES;
+    }
+
+    synchronized void reset() {
+        for ( final AtomicIntegerArray slice : _slices ) {
+            for ( int j = 0; j < slice.length(); j++ ) {
+                slice.set( j, 0 );
+            }
+        }
+        Arrays.fill( _keys, null );
+        _size = 0;
+        _threshold = 0;
+        _started = System.currentTimeMillis();
+        _sliceEnd = _started + _sliceMillis;
+    }
+
+    public static final class HotKey {
+        private final String _key;
+        private final int _count;
+        private final double _ratePerSecond;
+
+        HotKey( final String key, final int count, final double ratePerSecond ) {
+            _key = key;
+            _count = count;
+            _ratePerSecond = ratePerSecond;
+        }
+
+        public String getKey() {
+            return _key;
+        }
+
+        /**
+         * @return the estimated accesses within the window, never less than the actual ones
+         */
+        public int getCount() {
+            return _count;
+        }
+
+        public double getRatePerSecond() {
+            return _ratePerSecond;
+        }
+
+        @Override
+        public String toString() {
+            return _key + "=" + String.format( "%.1f", Double.valueOf( _ratePerSecond ) ) + "/s";
+        }
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A Bloom filter of the row keys of a column family. Once built from a scan
+ * of all keys, a key the filter does not contain has no row and can be
+ * answered without a round trip; a key it contains may still be missing, at
+ * the configured false positive rate. Writes through the DAO add their key,
+ * also while the filter is rebuilt. Rows written by other clients are only
+ * known after the next rebuild.
+ */
+final class KeyFilter {
+
+    private final int _bits;
+    private final int _hashes;
+    private final Object _rebuildLock = new Object();
+    private volatile AtomicLongArray _filter;
+    private volatile AtomicLongArray _building;
+    private volatile boolean _ready;
+    private final AtomicLong _lookups = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+    private final AtomicLong _falsePositives = new AtomicLong();
+
+    /**
+     * @param expectedKeys the number of keys the filter is sized for
+     * @param falsePositiveRate the fraction of missing keys the filter should fail to rule out at that size
+     */
+    KeyFilter( final int expectedKeys, final double falsePositiveRate ) {
+        if ( expectedKeys <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1 ) {
+            throw new IllegalArgumentException( "Need a positive number of keys and a false positive rate between 0 and 1, got "
+                    + expectedKeys + " and " + falsePositiveRate );
+        }
+        final double bits = -expectedKeys * Math.log( falsePositiveRate ) / ( Math.log( 2 ) * Math.log( 2 ) );
+        if ( bits > Integer.MAX_VALUE - 63 ) {
+            throw new IllegalArgumentException( expectedKeys + " keys at a false positive rate of " + falsePositiveRate
+                    + " need more than 2^31 bits" );
+        }
+        _bits = (int) Math.ceil( bits / 64 ) * 64;
+        _hashes = Math.max( 1, (int) Math.round( _bits / (double) expectedKeys * Math.log( 2 ) ) );
+        _filter = new AtomicLongArray( _bits / 64 );
+    }
+
+    /**
+     * The filter under construction is read before the current one, so a
+     * key written while it is rebuilt ends up in the filter that replaces
+     * the current one, or is seen by the scan.
+     */
+    void add( final String key ) {
+        final AtomicLongArray building = _building;
+        if ( building != null ) {
+            set( building, key );
+        }
+        set( _filter, key );
+    }
+
+    /**
+     * @return false only if the filter is built and the key has no row
+     */
+    boolean mightContain( final String key ) {
+        if ( !_ready ) {
+            return true;
+        }
+        _lookups.incrementAndGet();
+        final AtomicLongArray filter = _filter;
+        final long hash = hash( key );
+        final int h1 = (int) hash;
+        final int h2 = (int) ( hash >>> 32 );
+        for ( int i = 0; i < _hashes; i++ ) {
+            final int bit = ( ( h1 + i * h2 ) & Integer.MAX_VALUE ) % _bits;
+            if ( ( filter.get( bit >>> 6 ) & 1L << bit ) == 0 ) {
+                _hits.incrementAndGet();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Counts a key the filter did not rule out but that had no row.
+     */
+    void recordFalsePositive() {
+        if ( _ready ) {
+            _falsePositives.incrementAndGet();
+        }
+    }
+
+    /**
+     * Replaces the filter by one holding the given keys and the keys written meanwhile.
+     * 
+     * @return the number of keys scanned
+     */
+    long rebuild( final Iterable<String> keys ) {
+        synchronized ( _rebuildLock ) {
+            final AtomicLongArray building = new AtomicLongArray( _bits / 64 );
+            _building = building;
+            long count = 0;
+            try {
+                for ( final String key : keys ) {
+                    set( building, key );
+                    count++;
+                }
+                _filter = building;
+                _ready = true;
+            } finally {
+                _building = null;
+            }
+            return count;
+        }
+    }
+
+    private void set( final AtomicLongArray filter, final String key ) {
+        final long hash = hash( key );
+        final int h1 = (int) hash;
+        final int h2 = (int) ( hash >>> 32 );
+        for ( int i = 0; i < _hashes; i++ ) {
+            final int bit = ( ( h1 + i * h2 ) & Integer.MAX_VALUE ) % _bits;
+            final int index = bit >>> 6;
+            final long mask = 1L << bit;
+            long word = filter.get( index );
+            while ( ( word & mask ) == 0 && !filter.compareAndSet( index, word, word | mask ) ) {
+                word = filter.get( index );
+            }
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a over the characters, finished with the mixer of MurmurHash3.
+     */
+    private static long hash( final String key ) {
+        long hash = 0xcbf29ce484222325L;
+        for ( int i = 0; i < key.length(); i++ ) {
+            hash ^= key.charAt( i );
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    boolean isReady() {
+        return _ready;
+    }
+
+    long getLookups() {
+        return _lookups.get();
+    }
+
+    /**
+     * @return lookups ruled out by the filter
+     */
+    long getHits() {
+        return _hits.get();
+    }
+
+    long getFalsePositives() {
+        return _falsePositives.get();
+    }
+
+    /**
+     * @return the false positive rate expected from the bits set so far
+     */
+    double getExpectedFalsePositiveRate() {
+        final AtomicLongArray filter = _filter;
+        long set = 0;
+        for ( int i = 0; i < filter.length(); i++ ) {
+            set += Long.bitCount( filter.get( i ) );
+        }
+        return Math.pow( set / (double) _bits, _hashes );
+    }
+
+}
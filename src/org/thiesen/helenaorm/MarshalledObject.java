@@ -20,56 +20,115 @@
  */
 package org.thiesen.helenaorm;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.Set;
-
-import com.google.common.collect.Maps;
-
+import java.util.Arrays;
 
+/**
+ * The encoded values of one entity, indexed by property ordinal, plus
+ * columns that do not belong to a single property, e.g. collection
+ * elements. Instances are meant to be reused: {@link #reset()} clears the
+ * content but keeps the arrays, so marshalling only allocates the encoded
+ * values themselves.
+ */
 class MarshalledObject {
 
-    private byte[] _key;
+    private static final int INITIAL_EXTRA_COLUMNS = 8;
+
+    private String _key;
     private byte[] _superColumn;
-    private final Map<String, byte[]> _values = Maps.newHashMap();
-    
-    static MarshalledObject create() {
-        return new MarshalledObject();
+    private final byte[][] _values;
+    private int _valueCount;
+    private byte[][] _columnNames = new byte[INITIAL_EXTRA_COLUMNS][];
+    private byte[][] _columnValues = new byte[INITIAL_EXTRA_COLUMNS][];
+    private int _columnCount;
+
+    private MarshalledObject( final int properties ) {
+        _values = new byte[properties][];
+    }
+
+    /**
+     * @param properties number of mapped properties of the entity
+     */
+    static MarshalledObject create( final int properties ) {
+        return new MarshalledObject( properties );
+    }
+
+    /**
+     * Drops all content, keeping the allocated arrays.
+     */
+    void reset() {
+        _key = null;
+        _superColumn = null;
+        Arrays.fill( _values, null );
+        _valueCount = 0;
+        Arrays.fill( _columnNames, 0, _columnCount, null );
+        Arrays.fill( _columnValues, 0, _columnCount, null );
+        _columnCount = 0;
     }
 
-    void setKey( final byte[] value ) {
+    void setKey( final String value ) {
         _key = value;
-        
     }
 
-    void addValue( final String name, final byte[] value ) {
-        if ( _values.put( name, value ) != null ) {
-            throw new HelenaRuntimeException("Property with name " + name + " had already" +
-            		" a value, overwriting is illegal");
+    void setValue( final PropertyMetadata property, final byte[] value ) {
+        if ( _values[property.getOrdinal()] == null ) {
+            _valueCount++;
         }
-        
+        _values[property.getOrdinal()] = value;
     }
 
-    byte[] getKey() {
-        return _key;
+    /**
+     * @return the encoded value of the property, null if it is not stored as a column of its own
+     */
+    byte[] getValue( final int ordinal ) {
+        return _values[ordinal];
     }
 
-    Set<Map.Entry<String,byte[]>> getEntries() {
-        return Collections.unmodifiableSet( _values.entrySet() );
-        
+    /**
+     * Adds a column that does not correspond to a property name, e.g. a collection element.
+     */
+    void addColumn( final byte[] name, final byte[] value ) {
+        if ( _columnCount == _columnNames.length ) {
+            _columnNames = Arrays.copyOf( _columnNames, _columnCount * 2 );
+            _columnValues = Arrays.copyOf( _columnValues, _columnCount * 2 );
+        }
+        _columnNames[_columnCount] = name;
+        _columnValues[_columnCount] = value;
+        _columnCount++;
     }
 
-    public void setSuperColumn( final byte[] superColumn ) {
+    int getExtraColumnCount() {
+        return _columnCount;
+    }
+
+    byte[] getExtraColumnName( final int index ) {
+        return _columnNames[index];
+    }
+
+    byte[] getExtraColumnValue( final int index ) {
+        return _columnValues[index];
+    }
+
+    /**
+     * @return the number of columns, property values and extra columns
+     */
+    int getColumnCount() {
+        return _valueCount + _columnCount;
+    }
+
+    String getKey() {
+        return _key;
+    }
+
+    void setSuperColumn( final byte[] superColumn ) {
         _superColumn = superColumn;
     }
 
-    public byte[] getSuperColumn() {
+    byte[] getSuperColumn() {
         return _superColumn;
     }
 
-    public boolean isSuperColumnPresent() {
+    boolean isSuperColumnPresent() {
         return _superColumn != null;
     }
 
-
 }
@@ -0,0 +1,138 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Remembers keys recently read without finding a row, so repeated reads of
+ * them need no round trip. Entries expire after a fixed time, which bounds
+ * how long rows written by other clients stay hidden, and the oldest entry
+ * is dropped when the cache is full. Writes through the DAO remove the key.
+ * 
+ * A read racing with a write of the same key must not cache its miss after
+ * the write removed the key. Reads take a token before asking the backend
+ * and their miss is only cached if no write touched a key of the same
+ * stripe since.
+ */
+final class MissCache {
+
+    private static final int STRIPES = 64;
+
+    private final int _maxEntries;
+    private final long _ttlMillis;
+    private final LinkedHashMap<String, Long> _expiries = new LinkedHashMap<String, Long>();
+    private final AtomicLongArray _writes = new AtomicLongArray( STRIPES );
+    private final AtomicLong _lookups = new AtomicLong();
+    private final AtomicLong _hits = new AtomicLong();
+
+    MissCache( final int maxEntries, final long ttlMillis ) {
+        if ( maxEntries <= 0 || ttlMillis <= 0 ) {
+            throw new IllegalArgumentException( "Need a positive size and time to live, got " + maxEntries + " entries for "
+                    + ttlMillis + "ms" );
+        }
+        _maxEntries = maxEntries;
+        _ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @return true if the key was recently found missing
+     */
+    boolean isMissing( final String key ) {
+        _lookups.incrementAndGet();
+        final long now = System.currentTimeMillis();
+        synchronized ( _expiries ) {
+            final Long expiry = _expiries.get( key );
+            if ( expiry == null ) {
+                return false;
+            }
+            if ( expiry.longValue() <= now ) {
+                _expiries.remove( key );
+                return false;
+            }
+        }
+        _hits.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return the token to pass to {@link #recordMiss(String, long)} after the read
+     */
+    long token( final String key ) {
+        return _writes.get( stripe( key ) );
+    }
+
+    void recordMiss( final String key, final long token ) {
+        final long expiry = System.currentTimeMillis() + _ttlMillis;
+        synchronized ( _expiries ) {
+            if ( _writes.get( stripe( key ) ) != token ) {
+                return;
+            }
+            _expiries.remove( key );
+            _expiries.put( key, Long.valueOf( expiry ) );
+            if ( _expiries.size() > _maxEntries ) {
+                final Iterator<Map.Entry<String, Long>> eldest = _expiries.entrySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    void invalidate( final String key ) {
+        synchronized ( _expiries ) {
+            _writes.incrementAndGet( stripe( key ) );
+            _expiries.remove( key );
+        }
+    }
+
+    void clear() {
+        synchronized ( _expiries ) {
+            for ( int i = 0; i < STRIPES; i++ ) {
+                _writes.incrementAndGet( i );
+            }
+            _expiries.clear();
+        }
+    }
+
+    private static int stripe( final String key ) {
+        final int hash = key.hashCode();
+        return ( hash ^ hash >>> 16 ) & STRIPES - 1;
+    }
+
+    long getLookups() {
+        return _lookups.get();
+    }
+
+    long getHits() {
+        return _hits.get();
+    }
+
+    int getEntries() {
+        synchronized ( _expiries ) {
+            return _expiries.size();
+        }
+    }
+
+}
@@ -0,0 +1,468 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.cassandra.service.Column;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Caches the raw columns of rows in direct memory, outside of the Java
+ * heap, so gigabytes can be cached without burdening the garbage
+ * collector. Only the keys and a small entry per row stay on the heap.
+ * 
+ * The cache is split into stripes by key hash, each with its own lock and
+ * its own share of the memory. A stripe allocates memory in slabs, every
+ * slab is cut into chunks of one size class, and a row occupies the
+ * smallest chunk it fits in. When a size class runs out of chunks and the
+ * stripe may not allocate another slab, the least recently used row of
+ * that size class is evicted. Rows larger than a slab are not cached.
+ * 
+ * The cache only learns about writes made through its DAO, rows changed
+ * by other clients stay stale until they are evicted.
+ */
+final class NearCache {
+
+    private static final int STRIPES = 16;
+    private static final int MIN_SLAB_SIZE = 4 * 1024;
+    private static final int MAX_SLAB_SIZE = 1024 * 1024;
+    private static final int MIN_CHUNK_SIZE = 64;
+    private static final double CHUNK_GROWTH_FACTOR = 1.25;
+
+    private final long _maxBytes;
+    private final int _slabSize;
+    private final int[] _chunkSizes;
+    private final Stripe[] _stripes = new Stripe[STRIPES];
+
+    NearCache( final long maxBytes ) {
+        if ( maxBytes < STRIPES * MIN_SLAB_SIZE ) {
+            throw new IllegalArgumentException( "The near cache needs at least " + STRIPES * MIN_SLAB_SIZE + " bytes, got " + maxBytes );
+        }
+        _maxBytes = maxBytes;
+        final long stripeBytes = maxBytes / STRIPES;
+        // Aim for at least 64 slabs per stripe, so memory can be spread over the size classes
+        _slabSize = (int) Math.max( MIN_SLAB_SIZE, Math.min( MAX_SLAB_SIZE, stripeBytes / 64 ) );
+        _chunkSizes = chunkSizes( _slabSize );
+        for ( int i = 0; i < STRIPES; i++ ) {
+            _stripes[i] = new Stripe( (int) Math.min( Integer.MAX_VALUE, stripeBytes / _slabSize ) );
+        }
+    }
+
+    private static int[] chunkSizes( final int slabSize ) {
+        final List<Integer> sizes = Lists.newArrayList();
+        int size = MIN_CHUNK_SIZE;
+        while ( size < slabSize ) {
+            sizes.add( Integer.valueOf( size ) );
+            size = ( (int) ( size * CHUNK_GROWTH_FACTOR ) + 7 ) & ~7;
+        }
+        sizes.add( Integer.valueOf( slabSize ) );
+        final int[] result = new int[sizes.size()];
+        for ( int i = 0; i < result.length; i++ ) {
+            result[i] = sizes.get( i ).intValue();
+        }
+        return result;
+    }
+
+    /**
+     * @return the smallest size class holding the given number of bytes, -1 if there is none
+     */
+    private int sizeClassOf( final int bytes ) {
+        int low = 0;
+        int high = _chunkSizes.length - 1;
+        if ( bytes > _chunkSizes[high] ) {
+            return -1;
+        }
+        while ( low < high ) {
+            final int middle = ( low + high ) >>> 1;
+            if ( _chunkSizes[middle] < bytes ) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private Stripe stripeOf( final String key ) {
+        final int hash = key.hashCode();
+        return _stripes[( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 )];
+    }
+
+    /**
+     * @return the cached columns of the row, null if the row is not cached
+     */
+    List<Column> get( final String key ) {
+        return stripeOf( key ).get( key );
+    }
+
+    /**
+     * Returns a token to pass to {@link #put(String, List, long)} for columns
+     * read after this call. Writes invalidating rows in between make the put
+     * a no-op, so a slow read can not cache data older than a write.
+     */
+    long generation( final String key ) {
+        return stripeOf( key ).generation();
+    }
+
+    void put( final String key, final List<Column> columns, final long generation ) {
+        stripeOf( key ).put( key, columns, generation );
+    }
+
+    void invalidate( final String key ) {
+        stripeOf( key ).invalidate( key );
+    }
+
+    void clear() {
+        for ( final Stripe stripe : _stripes ) {
+            stripe.clear();
+        }
+    }
+
+    long getMaxBytes() {
+        return _maxBytes;
+    }
+
+    long getHits() {
+        long hits = 0;
+        for ( final Stripe stripe : _stripes ) {
+            hits += stripe.counter( Counter.HITS );
+        }
+        return hits;
+    }
+
+    long getMisses() {
+        long misses = 0;
+        for ( final Stripe stripe : _stripes ) {
+            misses += stripe.counter( Counter.MISSES );
+        }
+        return misses;
+    }
+
+    long getEvictions() {
+        long evictions = 0;
+        for ( final Stripe stripe : _stripes ) {
+            evictions += stripe.counter( Counter.EVICTIONS );
+        }
+        return evictions;
+    }
+
+    long getEntries() {
+        long entries = 0;
+        for ( final Stripe stripe : _stripes ) {
+            entries += stripe.counter( Counter.ENTRIES );
+        }
+        return entries;
+    }
+
+    /**
+     * @return direct memory taken by slabs, used or not
+     */
+    long getAllocatedBytes() {
+        long slabs = 0;
+        for ( final Stripe stripe : _stripes ) {
+            slabs += stripe.counter( Counter.SLABS );
+        }
+        return slabs * _slabSize;
+    }
+
+    private enum Counter {
+        HITS, MISSES, EVICTIONS, ENTRIES, SLABS
+    }
+
+    /**
+     * Row layout in a chunk: column count, then per column the name length,
+     * name, value length, value and timestamp.
+     */
+    private static int encodedSize( final List<Column> columns ) {
+        int size = 4;
+        for ( int i = 0; i < columns.size(); i++ ) {
+            final Column column = columns.get( i );
+            size += 4 + column.name.length + 4 + column.value.length + 8;
+        }
+        return size;
+    }
+
+    private final class Stripe {
+
+        private final ReentrantLock _lock = new ReentrantLock();
+        private final Map<String, Entry> _entries = Maps.newHashMap();
+        private final List<ByteBuffer> _slabs = Lists.newArrayList();
+        private final SizeClass[] _classes = new SizeClass[_chunkSizes.length];
+        private final int _maxSlabs;
+        private long _generation;
+        private long _hits;
+        private long _misses;
+        private long _evictions;
+
+        Stripe( final int maxSlabs ) {
+            _maxSlabs = maxSlabs;
+            for ( int i = 0; i < _classes.length; i++ ) {
+                _classes[i] = new SizeClass( _chunkSizes[i] );
+            }
+        }
+
+        List<Column> get( final String key ) {
+            _lock.lock();
+            try {
+                final Entry entry = _entries.get( key );
+                if ( entry == null ) {
+                    _misses++;
+                    return null;
+                }
+                _hits++;
+                final SizeClass sizeClass = _classes[entry._sizeClass];
+                sizeClass.unlink( entry );
+                sizeClass.linkFirst( entry );
+
+                final ByteBuffer slab = _slabs.get( entry._slab );
+                slab.position( entry._offset );
+                final int count = slab.getInt();
+                final List<Column> columns = Lists.newArrayListWithCapacity( count );
+                for ( int i = 0; i < count; i++ ) {
+                    final byte[] name = new byte[slab.getInt()];
+                    slab.get( name );
+                    final byte[] value = new byte[slab.getInt()];
+                    slab.get( value );
+                    columns.add( new Column( name, value, slab.getLong() ) );
+                }
+                return columns;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        long generation() {
+            _lock.lock();
+            try {
+                return _generation;
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        void put( final String key, final List<Column> columns, final long generation ) {
+            final int size = encodedSize( columns );
+            final int sizeClassIndex = sizeClassOf( size );
+            _lock.lock();
+            try {
+                if ( generation != _generation ) {
+                    return;
+                }
+                remove( key );
+                if ( sizeClassIndex < 0 ) {
+                    return;
+                }
+                final SizeClass sizeClass = _classes[sizeClassIndex];
+                if ( !allocate( sizeClass ) ) {
+                    return;
+                }
+                final Entry entry = new Entry( key, sizeClassIndex, sizeClass._allocatedSlab, sizeClass._allocatedOffset );
+                final ByteBuffer slab = _slabs.get( entry._slab );
+                slab.position( entry._offset );
+                slab.putInt( columns.size() );
+                for ( int i = 0; i < columns.size(); i++ ) {
+                    final Column column = columns.get( i );
+                    slab.putInt( column.name.length );
+                    slab.put( column.name );
+                    slab.putInt( column.value.length );
+                    slab.put( column.value );
+                    slab.putLong( column.timestamp );
+                }
+                _entries.put( key, entry );
+                sizeClass.linkFirst( entry );
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        /**
+         * Finds a chunk for the size class: a free one, a new one in the
+         * current slab, one in a new slab, or the chunk of the least recently
+         * used row of the class. Leaves its location in the size class.
+         * 
+         * @return false if the memory is taken by other size classes
+         */
+        private boolean allocate( final SizeClass sizeClass ) {
+            if ( sizeClass._freeCount == 0 ) {
+                if ( sizeClass._currentSlab >= 0 && sizeClass._nextOffset + sizeClass._chunkSize <= _slabSize ) {
+                    sizeClass._allocatedSlab = sizeClass._currentSlab;
+                    sizeClass._allocatedOffset = sizeClass._nextOffset;
+                    sizeClass._nextOffset += sizeClass._chunkSize;
+                    return true;
+                }
+                if ( _slabs.size() < _maxSlabs ) {
+                    _slabs.add( ByteBuffer.allocateDirect( _slabSize ) );
+                    sizeClass._currentSlab = _slabs.size() - 1;
+                    sizeClass._allocatedSlab = sizeClass._currentSlab;
+                    sizeClass._allocatedOffset = 0;
+                    sizeClass._nextOffset = sizeClass._chunkSize;
+                    return true;
+                }
+                if ( sizeClass._last == null ) {
+                    return false;
+                }
+                remove( sizeClass._last._key );
+                _evictions++;
+            }
+            sizeClass._freeCount--;
+            sizeClass._allocatedSlab = sizeClass._freeSlabs[sizeClass._freeCount];
+            sizeClass._allocatedOffset = sizeClass._freeOffsets[sizeClass._freeCount];
+            return true;
+        }
+
+        void invalidate( final String key ) {
+            _lock.lock();
+            try {
+                _generation++;
+                remove( key );
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        private void remove( final String key ) {
+            final Entry entry = _entries.remove( key );
+            if ( entry != null ) {
+                final SizeClass sizeClass = _classes[entry._sizeClass];
+                sizeClass.unlink( entry );
+                sizeClass.free( entry._slab, entry._offset );
+            }
+        }
+
+        void clear() {
+            _lock.lock();
+            try {
+                _generation++;
+                _entries.clear();
+                _slabs.clear();
+                for ( int i = 0; i < _classes.length; i++ ) {
+                    _classes[i] = new SizeClass( _chunkSizes[i] );
+                }
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+        long counter( final Counter counter ) {
+            _lock.lock();
+            try {
+                switch ( counter ) {
+                case HITS: return _hits;
+                case MISSES: return _misses;
+                case EVICTIONS: return _evictions;
+                case ENTRIES: return _entries.size();
+                case SLABS: return _slabs.size();
+                default: throw new IllegalArgumentException( counter.name() );
+                }
+            } finally {
+                _lock.unlock();
+            }
+        }
+
+    }
+
+    /**
+     * Chunks of one size: the slab currently being cut, the free chunks and
+     * the rows in least recently used order.
+     */
+    private static final class SizeClass {
+        private final int _chunkSize;
+        private int _currentSlab = -1;
+        private int _nextOffset;
+        private int[] _freeSlabs = new int[16];
+        private int[] _freeOffsets = new int[16];
+        private int _freeCount;
+        private int _allocatedSlab;
+        private int _allocatedOffset;
+        private Entry _first;
+        private Entry _last;
+
+        SizeClass( final int chunkSize ) {
+            _chunkSize = chunkSize;
+        }
+
+        void free( final int slab, final int offset ) {
+            if ( _freeCount == _freeSlabs.length ) {
+                _freeSlabs = copyOf( _freeSlabs, _freeCount * 2 );
+                _freeOffsets = copyOf( _freeOffsets, _freeCount * 2 );
+            }
+            _freeSlabs[_freeCount] = slab;
+            _freeOffsets[_freeCount] = offset;
+            _freeCount++;
+        }
+
+        private static int[] copyOf( final int[] array, final int length ) {
+            final int[] copy = new int[length];
+            System.arraycopy( array, 0, copy, 0, array.length );
+            return copy;
+        }
+
+        void linkFirst( final Entry entry ) {
+            entry._previous = null;
+            entry._next = _first;
+            if ( _first != null ) {
+                _first._previous = entry;
+            }
+            _first = entry;
+            if ( _last == null ) {
+                _last = entry;
+            }
+        }
+
+        void unlink( final Entry entry ) {
+            if ( entry._previous != null ) {
+                entry._previous._next = entry._next;
+            } else {
+                _first = entry._next;
+            }
+            if ( entry._next != null ) {
+                entry._next._previous = entry._previous;
+            } else {
+                _last = entry._previous;
+            }
+            entry._previous = null;
+            entry._next = null;
+        }
+    }
+
+    private static final class Entry {
+        private final String _key;
+        private final int _sizeClass;
+        private final int _slab;
+        private final int _offset;
+        private Entry _previous;
+        private Entry _next;
+
+        Entry( final String key, final int sizeClass, final int slab, final int offset ) {
+            _key = key;
+            _sizeClass = sizeClass;
+            _slab = slab;
+            _offset = offset;
+        }
+    }
+
+}
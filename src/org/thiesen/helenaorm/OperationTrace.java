@@ -0,0 +1,134 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import me.prettyprint.cassandra.dao.Command;
+import me.prettyprint.cassandra.service.Keyspace;
+
+/**
+ * Time spent in the phases of one traced DAO operation. A trace belongs to
+ * the thread running the operation and is reachable through
+ * {@link #current()} while the operation runs, so the marshalling and
+ * hydration code can add to it without being handed the trace.
+ */
+final class OperationTrace {
+
+    private static final ThreadLocal<OperationTrace> CURRENT = new ThreadLocal<OperationTrace>();
+
+    private final String _operation;
+    private final boolean _sampled;
+    private final long _start = System.nanoTime();
+    private long _marshalNanos;
+    private long _backendNanos;
+    private long _commandNanos;
+    private long _hydrateNanos;
+    private int _attempts;
+    private int _keys;
+    private int _columns;
+    private long _bytes;
+
+    OperationTrace( final String operation, final boolean sampled ) {
+        _operation = operation;
+        _sampled = sampled;
+    }
+
+    /**
+     * @return the trace of the operation running on this thread, null if it is not traced
+     */
+    static OperationTrace current() {
+        return CURRENT.get();
+    }
+
+    void attach() {
+        CURRENT.set( this );
+    }
+
+    void detach() {
+        CURRENT.remove();
+    }
+
+    void addMarshal( final long nanos, final int columns, final long bytes ) {
+        _marshalNanos += nanos;
+        addRow( columns, bytes );
+    }
+
+    void addHydrate( final long nanos, final int columns, final long bytes ) {
+        _hydrateNanos += nanos;
+        addRow( columns, bytes );
+    }
+
+    private void addRow( final int columns, final long bytes ) {
+        _keys++;
+        _columns += columns;
+        _bytes += bytes;
+    }
+
+    /**
+     * Wraps a command to measure the time spent inside it, which is the
+     * backend call time without borrowing and releasing the connection.
+     */
+    <V> Command<V> timed( final Command<V> command ) {
+        return new Command<V>() {
+            @Override
+            public V execute( final Keyspace ks ) throws Exception {
+                final long start = System.nanoTime();
+                try {
+                    return command.execute( ks );
+                } finally {
+                    _commandNanos += System.nanoTime() - start;
+                }
+            }
+        };
+    }
+
+    /**
+     * Records one attempt of the backend call, including connection borrow and release.
+     */
+    void addAttempt( final long nanos ) {
+        _attempts++;
+        _backendNanos += nanos;
+    }
+
+    boolean isSampled() {
+        return _sampled;
+    }
+
+    long getElapsedNanos() {
+        return System.nanoTime() - _start;
+    }
+
+    /**
+     * Formats the trace as <code>key=value</code> pairs, times in milliseconds.
+     * Hydration done inside the backend call is not counted as network time.
+     */
+    String format( final String columnFamily, final long elapsedNanos ) {
+        final long network = Math.max( 0, _commandNanos - _hydrateNanos );
+        return "operation=" + _operation + " columnFamily=" + columnFamily + " keys=" + _keys + " columns=" + _columns
+            + " bytes=" + _bytes + " attempts=" + _attempts + " totalMs=" + millis( elapsedNanos )
+            + " marshalMs=" + millis( _marshalNanos ) + " borrowMs=" + millis( _backendNanos - _commandNanos )
+            + " networkMs=" + millis( network ) + " hydrateMs=" + millis( _hydrateNanos );
+    }
+
+    private static String millis( final long nanos ) {
+        return String.valueOf( nanos / 1000 / 1000.0 );
+    }
+
+}
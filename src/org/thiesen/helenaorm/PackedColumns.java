@@ -0,0 +1,71 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.apache.cassandra.service.Column;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Packs the columns of an entity into a single column value as
+ * <code>count:int (nameLength:int name valueLength:int value)*</code>, for
+ * mappings that store a whole entity per column.
+ */
+final class PackedColumns {
+
+    private PackedColumns() {
+        // static helpers only
+    }
+
+    static byte[] pack( final List<Column> columns ) {
+        int size = 4;
+        for ( final Column column : columns ) {
+            size += 8 + column.name.length + column.value.length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate( size );
+        buffer.putInt( columns.size() );
+        for ( final Column column : columns ) {
+            buffer.putInt( column.name.length );
+            buffer.put( column.name );
+            buffer.putInt( column.value.length );
+            buffer.put( column.value );
+        }
+        return buffer.array();
+    }
+
+    static List<Column> unpack( final byte[] packed, final long timestamp ) {
+        final ByteBuffer buffer = ByteBuffer.wrap( packed );
+        final int count = buffer.getInt();
+        final List<Column> columns = Lists.newArrayListWithCapacity( count );
+        for ( int i = 0; i < count; i++ ) {
+            final byte[] name = new byte[buffer.getInt()];
+            buffer.get( name );
+            final byte[] value = new byte[buffer.getInt()];
+            buffer.get( value );
+            columns.add( new Column( name, value, timestamp ) );
+        }
+        return columns;
+    }
+
+}
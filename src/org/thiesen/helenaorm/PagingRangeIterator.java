@@ -0,0 +1,94 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.SortedMap;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Maps;
+
+/**
+ * Walks a key range with repeated range slices of bounded size. Each page
+ * starts at the last key of the previous one, which is skipped, so a range
+ * of any size is visited with at most <code>pageSize + 1</code> rows in
+ * memory. Backend calls are only made when the previous page is consumed.
+ */
+class PagingRangeIterator<R> extends AbstractIterator<Map.Entry<String, R>> {
+
+    interface PageFetcher<R> {
+        /**
+         * @return at most <code>count</code> rows with keys between start and end, both inclusive
+         */
+        Map<String, R> fetch( String start, String end, int count );
+    }
+
+    private final PageFetcher<R> _fetcher;
+    private final String _end;
+    private final int _pageSize;
+
+    private String _nextStart;
+    private boolean _firstPage = true;
+    private boolean _exhausted;
+    private Iterator<Map.Entry<String, R>> _page;
+
+    PagingRangeIterator( final PageFetcher<R> fetcher, final String start, final String end, final int pageSize ) {
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive, got " + pageSize );
+        }
+        _fetcher = fetcher;
+        _nextStart = start == null ? "" : start;
+        _end = end == null ? "" : end;
+        _pageSize = pageSize;
+    }
+
+    @Override
+    protected Map.Entry<String, R> computeNext() {
+        while ( _page == null || !_page.hasNext() ) {
+            if ( _exhausted ) {
+                return endOfData();
+            }
+            fetchPage();
+        }
+        return _page.next();
+    }
+
+    private void fetchPage() {
+        // The backend returns an unordered map, order by key as the order preserving partitioner does
+        final int requested = _firstPage ? _pageSize : _pageSize + 1;
+        final SortedMap<String, R> rows = Maps.newTreeMap();
+        rows.putAll( _fetcher.fetch( _nextStart, _end, requested ) );
+
+        _exhausted = rows.size() < requested;
+        if ( !rows.isEmpty() ) {
+            final String lastKey = rows.lastKey();
+            if ( !_firstPage ) {
+                rows.remove( _nextStart );
+            }
+            _exhausted |= lastKey.equals( _end );
+            _nextStart = lastKey;
+        }
+        _firstPage = false;
+        _page = rows.entrySet().iterator();
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Encoded sizes of the rows and properties of one column family, as
+ * written by inserts and read back into entities. Sizes count column names
+ * and values, element columns are accounted to their property.
+ */
+public final class PayloadStatistics {
+
+    static final int LARGEST_ROWS = 10;
+
+    private static final Comparator<LargeRow> BY_SIZE = new Comparator<LargeRow>() {
+        @Override
+        public int compare( final LargeRow o1, final LargeRow o2 ) {
+            return o1._bytes < o2._bytes ? -1 : ( o1._bytes == o2._bytes ? 0 : 1 );
+        }
+    };
+
+    private final SizeHistogram _writtenRows = new SizeHistogram();
+    private final SizeHistogram _readRows = new SizeHistogram();
+    private final SizeHistogram[] _writtenProperties;
+    private final SizeHistogram[] _readProperties;
+    private final ImmutableMap<String, SizeHistogram> _writtenByName;
+    private final ImmutableMap<String, SizeHistogram> _readByName;
+
+    private final Map<String, LargeRow> _largestByKey = Maps.newHashMap();
+    private final PriorityQueue<LargeRow> _largest = new PriorityQueue<LargeRow>( LARGEST_ROWS, BY_SIZE );
+    private volatile long _largestThreshold;
+
+    PayloadStatistics( final List<PropertyMetadata> properties ) {
+        _writtenProperties = new SizeHistogram[properties.size()];
+        _readProperties = new SizeHistogram[properties.size()];
+        final ImmutableMap.Builder<String, SizeHistogram> written = ImmutableMap.builder();
+        final ImmutableMap.Builder<String, SizeHistogram> read = ImmutableMap.builder();
+        for ( final PropertyMetadata property : properties ) {
+            _writtenProperties[property.getOrdinal()] = new SizeHistogram();
+            _readProperties[property.getOrdinal()] = new SizeHistogram();
+            written.put( property.getName(), _writtenProperties[property.getOrdinal()] );
+            read.put( property.getName(), _readProperties[property.getOrdinal()] );
+        }
+        _writtenByName = written.build();
+        _readByName = read.build();
+    }
+
+    void recordWrittenProperty( final PropertyMetadata property, final long bytes ) {
+        _writtenProperties[property.getOrdinal()].record( bytes );
+    }
+
+    void recordReadProperty( final PropertyMetadata property, final long bytes ) {
+        _readProperties[property.getOrdinal()].record( bytes );
+    }
+
+    void recordWrittenRow( final long bytes ) {
+        _writtenRows.record( bytes );
+    }
+
+    void recordReadRow( final long bytes ) {
+        _readRows.record( bytes );
+    }
+
+    /**
+     * Cheap check whether a row of the given size would enter the list of
+     * largest rows, so callers only build the key if needed.
+     */
+    boolean isLargest( final long bytes ) {
+        return bytes > _largestThreshold;
+    }
+
+    synchronized void offerLargest( final String key, final long bytes ) {
+        final LargeRow known = _largestByKey.get( key );
+        if ( known != null ) {
+            if ( known._bytes >= bytes ) {
+                return;
+            }
+            _largest.remove( known );
+        } else if ( _largest.size() >= LARGEST_ROWS ) {
+            if ( _largest.peek()._bytes >= bytes ) {
+                return;
+            }
+            _largestByKey.remove( _largest.poll()._key );
+        }
+        final LargeRow row = new LargeRow( key, bytes );
+        _largest.add( row );
+        _largestByKey.put( key, row );
+        _largestThreshold = _largest.size() < LARGEST_ROWS ? 0 : _largest.peek()._bytes;
+    }
+
+    /**
+     * @return row sizes recorded by inserts
+     */
+    public SizeHistogram getWrittenRows() {
+        return _writtenRows;
+    }
+
+    /**
+     * @return row sizes recorded when reading entities
+     */
+    public SizeHistogram getReadRows() {
+        return _readRows;
+    }
+
+    /**
+     * @return written sizes by property name, properties of embedded beans by their path
+     */
+    public Map<String, SizeHistogram> getWrittenProperties() {
+        return _writtenByName;
+    }
+
+    /**
+     * @return read sizes by property name, properties of embedded beans by their path
+     */
+    public Map<String, SizeHistogram> getReadProperties() {
+        return _readByName;
+    }
+
+    /**
+     * @return the largest rows written or read, largest first, each row at most once
+     */
+    public synchronized List<LargeRow> getLargestRows() {
+        final List<LargeRow> rows = Lists.newArrayList( _largest );
+        Collections.sort( rows, Collections.reverseOrder( BY_SIZE ) );
+        return rows;
+    }
+
+    synchronized void reset() {
+        _writtenRows.reset();
+        _readRows.reset();
+        for ( int i = 0; i < _writtenProperties.length; i++ ) {
+            _writtenProperties[i].reset();
+            _readProperties[i].reset();
+        }
+        _largest.clear();
+        _largestByKey.clear();
+        _largestThreshold = 0;
+    }
+
+    public static final class LargeRow {
+        private final String _key;
+        private final long _bytes;
+
+        LargeRow( final String key, final long bytes ) {
+            _key = key;
+            _bytes = bytes;
+        }
+
+        public String getKey() {
+            return _key;
+        }
+
+        public long getBytes() {
+            return _bytes;
+        }
+
+        @Override
+        public String toString() {
+            return _key + "=" + _bytes;
+        }
+    }
+
+}
@@ -0,0 +1,174 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.lang.annotation.Annotation;
+
+import org.thiesen.helenaorm.annotations.Lazy;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * A mapped property with everything needed per operation precomputed: the
+ * encoded column name and the value codec. Properties of embedded beans are
+ * accessed through the property holding the bean, which is created on
+ * demand when a value is set.
+ */
+final class PropertyMetadata {
+
+    private final int _ordinal;
+    private final String _name;
+    private final byte[] _columnName;
+    private final Class<?> _type;
+    private final PropertyCodec _codec;
+    private final ImmutableMap<Class<? extends Annotation>, Annotation> _annotations;
+    private final ElementCollection _elementCollection;
+    private final EntityMapper<Object> _owner;
+    private final int _ownerOrdinal;
+    private final PropertyMetadata _parent;
+    private final EntityMapper<Object> _embedded;
+    private final boolean _lazy;
+
+    /**
+     * @param ordinal position among the mapped properties of the entity, -1 for embedded beans
+     * @param owner mapper of the bean declaring the property
+     * @param ownerOrdinal ordinal of the property in the owner mapper
+     * @param parent the embedded bean property declaring this property, null for top level properties
+     * @param embedded mapper of the nested bean if this property holds an embedded bean, null otherwise
+     */
+    PropertyMetadata( final int ordinal, final String name, final byte[] columnName, final Class<?> type, final PropertyCodec codec,
+            final ImmutableMap<Class<? extends Annotation>, Annotation> annotations, final ElementCollection elementCollection,
+            final EntityMapper<Object> owner, final int ownerOrdinal, final PropertyMetadata parent, final EntityMapper<Object> embedded ) {
+        _ordinal = ordinal;
+        _name = name;
+        _columnName = columnName;
+        _type = type;
+        _codec = codec;
+        _annotations = annotations;
+        _elementCollection = elementCollection;
+        _owner = owner;
+        _ownerOrdinal = ownerOrdinal;
+        _parent = parent;
+        _embedded = embedded;
+        _lazy = annotations.containsKey( Lazy.class );
+    }
+
+    /**
+     * @return the value of this property, null if an enclosing embedded bean is null
+     */
+    Object get( final Object entity ) {
+        final Object owner = _parent == null ? entity : _parent.get( entity );
+        return owner == null ? null : _owner.get( owner, _ownerOrdinal );
+    }
+
+    /**
+     * Sets the value, creating enclosing embedded beans as needed. A null
+     * value does not create them.
+     */
+    void set( final Object entity, final Object value ) {
+        if ( _parent == null ) {
+            _owner.set( entity, _ownerOrdinal, value );
+        } else if ( value != null ) {
+            _owner.set( _parent.getOrCreate( entity ), _ownerOrdinal, value );
+        } else {
+            final Object owner = _parent.get( entity );
+            if ( owner != null ) {
+                _owner.set( owner, _ownerOrdinal, null );
+            }
+        }
+    }
+
+    private Object getOrCreate( final Object entity ) {
+        final Object owner = _parent == null ? entity : _parent.getOrCreate( entity );
+        Object bean = _owner.get( owner, _ownerOrdinal );
+        if ( bean == null ) {
+            bean = _embedded.newInstance();
+            _owner.set( owner, _ownerOrdinal, bean );
+        }
+        return bean;
+    }
+
+    boolean isTopLevel() {
+        return _parent == null;
+    }
+
+    int getOwnerOrdinal() {
+        return _ownerOrdinal;
+    }
+
+    boolean isEmbedded() {
+        return _embedded != null;
+    }
+
+    /**
+     * @return true if the property is {@link Lazy} and left out of regular reads
+     */
+    boolean isLazy() {
+        return _lazy;
+    }
+
+    int getOrdinal() {
+        return _ordinal;
+    }
+
+    String getName() {
+        return _name;
+    }
+
+    /**
+     * @return the encoded column name, shared and therefore never to be modified
+     */
+    byte[] getColumnName() {
+        return _columnName;
+    }
+
+    Class<?> getType() {
+        return _type;
+    }
+
+    PropertyCodec getCodec() {
+        return _codec;
+    }
+
+    /**
+     * @return how the property is spread over element columns, or null if it is stored in a single column
+     */
+    ElementCollection getElementCollection() {
+        return _elementCollection;
+    }
+
+    /**
+     * @return the annotation if present on the getter or setter, null otherwise
+     */
+    <A extends Annotation> A getAnnotation( final Class<A> annotation ) {
+        return annotation.cast( _annotations.get( annotation ) );
+    }
+
+    boolean isAnnotationPresent( final Class<? extends Annotation> annotation ) {
+        return _annotations.containsKey( annotation );
+    }
+
+    @Override
+    public String toString() {
+        return "PropertyMetadata [_ordinal=" + _ordinal + ", _name=" + _name + ", _type=" + _type + "]";
+    }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.beans.PropertyDescriptor;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import org.apache.commons.beanutils.PropertyUtils;
+import org.thiesen.helenaorm.annotations.KeyProperty;
+import org.thiesen.helenaorm.annotations.SuperColumnProperty;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Fallback {@link EntityMapper} for beans without a generated mapper. The
+ * bean is introspected once, accessors are invoked directly afterwards.
+ */
+class ReflectionEntityMapper<T> implements EntityMapper<T> {
+
+    private final Class<T> _clz;
+    private final String[] _names;
+    private final Class<?>[] _types;
+    private final Method[] _getters;
+    private final Method[] _setters;
+    private int _keyProperty = -1;
+    private int _superColumnProperty = -1;
+
+    ReflectionEntityMapper( final Class<T> clz ) {
+        _clz = clz;
+        final List<PropertyDescriptor> mapped = Lists.newArrayList();
+        for ( final PropertyDescriptor descriptor : PropertyUtils.getPropertyDescriptors( clz ) ) {
+            if ( descriptor.getReadMethod() != null && descriptor.getWriteMethod() != null ) {
+                mapped.add( descriptor );
+            }
+        }
+
+        _names = new String[mapped.size()];
+        _types = new Class<?>[mapped.size()];
+        _getters = new Method[mapped.size()];
+        _setters = new Method[mapped.size()];
+        for ( int i = 0; i < mapped.size(); i++ ) {
+            final PropertyDescriptor descriptor = mapped.get( i );
+            _names[i] = descriptor.getName();
+            _types[i] = descriptor.getReadMethod().getReturnType();
+            _getters[i] = descriptor.getReadMethod();
+            _setters[i] = descriptor.getWriteMethod();
+            if ( _keyProperty < 0 && safeIsAnnotationPresent( descriptor, KeyProperty.class ) ) {
+                _keyProperty = i;
+            }
+            if ( safeIsAnnotationPresent( descriptor, SuperColumnProperty.class ) ) {
+                _superColumnProperty = i;
+            }
+        }
+    }
+
+    private boolean safeIsAnnotationPresent( final PropertyDescriptor d, final Class<? extends Annotation> annotation ) {
+        return nullSafeAnnotationPresent( annotation, d.getReadMethod() ) ||
+        nullSafeAnnotationPresent( annotation, d.getWriteMethod() );
+    }
+
+    private boolean nullSafeAnnotationPresent( final Class<? extends Annotation> annotation, final Method method ) {
+        if ( method != null ) {
+            if ( method.isAnnotationPresent( annotation ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Class<T> getEntityClass() {
+        return _clz;
+    }
+
+    @Override
+    public T newInstance() {
+        try {
+            return _clz.getConstructor().newInstance();
+        } catch ( final InstantiationException e ) {
+            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName(), e );
+        } catch ( final IllegalAccessException e ) {
+            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName(), e );
+        } catch ( final InvocationTargetException e ) {
+            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName(), e );
+        } catch ( final NoSuchMethodException e ) {
+            throw new HelenaRuntimeException("Could not instanciate " + _clz.getName() + ", no public default constructor", e );
+        }
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return _names.clone();
+    }
+
+    @Override
+    public Class<?>[] getPropertyTypes() {
+        return _types.clone();
+    }
+
+    @Override
+    public int getKeyProperty() {
+        return _keyProperty;
+    }
+
+    @Override
+    public int getSuperColumnProperty() {
+        return _superColumnProperty;
+    }
+
+    @Override
+    public Object get( final T entity, final int property ) {
+        try {
+            return _getters[property].invoke( entity );
+        } catch ( final IllegalAccessException e ) {
+            throw new HelenaRuntimeException( e );
+        } catch ( final InvocationTargetException e ) {
+            throw new HelenaRuntimeException( e );
+        }
+    }
+
+    @Override
+    public void set( final T entity, final int property, final Object value ) {
+        if ( value == null && _types[property].isPrimitive() ) {
+            return;
+        }
+        try {
+            _setters[property].invoke( entity, value );
+        } catch ( final IllegalAccessException e ) {
+            throw new HelenaRuntimeException( e );
+        } catch ( final InvocationTargetException e ) {
+            throw new HelenaRuntimeException( e );
+        }
+    }
+
+}
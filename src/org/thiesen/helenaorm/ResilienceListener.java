@@ -0,0 +1,78 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Receives retry, deadline and circuit breaker events of the execution path.
+ * Callbacks run on the calling thread and must not block.
+ */
+public interface ResilienceListener {
+
+    void onRetry( String operation, String host, int attempt, long backoffMillis, Exception cause );
+
+    void onDeadlineExceeded( String operation, String host, long elapsedMillis );
+
+    void onCircuitOpened( String host, int consecutiveFailures );
+
+    void onCircuitHalfOpen( String host );
+
+    void onCircuitClosed( String host );
+
+    void onCircuitRejected( String operation, String host );
+
+    /**
+     * Convenience base class, override only the events you are interested in.
+     */
+    public static class Adapter implements ResilienceListener {
+
+        @Override
+        public void onRetry( final String operation, final String host, final int attempt, final long backoffMillis, final Exception cause ) {
+            // ignore
+        }
+
+        @Override
+        public void onDeadlineExceeded( final String operation, final String host, final long elapsedMillis ) {
+            // ignore
+        }
+
+        @Override
+        public void onCircuitOpened( final String host, final int consecutiveFailures ) {
+            // ignore
+        }
+
+        @Override
+        public void onCircuitHalfOpen( final String host ) {
+            // ignore
+        }
+
+        @Override
+        public void onCircuitClosed( final String host ) {
+            // ignore
+        }
+
+        @Override
+        public void onCircuitRejected( final String operation, final String host ) {
+            // ignore
+        }
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+/**
+ * Immutable description of how {@link HelenaDAO} operations are guarded
+ * against failing nodes: retries with bounded exponential backoff and jitter
+ * for idempotent reads, a per-host circuit breaker and an overall deadline
+ * per operation.
+ * 
+ * Start from {@link #defaults()} or {@link #none()} and refine with the
+ * <code>with...</code> methods, each of which returns a new policy.
+ */
+public final class ResiliencePolicy {
+
+    private static final ResilienceListener NO_LISTENER = new ResilienceListener.Adapter();
+
+    private final int _maxReadAttempts;
+    private final long _initialBackoffMillis;
+    private final long _maxBackoffMillis;
+    private final long _operationTimeoutMillis;
+    private final int _breakerFailureThreshold;
+    private final long _breakerOpenMillis;
+    private final ResilienceListener _listener;
+
+    private ResiliencePolicy( final int maxReadAttempts, final long initialBackoffMillis, final long maxBackoffMillis,
+            final long operationTimeoutMillis, final int breakerFailureThreshold, final long breakerOpenMillis,
+            final ResilienceListener listener ) {
+        if ( maxReadAttempts < 1 ) {
+            throw new IllegalArgumentException( "At least one attempt is required, got " + maxReadAttempts );
+        }
+        if ( initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis ) {
+            throw new IllegalArgumentException( "Invalid backoff bounds " + initialBackoffMillis + "/" + maxBackoffMillis );
+        }
+        if ( listener == null ) {
+            throw new IllegalArgumentException( "Listener must not be null" );
+        }
+        _maxReadAttempts = maxReadAttempts;
+        _initialBackoffMillis = initialBackoffMillis;
+        _maxBackoffMillis = maxBackoffMillis;
+        _operationTimeoutMillis = operationTimeoutMillis;
+        _breakerFailureThreshold = breakerFailureThreshold;
+        _breakerOpenMillis = breakerOpenMillis;
+        _listener = listener;
+    }
+
+    /**
+     * Three attempts for reads with 50ms to 1s backoff, a breaker that opens
+     * after five consecutive failures for five seconds and a ten second
+     * deadline per operation.
+     */
+    public static ResiliencePolicy defaults() {
+        return new ResiliencePolicy( 3, 50, 1000, 10000, 5, 5000, NO_LISTENER );
+    }
+
+    /**
+     * Behaves like plain execution: a single attempt, no breaker and no deadline.
+     */
+    public static ResiliencePolicy none() {
+        return new ResiliencePolicy( 1, 0, 0, 0, 0, 0, NO_LISTENER );
+    }
+
+    public ResiliencePolicy withMaxReadAttempts( final int maxReadAttempts ) {
+        return new ResiliencePolicy( maxReadAttempts, _initialBackoffMillis, _maxBackoffMillis,
+                _operationTimeoutMillis, _breakerFailureThreshold, _breakerOpenMillis, _listener );
+    }
+
+    public ResiliencePolicy withBackoff( final long initialBackoffMillis, final long maxBackoffMillis ) {
+        return new ResiliencePolicy( _maxReadAttempts, initialBackoffMillis, maxBackoffMillis,
+                _operationTimeoutMillis, _breakerFailureThreshold, _breakerOpenMillis, _listener );
+    }
+
+    /**
+     * @param operationTimeoutMillis overall budget for all attempts of one operation, 0 disables the deadline.
+     *            An attempt still running when the budget is spent is abandoned, its
+     *            connection stays busy until the socket timeout of the client expires.
+     */
+    public ResiliencePolicy withOperationTimeout( final long operationTimeoutMillis ) {
+        return new ResiliencePolicy( _maxReadAttempts, _initialBackoffMillis, _maxBackoffMillis,
+                operationTimeoutMillis, _breakerFailureThreshold, _breakerOpenMillis, _listener );
+    }
+
+    /**
+     * @param failureThreshold consecutive failures after which a host is considered down, 0 disables the breaker
+     * @param openMillis how long calls to a down host fail fast before a single probe is let through
+     */
+    public ResiliencePolicy withCircuitBreaker( final int failureThreshold, final long openMillis ) {
+        return new ResiliencePolicy( _maxReadAttempts, _initialBackoffMillis, _maxBackoffMillis,
+                _operationTimeoutMillis, failureThreshold, openMillis, _listener );
+    }
+
+    public ResiliencePolicy withListener( final ResilienceListener listener ) {
+        return new ResiliencePolicy( _maxReadAttempts, _initialBackoffMillis, _maxBackoffMillis,
+                _operationTimeoutMillis, _breakerFailureThreshold, _breakerOpenMillis, listener );
+    }
+
+    int getMaxReadAttempts() {
+        return _maxReadAttempts;
+    }
+
+    long getInitialBackoffMillis() {
+        return _initialBackoffMillis;
+    }
+
+    long getMaxBackoffMillis() {
+        return _maxBackoffMillis;
+    }
+
+    long getOperationTimeoutMillis() {
+        return _operationTimeoutMillis;
+    }
+
+    boolean isCircuitBreakerEnabled() {
+        return _breakerFailureThreshold > 0;
+    }
+
+    int getBreakerFailureThreshold() {
+        return _breakerFailureThreshold;
+    }
+
+    long getBreakerOpenMillis() {
+        return _breakerOpenMillis;
+    }
+
+    ResilienceListener getListener() {
+        return _listener;
+    }
+
+    @Override
+    public String toString() {
+        return "ResiliencePolicy [_maxReadAttempts=" + _maxReadAttempts + ", _initialBackoffMillis=" + _initialBackoffMillis
+                + ", _maxBackoffMillis=" + _maxBackoffMillis + ", _operationTimeoutMillis=" + _operationTimeoutMillis
+                + ", _breakerFailureThreshold=" + _breakerFailureThreshold + ", _breakerOpenMillis=" + _breakerOpenMillis + "]";
+    }
+
+}
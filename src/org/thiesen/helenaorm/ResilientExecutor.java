@@ -0,0 +1,337 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.cassandra.dao.Command;
+
+import org.apache.cassandra.service.InvalidRequestException;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Runs {@link Command}s according to a {@link ResiliencePolicy}. One
+ * instance is shared by all DAOs of a factory so the circuit breakers see
+ * the failures of every column family on a host.
+ * <p>
+ * Hector only knows a global socket timeout, so an attempt with a time
+ * budget runs on a pooled thread and is abandoned once the budget is spent.
+ * The abandoned thread stays blocked until the socket gives up, but the
+ * caller is released and the breaker counts the attempt as failed, so the
+ * calls to a hanging host fail fast instead of piling up.
+ */
+class ResilientExecutor {
+    private static final Log LOG = LogFactory.getLog( ResilientExecutor.class );
+
+    private static final int MAX_ATTEMPTS_IN_FLIGHT = 256;
+
+    private static final ThreadPoolExecutor ATTEMPTS = new ThreadPoolExecutor( 0, MAX_ATTEMPTS_IN_FLIGHT, 60,
+            TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger _count = new AtomicInteger();
+
+                @Override
+                public Thread newThread( final Runnable runnable ) {
+                    final Thread thread = new Thread( runnable, "helenaorm-attempt-" + _count.incrementAndGet() );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+
+    private final CassandraBackend _backend;
+    private final String _host;
+    private final ResiliencePolicy _policy;
+    private final ConcurrentMap<String, CircuitBreaker> _breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+    private final Random _random = new Random();
+
+    ResilientExecutor( final CassandraBackend backend, final ResiliencePolicy policy ) {
+        _backend = backend;
+        _host = backend.getName();
+        _policy = policy;
+    }
+
+    /**
+     * Executes the command, retrying transient failures if the command is
+     * idempotent. Failures are always reported as {@link HelenaRuntimeException}.
+     * The attempts are bounded by the policy timeout and by the
+     * {@link Deadline}s entered on the calling thread, including a single
+     * attempt that hangs.
+     * 
+     * @param trace receives the time of every attempt, may be null
+     */
+    <V> V execute( final String operation, final String keyspace, final boolean idempotent, final Command<V> command,
+            final OperationTrace trace ) {
+        final long start = System.currentTimeMillis();
+        final long timeout = _policy.getOperationTimeoutMillis();
+        final long deadline = timeout > 0 ? start + timeout : Long.MAX_VALUE;
+        final boolean callDeadline = Deadline.isActive();
+        final int maxAttempts = idempotent ? _policy.getMaxReadAttempts() : 1;
+        final CircuitBreaker breaker = breakerFor( _host );
+
+        for ( int attempt = 1; ; attempt++ ) {
+            if ( callDeadline ) {
+                checkCallDeadline( operation, start, null );
+            }
+            if ( breaker != null && !breaker.allowRequest() ) {
+                _policy.getListener().onCircuitRejected( operation, _host );
+                throw new HelenaCircuitOpenException( "Circuit for " + _host + " is open, rejecting " + operation );
+            }
+
+            final Exception failure;
+            try {
+                final long callRemaining = callDeadline
+                        ? TimeUnit.NANOSECONDS.toMillis( Deadline.remainingNanosOfActive() ) : Long.MAX_VALUE;
+                final long budget = Math.min( deadline == Long.MAX_VALUE ? Long.MAX_VALUE
+                        : deadline - System.currentTimeMillis(), callRemaining );
+                final V result = attempt( command, keyspace, trace, budget );
+                if ( breaker != null ) {
+                    breaker.onSuccess();
+                }
+                return result;
+            } catch ( final HelenaRuntimeException e ) {
+                // Raised in this process, e.g. by a deadline or a decoder, the host may not have been reached
+                if ( breaker != null ) {
+                    breaker.releaseProbe();
+                }
+                throw e;
+            } catch ( final InvalidRequestException e ) {
+                hostAnswered( breaker );
+                throw new HelenaRuntimeException( e );
+            } catch ( final NotFoundException e ) {
+                hostAnswered( breaker );
+                throw new HelenaRuntimeException( e );
+            } catch ( final Exception e ) {
+                failure = e;
+            } catch ( final Error e ) {
+                // Counted as failure, a half open breaker would otherwise keep its probe slot taken forever
+                if ( breaker != null ) {
+                    breaker.onFailure();
+                }
+                throw e;
+            }
+
+            if ( breaker != null ) {
+                breaker.onFailure();
+            }
+
+            final long now = System.currentTimeMillis();
+            if ( now >= deadline ) {
+                _policy.getListener().onDeadlineExceeded( operation, _host, now - start );
+                throw new HelenaDeadlineExceededException( operation + " exceeded its deadline of " + timeout + "ms after "
+                        + attempt + " attempt(s)", failure );
+            }
+            if ( callDeadline ) {
+                checkCallDeadline( operation, start, failure );
+            }
+            if ( attempt >= maxAttempts ) {
+                throw new HelenaRuntimeException( failure );
+            }
+
+            final long callRemaining = callDeadline ? TimeUnit.NANOSECONDS.toMillis( Deadline.remainingNanosOfActive() ) : Long.MAX_VALUE;
+            final long backoff = Math.min( backoffMillis( attempt ), Math.min( deadline - now, callRemaining ) );
+            _policy.getListener().onRetry( operation, _host, attempt, backoff, failure );
+            if ( LOG.isDebugEnabled() ) {
+                LOG.debug( "Retrying " + operation + " on " + _host + " in " + backoff + "ms after attempt " + attempt, failure );
+            }
+            sleep( backoff );
+        }
+    }
+
+    private void checkCallDeadline( final String operation, final long start, final Exception failure ) {
+        try {
+            Deadline.check( operation, failure );
+        } catch ( final HelenaDeadlineExceededException e ) {
+            _policy.getListener().onDeadlineExceeded( operation, _host, System.currentTimeMillis() - start );
+            throw e;
+        }
+    }
+
+    /**
+     * @param budgetMillis time the attempt may take, {@link Long#MAX_VALUE} runs it on the calling thread
+     * @throws TimeoutException if the attempt was abandoned after the budget was spent
+     */
+    private <V> V attempt( final Command<V> command, final String keyspace, final OperationTrace trace,
+            final long budgetMillis ) throws Exception {
+        final Command<V> timed = trace == null ? command : trace.timed( command );
+        final long start = System.nanoTime();
+        try {
+            if ( budgetMillis == Long.MAX_VALUE ) {
+                return _backend.execute( timed, keyspace );
+            }
+            return attemptWithin( timed, keyspace, trace, budgetMillis );
+        } finally {
+            if ( trace != null ) {
+                trace.addAttempt( System.nanoTime() - start );
+            }
+        }
+    }
+
+    private <V> V attemptWithin( final Command<V> command, final String keyspace, final OperationTrace trace,
+            final long budgetMillis ) throws Exception {
+        if ( budgetMillis <= 0 ) {
+            throw new TimeoutException( "No time left for an attempt on " + _host );
+        }
+        final List<Deadline> deadlines = Deadline.capture();
+        final FutureTask<V> task = new FutureTask<V>( new Callable<V>() {
+
+            @Override
+            public V call() throws Exception {
+                Deadline.enter( deadlines );
+                if ( trace != null ) {
+                    trace.attach();
+                }
+                try {
+                    return _backend.execute( command, keyspace );
+                } finally {
+                    if ( trace != null ) {
+                        trace.detach();
+                    }
+                    Deadline.exit( deadlines );
+                }
+            }
+        } );
+        try {
+            ATTEMPTS.execute( task );
+        } catch ( final RejectedExecutionException e ) {
+            throw new HelenaRuntimeException( "More than " + MAX_ATTEMPTS_IN_FLIGHT + " attempts in flight, rejecting attempt on " + _host, e );
+        }
+        try {
+            return task.get( budgetMillis, TimeUnit.MILLISECONDS );
+        } catch ( final TimeoutException e ) {
+            task.cancel( true );
+            throw new TimeoutException( "Attempt on " + _host + " abandoned after " + budgetMillis + "ms" );
+        } catch ( final InterruptedException e ) {
+            task.cancel( true );
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted while waiting for an attempt on " + _host, e );
+        } catch ( final ExecutionException e ) {
+            final Throwable cause = e.getCause();
+            if ( cause instanceof Error ) {
+                throw (Error) cause;
+            }
+            throw (Exception) cause;
+        }
+    }
+
+    /**
+     * A request rejected by the host proves it is up, so it completes a half
+     * open probe like a success.
+     */
+    private void hostAnswered( final CircuitBreaker breaker ) {
+        if ( breaker != null ) {
+            breaker.onSuccess();
+        }
+    }
+
+    /**
+     * Full jitter: a random delay between zero and the exponentially growing,
+     * capped backoff for the given attempt.
+     */
+    private long backoffMillis( final int attempt ) {
+        final long initial = _policy.getInitialBackoffMillis();
+        if ( initial <= 0 ) {
+            return 0;
+        }
+        final long ceiling = attempt >= 31 ? _policy.getMaxBackoffMillis()
+                : Math.min( _policy.getMaxBackoffMillis(), initial << ( attempt - 1 ) );
+        final double jitter;
+        synchronized ( _random ) {
+            jitter = _random.nextDouble();
+        }
+        return (long) ( ceiling * jitter );
+    }
+
+    private void sleep( final long millis ) {
+        if ( millis <= 0 ) {
+            return;
+        }
+        try {
+            Thread.sleep( millis );
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new HelenaRuntimeException( "Interrupted while backing off", e );
+        }
+    }
+
+    private CircuitBreaker breakerFor( final String host ) {
+        if ( !_policy.isCircuitBreakerEnabled() ) {
+            return null;
+        }
+        final CircuitBreaker existing = _breakers.get( host );
+        if ( existing != null ) {
+            return existing;
+        }
+        final CircuitBreaker created = new CircuitBreaker( host, _policy.getBreakerFailureThreshold(),
+                _policy.getBreakerOpenMillis(), new LoggingListener( _policy.getListener() ) );
+        final CircuitBreaker raced = _breakers.putIfAbsent( host, created );
+        return raced == null ? created : raced;
+    }
+
+    ResiliencePolicy getPolicy() {
+        return _policy;
+    }
+
+    /**
+     * Logs breaker transitions in addition to notifying the configured listener.
+     */
+    private static final class LoggingListener extends ResilienceListener.Adapter {
+
+        private final ResilienceListener _delegate;
+
+        LoggingListener( final ResilienceListener delegate ) {
+            _delegate = delegate;
+        }
+
+        @Override
+        public void onCircuitOpened( final String host, final int consecutiveFailures ) {
+            LOG.warn( "Circuit for " + host + " opened after " + consecutiveFailures + " consecutive failures" );
+            _delegate.onCircuitOpened( host, consecutiveFailures );
+        }
+
+        @Override
+        public void onCircuitHalfOpen( final String host ) {
+            LOG.info( "Circuit for " + host + " is half open, probing" );
+            _delegate.onCircuitHalfOpen( host );
+        }
+
+        @Override
+        public void onCircuitClosed( final String host ) {
+            LOG.info( "Circuit for " + host + " closed" );
+            _delegate.onCircuitClosed( host );
+        }
+
+    }
+
+}
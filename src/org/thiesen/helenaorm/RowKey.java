@@ -0,0 +1,313 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.List;
+import java.util.UUID;
+
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Converts between the key properties of an entity and its row key. A
+ * single key property is stored with its type mapping as before. Several
+ * key properties form a composite key whose encoding preserves the order of
+ * the components, so with an order preserving partitioner rows sort by the
+ * first component, then the second and so on, and all rows sharing leading
+ * components form one key range.
+ */
+abstract class RowKey {
+
+    private final List<PropertyMetadata> _properties;
+
+    RowKey( final List<PropertyMetadata> properties ) {
+        _properties = ImmutableList.copyOf( properties );
+    }
+
+    /**
+     * @param properties the key properties, in key order
+     */
+    static RowKey create( final List<PropertyMetadata> properties, final TypeConverter typeConverter ) {
+        return properties.size() == 1 ? new Single( properties.get( 0 ), typeConverter ) : new Composite( properties );
+    }
+
+    List<PropertyMetadata> getProperties() {
+        return _properties;
+    }
+
+    boolean isComposite() {
+        return _properties.size() > 1;
+    }
+
+    /**
+     * @throws HelenaRuntimeException if a key property is null
+     */
+    final String keyOf( final Object entity ) {
+        final Object[] components = new Object[_properties.size()];
+        for ( int i = 0; i < components.length; i++ ) {
+            components[i] = _properties.get( i ).get( entity );
+        }
+        return encode( components );
+    }
+
+    /**
+     * @param components the values of all key properties, in key order
+     * @throws HelenaRuntimeException if a component is missing or null
+     */
+    final String encode( final Object... components ) {
+        if ( components.length != _properties.size() ) {
+            throw new HelenaRuntimeException( "The key has " + _properties.size() + " components, got " + components.length );
+        }
+        for ( int i = 0; i < components.length; i++ ) {
+            if ( components[i] == null ) {
+                throw new HelenaRuntimeException( "Key is null, can't store object" );
+            }
+        }
+        return encodeComponents( components );
+    }
+
+    abstract String encodeComponents( Object[] components );
+
+    /**
+     * Sets the key properties from the row key.
+     */
+    abstract void apply( Object entity, String key );
+
+    /**
+     * @return the first key of the range of keys starting with the given
+     *         components, all but the last key component at most
+     */
+    abstract String prefixStart( Object[] leadingComponents );
+
+    /**
+     * @return the last key, inclusive, of the range of keys starting with the given components
+     */
+    abstract String prefixEnd( Object[] leadingComponents );
+
+    private static final class Single extends RowKey {
+        private final PropertyMetadata _property;
+        private final TypeConverter _typeConverter;
+
+        Single( final PropertyMetadata property, final TypeConverter typeConverter ) {
+            super( ImmutableList.of( property ) );
+            _property = property;
+            _typeConverter = typeConverter;
+        }
+
+        @Override
+        String encodeComponents( final Object[] components ) {
+            final String key = _typeConverter.bytesToString( _property.getCodec().encode( components[0] ) );
+            if ( key.length() == 0 ) {
+                throw new HelenaRuntimeException( "Key is null, can't store object" );
+            }
+            return key;
+        }
+
+        @Override
+        void apply( final Object entity, final String key ) {
+            _property.set( entity, _property.getCodec().decode( _typeConverter.stringToBytes( key ) ) );
+        }
+
+        @Override
+        String prefixStart( final Object[] leadingComponents ) {
+            throw new HelenaRuntimeException( "Prefix scans need a composite key of more than one @KeyProperty" );
+        }
+
+        @Override
+        String prefixEnd( final Object[] leadingComponents ) {
+            throw new HelenaRuntimeException( "Prefix scans need a composite key of more than one @KeyProperty" );
+        }
+    }
+
+    /**
+     * Concatenates the components, each encoded so it sorts like its value
+     * and ends unambiguously: integers as fixed width hex digits with the
+     * sign bit flipped, UUIDs as 32 hex digits of their bits, strings and
+     * enum names with the NUL character and the two highest characters
+     * escaped, followed by NUL and U+0001. No encoded component starts with
+     * U+FFFF, so that character closes prefix ranges.
+     */
+    private static final class Composite extends RowKey {
+        private static final char STRING_END = '\u0001';
+        private static final char ESCAPE_ZERO = '\u00ff';
+        private static final char ESCAPE_HIGH = '\ufffe';
+        private static final char PREFIX_END = '\uffff';
+
+        private final Class<?>[] _types;
+
+        Composite( final List<PropertyMetadata> properties ) {
+            super( properties );
+            _types = new Class<?>[properties.size()];
+            for ( int i = 0; i < _types.length; i++ ) {
+                _types[i] = componentType( properties.get( i ) );
+            }
+        }
+
+        private static Class<?> componentType( final PropertyMetadata property ) {
+            final Class<?> type = property.getType();
+            if ( type == long.class || type == Long.class ) {
+                return Long.class;
+            }
+            if ( type == int.class || type == Integer.class ) {
+                return Integer.class;
+            }
+            if ( type == String.class || type == UUID.class || type.isEnum() ) {
+                return type;
+            }
+            throw new HelenaRuntimeException( "Composite key property " + property.getName() + " has type " + type.getName()
+                    + ", supported are String, Long, Integer, UUID and enums" );
+        }
+
+        @Override
+        String encodeComponents( final Object[] components ) {
+            final StringBuilder key = new StringBuilder();
+            append( key, components, components.length );
+            return key.toString();
+        }
+
+        private void append( final StringBuilder key, final Object[] components, final int count ) {
+            for ( int i = 0; i < count; i++ ) {
+                if ( !_types[i].isInstance( components[i] ) ) {
+                    throw new HelenaRuntimeException( "Key component " + getProperties().get( i ).getName() + " must be a "
+                            + _types[i].getName() + ", got " + ( components[i] == null ? "null" : components[i].getClass().getName() ) );
+                }
+                final Object component = components[i];
+                if ( component instanceof Long ) {
+                    appendHex( key, ( (Long) component ).longValue() ^ Long.MIN_VALUE, 16 );
+                } else if ( component instanceof Integer ) {
+                    appendHex( key, ( (Integer) component ).intValue() ^ Integer.MIN_VALUE, 8 );
+                } else if ( component instanceof UUID ) {
+                    appendHex( key, ( (UUID) component ).getMostSignificantBits(), 16 );
+                    appendHex( key, ( (UUID) component ).getLeastSignificantBits(), 16 );
+                } else {
+                    appendString( key, component instanceof Enum<?> ? ( (Enum<?>) component ).name() : (String) component );
+                }
+            }
+        }
+
+        private static void appendHex( final StringBuilder key, final long value, final int digits ) {
+            for ( int shift = ( digits - 1 ) * 4; shift >= 0; shift -= 4 ) {
+                key.append( Character.forDigit( (int) ( value >>> shift ) & 0xf, 16 ) );
+            }
+        }
+
+        private static void appendString( final StringBuilder key, final String value ) {
+            for ( int i = 0; i < value.length(); i++ ) {
+                final char c = value.charAt( i );
+                if ( c == '\u0000' ) {
+                    key.append( '\u0000' ).append( ESCAPE_ZERO );
+                } else if ( c >= ESCAPE_HIGH ) {
+                    key.append( ESCAPE_HIGH ).append( c );
+                } else {
+                    key.append( c );
+                }
+            }
+            key.append( '\u0000' ).append( STRING_END );
+        }
+
+        @Override
+        void apply( final Object entity, final String key ) {
+            int position = 0;
+            for ( int i = 0; i < _types.length; i++ ) {
+                final Object value;
+                if ( _types[i] == Long.class ) {
+                    value = Long.valueOf( parseHex( key, position, 16 ) ^ Long.MIN_VALUE );
+                    position += 16;
+                } else if ( _types[i] == Integer.class ) {
+                    value = Integer.valueOf( (int) parseHex( key, position, 8 ) ^ Integer.MIN_VALUE );
+                    position += 8;
+                } else if ( _types[i] == UUID.class ) {
+                    value = new UUID( parseHex( key, position, 16 ), parseHex( key, position + 16, 16 ) );
+                    position += 32;
+                } else {
+                    final StringBuilder string = new StringBuilder();
+                    position = parseString( key, position, string );
+                    value = _types[i] == String.class ? string.toString() : enumValue( _types[i], string.toString() );
+                }
+                getProperties().get( i ).set( entity, value );
+            }
+            if ( position != key.length() ) {
+                throw new HelenaRuntimeException( "Row key " + key + " has trailing characters" );
+            }
+        }
+
+        private static long parseHex( final String key, final int position, final int digits ) {
+            if ( position + digits > key.length() ) {
+                throw new HelenaRuntimeException( "Row key " + key + " is too short" );
+            }
+            long value = 0;
+            for ( int i = position; i < position + digits; i++ ) {
+                final int digit = Character.digit( key.charAt( i ), 16 );
+                if ( digit < 0 ) {
+                    throw new HelenaRuntimeException( "Row key " + key + " is not a composite key" );
+                }
+                value = value << 4 | digit;
+            }
+            return value;
+        }
+
+        /**
+         * @return the position after the string and its end marker
+         */
+        private static int parseString( final String key, final int start, final StringBuilder string ) {
+            int position = start;
+            while ( position + 1 < key.length() ) {
+                final char c = key.charAt( position );
+                final char next = key.charAt( position + 1 );
+                if ( c == '\u0000' && next == STRING_END ) {
+                    return position + 2;
+                }
+                if ( c == '\u0000' && next == ESCAPE_ZERO ) {
+                    string.append( '\u0000' );
+                    position += 2;
+                } else if ( c == ESCAPE_HIGH ) {
+                    string.append( next );
+                    position += 2;
+                } else {
+                    string.append( c );
+                    position++;
+                }
+            }
+            throw new HelenaRuntimeException( "Row key " + key + " is not a composite key" );
+        }
+
+        @SuppressWarnings( { "unchecked", "rawtypes" } )
+        private static Object enumValue( final Class<?> type, final String name ) {
+            return Enum.valueOf( (Class) type, name );
+        }
+
+        @Override
+        String prefixStart( final Object[] leadingComponents ) {
+            if ( leadingComponents.length >= _types.length ) {
+                throw new HelenaRuntimeException( "A key prefix has at most " + ( _types.length - 1 ) + " components, got "
+                        + leadingComponents.length );
+            }
+            final StringBuilder key = new StringBuilder();
+            append( key, leadingComponents, leadingComponents.length );
+            return key.toString();
+        }
+
+        @Override
+        String prefixEnd( final Object[] leadingComponents ) {
+            return prefixStart( leadingComponents ) + PREFIX_END;
+        }
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cassandra.service.Column;
+import org.thiesen.helenaorm.reactive.Publisher;
+import org.thiesen.helenaorm.reactive.Subscriber;
+import org.thiesen.helenaorm.reactive.Subscription;
+
+import com.google.common.base.Function;
+
+/**
+ * Publishes entities hydrated from raw rows that are fetched a page at a
+ * time. A page is only fetched while the subscriber has outstanding demand
+ * and less than one page is buffered, so at most two pages are held between
+ * network and hydration. Fetches run on the executor, rows are hydrated
+ * when delivered. Rows without columns are skipped.
+ */
+final class RowPublisher<T> implements Publisher<T> {
+
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool( new ThreadFactory() {
+        private final AtomicInteger _count = new AtomicInteger();
+
+        @Override
+        public Thread newThread( final Runnable runnable ) {
+            final Thread thread = new Thread( runnable, "helenaorm-publisher-" + _count.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        }
+    } );
+
+    private final Iterable<Map.Entry<String, List<Column>>> _rows;
+    private final int _pageSize;
+    private final Function<Map.Entry<String, List<Column>>, T> _hydrator;
+    private final Executor _executor;
+
+    /**
+     * @param rows a lazy source of rows, whose iterators make one backend call per <code>pageSize</code> rows
+     * @param executor runs the backend calls, null for a shared pool of daemon threads
+     */
+    RowPublisher( final Iterable<Map.Entry<String, List<Column>>> rows, final int pageSize,
+            final Function<Map.Entry<String, List<Column>>, T> hydrator, final Executor executor ) {
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive, got " + pageSize );
+        }
+        _rows = rows;
+        _pageSize = pageSize;
+        _hydrator = hydrator;
+        _executor = executor == null ? DEFAULT_EXECUTOR : executor;
+    }
+
+    @Override
+    public void subscribe( final Subscriber<? super T> subscriber ) {
+        if ( subscriber == null ) {
+            throw new NullPointerException( "Subscriber must not be null" );
+        }
+        final RowSubscription subscription = new RowSubscription( subscriber );
+        subscriber.onSubscribe( subscription );
+    }
+
+    private final class RowSubscription implements Subscription, Runnable {
+
+        private final Subscriber<? super T> _subscriber;
+        private final Queue<Map.Entry<String, List<Column>>> _buffer = new ConcurrentLinkedQueue<Map.Entry<String, List<Column>>>();
+        private final AtomicInteger _buffered = new AtomicInteger();
+        private final AtomicLong _requested = new AtomicLong();
+        private final AtomicInteger _wip = new AtomicInteger();
+
+        private Iterator<Map.Entry<String, List<Column>>> _iterator;
+        private volatile boolean _fetching;
+        private volatile boolean _exhausted;
+        private volatile boolean _cancelled;
+        private volatile Throwable _failure;
+
+        RowSubscription( final Subscriber<? super T> subscriber ) {
+            _subscriber = subscriber;
+        }
+
+        @Override
+        public void request( final long count ) {
+            if ( count <= 0 ) {
+                _failure = new IllegalArgumentException( "Requested " + count + " elements, requests must be positive" );
+            } else {
+                long current;
+                do {
+                    current = _requested.get();
+                } while ( current != Long.MAX_VALUE
+                        && !_requested.compareAndSet( current, Long.MAX_VALUE - current > count ? current + count : Long.MAX_VALUE ) );
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            _cancelled = true;
+            drain();
+        }
+
+        /**
+         * Fetches one page, runs on the executor, never concurrently with another fetch.
+         */
+        @Override
+        public void run() {
+            try {
+                if ( _iterator == null ) {
+                    _iterator = _rows.iterator();
+                }
+                int fetched = 0;
+                while ( fetched < _pageSize && !_cancelled && _iterator.hasNext() ) {
+                    _buffer.offer( _iterator.next() );
+                    _buffered.incrementAndGet();
+                    fetched++;
+                }
+                if ( fetched < _pageSize ) {
+                    _exhausted = true;
+                }
+            } catch ( final RuntimeException e ) {
+                _failure = e;
+            }
+            _fetching = false;
+            drain();
+        }
+
+        /**
+         * Delivers buffered rows up to the demand and starts the next fetch.
+         * Only one thread drains at a time, others leave their work to it.
+         */
+        private void drain() {
+            if ( _wip.getAndIncrement() != 0 ) {
+                return;
+            }
+            int missed = 1;
+            do {
+                final long requested = _requested.get();
+                long emitted = 0;
+                while ( emitted != requested && !_cancelled && _failure == null ) {
+                    final Map.Entry<String, List<Column>> row = _buffer.poll();
+                    if ( row == null ) {
+                        break;
+                    }
+                    _buffered.decrementAndGet();
+                    if ( row.getValue().isEmpty() ) {
+                        continue;
+                    }
+                    final T element;
+                    try {
+                        element = _hydrator.apply( row );
+                    } catch ( final RuntimeException e ) {
+                        _failure = e;
+                        break;
+                    }
+                    _subscriber.onNext( element );
+                    emitted++;
+                }
+
+                if ( _cancelled ) {
+                    _buffer.clear();
+                    return;
+                }
+                if ( _failure != null ) {
+                    terminate();
+                    _subscriber.onError( _failure );
+                    return;
+                }
+                if ( _exhausted && _buffer.isEmpty() ) {
+                    terminate();
+                    _subscriber.onComplete();
+                    return;
+                }
+                if ( emitted > 0 && requested != Long.MAX_VALUE ) {
+                    _requested.addAndGet( -emitted );
+                }
+                if ( !_fetching && !_exhausted && _requested.get() > 0 && _buffered.get() < _pageSize ) {
+                    _fetching = true;
+                    try {
+                        _executor.execute( this );
+                    } catch ( final RuntimeException e ) {
+                        _fetching = false;
+                        _failure = e;
+                        continue;
+                    }
+                }
+                missed = _wip.addAndGet( -missed );
+            } while ( missed != 0 );
+        }
+
+        /**
+         * Leaves the work in progress counter raised, so no signal follows the terminal one.
+         */
+        private void terminate() {
+            _cancelled = true;
+            _buffer.clear();
+        }
+
+    }
+
+}
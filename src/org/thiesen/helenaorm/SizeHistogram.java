@@ -0,0 +1,112 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of byte sizes with power of two buckets. Recording
+ * is lock free, percentiles are accurate to the bucket, i.e. within a
+ * factor of two.
+ */
+public final class SizeHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray _buckets = new AtomicLongArray( BUCKETS );
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _total = new AtomicLong();
+    private final AtomicLong _max = new AtomicLong();
+
+    SizeHistogram() {
+        // package internal
+    }
+
+    void record( final long bytes ) {
+        _buckets.incrementAndGet( bucketOf( bytes ) );
+        _count.incrementAndGet();
+        _total.addAndGet( bytes );
+        long max = _max.get();
+        while ( bytes > max && !_max.compareAndSet( max, bytes ) ) {
+            max = _max.get();
+        }
+    }
+
+    /**
+     * Bucket 0 holds 0, bucket i holds sizes from 2^(i-1) to 2^i - 1.
+     */
+    private static int bucketOf( final long bytes ) {
+        return Math.min( BUCKETS - 1, 64 - Long.numberOfLeadingZeros( bytes ) );
+    }
+
+    public long getCount() {
+        return _count.get();
+    }
+
+    public long getTotalBytes() {
+        return _total.get();
+    }
+
+    public long getMaxBytes() {
+        return _max.get();
+    }
+
+    public double getMeanBytes() {
+        final long count = _count.get();
+        return count == 0 ? 0 : (double) _total.get() / count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket holding the percentile, at most the maximum seen
+     */
+    public long getPercentileBytes( final double percentile ) {
+        long remaining = (long) Math.ceil( _count.get() * percentile / 100 );
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            remaining -= _buckets.get( i );
+            if ( remaining <= 0 ) {
+                return Math.min( _max.get(), i == 0 ? 0 : ( 1L << i ) - 1 );
+            }
+        }
+        return _max.get();
+    }
+
+    /**
+     * Clears the histogram. Sizes recorded concurrently may be lost or only
+     * partly cleared.
+     */
+    void reset() {
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            _buckets.set( i, 0 );
+        }
+        _count.set( 0 );
+        _total.set( 0 );
+        _max.set( 0 );
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + Math.round( getMeanBytes() ) + ", p99=" + getPercentileBytes( 99 )
+            + ", max=" + getMaxBytes();
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Random;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Logs DAO operations slower than a threshold at WARN, and a random sample
+ * of all other operations at INFO, each as one line of
+ * <code>key=value</code> pairs with the time split by phase: marshal,
+ * borrow (getting and returning a pooled connection), network and hydrate.
+ * 
+ * Only operations that can end up in the log are traced, with the log
+ * disabled an operation pays for a single field read.
+ */
+final class SlowOperationLog {
+    private static final Log LOG = LogFactory.getLog( SlowOperationLog.class );
+
+    static final SlowOperationLog DISABLED = new SlowOperationLog( 0, 0 );
+
+    private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final long _thresholdNanos;
+    private final double _sampleRate;
+    private final boolean _enabled;
+
+    /**
+     * @param thresholdMillis operations taking at least this long are logged, 0 to disable
+     * @param sampleRate fraction of the other operations to log, 0 to disable
+     */
+    SlowOperationLog( final long thresholdMillis, final double sampleRate ) {
+        if ( thresholdMillis < 0 ) {
+            throw new IllegalArgumentException( "Threshold must not be negative, got " + thresholdMillis );
+        }
+        if ( sampleRate < 0 || sampleRate > 1 ) {
+            throw new IllegalArgumentException( "Sample rate must be between 0 and 1, got " + sampleRate );
+        }
+        _thresholdNanos = thresholdMillis * 1000 * 1000;
+        _sampleRate = sampleRate;
+        _enabled = thresholdMillis > 0 || sampleRate > 0;
+    }
+
+    boolean isEnabled() {
+        return _enabled;
+    }
+
+    /**
+     * Starts tracing an operation on the current thread.
+     * 
+     * @return the trace, or null if the operation can not end up in the log
+     */
+    OperationTrace begin( final String operation ) {
+        if ( !_enabled || OperationTrace.current() != null ) {
+            return null;
+        }
+        final boolean sampled = _sampleRate > 0 && RANDOM.get().nextDouble() < _sampleRate;
+        if ( !sampled && _thresholdNanos == 0 ) {
+            return null;
+        }
+        final OperationTrace trace = new OperationTrace( operation, sampled );
+        trace.attach();
+        return trace;
+    }
+
+    /**
+     * Ends a trace started by {@link #begin(String)}, logging it if it was
+     * slow or sampled. Does nothing for null.
+     */
+    void end( final OperationTrace trace, final String columnFamily ) {
+        if ( trace == null ) {
+            return;
+        }
+        trace.detach();
+        final long elapsed = trace.getElapsedNanos();
+        if ( _thresholdNanos > 0 && elapsed >= _thresholdNanos ) {
+            LOG.warn( "slow " + trace.format( columnFamily, elapsed ) );
+        } else if ( trace.isSampled() && LOG.isInfoEnabled() ) {
+            LOG.info( "sampled " + trace.format( columnFamily, elapsed ) );
+        }
+    }
+
+}
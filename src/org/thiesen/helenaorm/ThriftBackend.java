@@ -0,0 +1,48 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import me.prettyprint.cassandra.dao.Command;
+
+/**
+ * Executes commands on a Cassandra node through the Hector client pool.
+ */
+final class ThriftBackend implements CassandraBackend {
+
+    private final String _hostname;
+    private final int _port;
+
+    ThriftBackend( final String hostname, final int port ) {
+        _hostname = hostname;
+        _port = port;
+    }
+
+    @Override
+    public <V> V execute( final Command<V> command, final String keyspace ) throws Exception {
+        return command.execute( _hostname, _port, keyspace );
+    }
+
+    @Override
+    public String getName() {
+        return _hostname + ":" + _port;
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import me.prettyprint.cassandra.dao.Command;
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.thiesen.helenaorm.annotations.TimeSeries;
+import org.thiesen.helenaorm.annotations.TimestampProperty;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Maps {@link TimeSeries} entities to wide rows: all entities of a series
+ * whose timestamps fall into the same bucket are columns of the row
+ * <code>&lt;series id&gt;:&lt;bucket start&gt;</code>. The column name is the
+ * timestamp as 8 byte big endian long, the value holds all properties of the
+ * entity. Reading a time window therefore is one sequential slice per
+ * bucket instead of a multi get of scattered rows.
+ * 
+ * The column family must sort column names as <code>LongType</code> (or
+ * <code>BytesType</code> for non-negative timestamps). Since the timestamp is
+ * the column name, a series holds one entity per timestamp; use a finer
+ * unit like microseconds if events may collide.
+ */
+public class TimeSeriesDAO<T> {
+
+    private final HelenaDAO<T> _dao;
+    private final String _columnFamily;
+    private final long _bucketSize;
+    private final PropertyMetadata _timestampProperty;
+
+    TimeSeriesDAO( final HelenaDAO<T> dao ) {
+        final EntityMetadata<T> metadata = dao.getMetadata();
+        final TimeSeries timeSeries = metadata.getEntityClass().getAnnotation( TimeSeries.class );
+        if ( timeSeries == null ) {
+            throw new IllegalArgumentException( "Trying to get a TimeSeriesDAO for a class that is not annotated with @TimeSeries" );
+        }
+        if ( timeSeries.bucketSize() <= 0 ) {
+            throw new HelenaRuntimeException( "Bucket size of " + metadata.getEntityClass().getName() + " must be positive" );
+        }
+        if ( metadata.isSuperColumnFamily() ) {
+            throw new HelenaRuntimeException( "Time series can not be stored in super column family " + metadata.getColumnFamily() );
+        }
+        _timestampProperty = metadata.getAnnotatedProperty( TimestampProperty.class );
+        if ( _timestampProperty == null ) {
+            throw new HelenaRuntimeException( "Could not find timestamp of " + metadata.getEntityClass().getName()
+                    + ", did you annotate with @TimestampProperty" );
+        }
+        final Class<?> type = _timestampProperty.getType();
+        if ( type != long.class && type != Long.class && type != Date.class ) {
+            throw new HelenaRuntimeException( "@TimestampProperty " + _timestampProperty.getName() + " must be long, Long or Date" );
+        }
+        _dao = dao;
+        _columnFamily = metadata.getColumnFamily();
+        _bucketSize = timeSeries.bucketSize();
+    }
+
+    public void insert( final T object ) {
+        final long timestamp = timestampOf( object );
+        final String rowKey = rowKey( _dao.getKeyFrom( object ), bucketOf( timestamp ) );
+        final long now = System.currentTimeMillis();
+        final Column column = new Column( encodeTimestamp( timestamp ),
+                PackedColumns.pack( _dao.toColumns( _dao.marshal( object ), now ) ), now );
+
+        _dao.execute( "insertSeries", false, new Command<Void>(){
+            @Override
+            public Void execute(final Keyspace ks) throws Exception {
+                ks.batchInsert( rowKey, ImmutableMap.<String, List<Column>>of( _columnFamily, ImmutableList.of( column ) ), null );
+                return null;
+            }
+        } );
+    }
+
+    public void delete( final T object ) {
+        final long timestamp = timestampOf( object );
+        final String rowKey = rowKey( _dao.getKeyFrom( object ), bucketOf( timestamp ) );
+        final ColumnPath path = new ColumnPath( _columnFamily, null, encodeTimestamp( timestamp ) );
+
+        _dao.execute( "deleteSeries", false, new Command<Void>(){
+            @Override
+            public Void execute(final Keyspace ks) throws Exception {
+                ks.remove( rowKey, path );
+                return null;
+            }
+        } );
+    }
+
+    /**
+     * Lazily reads the entities of a series with timestamps between from and
+     * to (both inclusive), oldest first, fetching at most <code>pageSize</code>
+     * entities per backend call.
+     */
+    public Iterable<T> getSeries( final String seriesId, final long from, final long to, final int pageSize ) {
+        return window( seriesId, from, to, pageSize, false );
+    }
+
+    /**
+     * Like {@link #getSeries(String, long, long, int)}, but newest first.
+     */
+    public Iterable<T> getSeriesReversed( final String seriesId, final long from, final long to, final int pageSize ) {
+        return window( seriesId, from, to, pageSize, true );
+    }
+
+    private Iterable<T> window( final String seriesId, final long from, final long to, final int pageSize, final boolean reversed ) {
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive, got " + pageSize );
+        }
+        return new Iterable<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                return new WindowIterator( seriesId, from, to, pageSize, reversed );
+            }
+        };
+    }
+
+    private long timestampOf( final T object ) {
+        final Object value = _timestampProperty.get( object );
+        if ( value == null ) {
+            throw new HelenaRuntimeException( "Timestamp is null, can't store object" );
+        }
+        return value instanceof Date ? ( (Date) value ).getTime() : ( (Long) value ).longValue();
+    }
+
+    long bucketOf( final long timestamp ) {
+        final long bucket = timestamp / _bucketSize;
+        return ( timestamp < 0 && timestamp % _bucketSize != 0 ? bucket - 1 : bucket ) * _bucketSize;
+    }
+
+    static String rowKey( final String seriesId, final long bucket ) {
+        return seriesId + ":" + bucket;
+    }
+
+    static byte[] encodeTimestamp( final long timestamp ) {
+        return ByteBuffer.allocate( 8 ).putLong( timestamp ).array();
+    }
+
+    /**
+     * Walks the buckets of a window in order, slicing each bucket row in
+     * pages. A follow-up page starts at the last column seen, which is
+     * skipped.
+     */
+    private final class WindowIterator extends AbstractIterator<T> {
+
+        private final String _seriesId;
+        private final long _lastBucket;
+        private final byte[] _from;
+        private final byte[] _to;
+        private final int _pageSize;
+        private final boolean _reversed;
+        private final ColumnParent _parent = new ColumnParent();
+        private final List<Deadline> _deadlines = Deadline.capture();
+
+        private long _bucket;
+        private byte[] _pageStart;
+        private boolean _bucketExhausted;
+        private Iterator<Column> _page = ImmutableList.<Column>of().iterator();
+
+        WindowIterator( final String seriesId, final long from, final long to, final int pageSize, final boolean reversed ) {
+            _seriesId = seriesId;
+            _from = encodeTimestamp( from );
+            _to = encodeTimestamp( to );
+            _pageSize = pageSize;
+            _reversed = reversed;
+            _bucket = bucketOf( reversed ? to : from );
+            _lastBucket = bucketOf( reversed ? from : to );
+            _bucketExhausted = from > to;
+            _parent.setColumn_family( _columnFamily );
+        }
+
+        @Override
+        protected T computeNext() {
+            while ( !_page.hasNext() ) {
+                if ( _bucketExhausted ) {
+                    if ( _reversed ? _bucket <= _lastBucket : _bucket >= _lastBucket ) {
+                        return endOfData();
+                    }
+                    _bucket += _reversed ? -_bucketSize : _bucketSize;
+                    _pageStart = null;
+                    _bucketExhausted = false;
+                }
+                fetchPage();
+            }
+            final Column column = _page.next();
+            return _dao.applyColumns( _seriesId, PackedColumns.unpack( column.value, column.timestamp ) );
+        }
+
+        private void fetchPage() {
+            final boolean followUp = _pageStart != null;
+            final int requested = followUp ? _pageSize + 1 : _pageSize;
+            final SlicePredicate predicate = new SlicePredicate();
+            predicate.setSlice_range( new SliceRange( followUp ? _pageStart : ( _reversed ? _to : _from ),
+                    _reversed ? _from : _to, _reversed, requested ) );
+            final String rowKey = rowKey( _seriesId, _bucket );
+
+            final List<Column> columns;
+            Deadline.enter( _deadlines );
+            try {
+                columns = _dao.execute( "getSeriesSlice", true, new Command<List<Column>>(){
+                    @Override
+                    public List<Column> execute(final Keyspace ks) throws Exception {
+                        try {
+                            return ks.getSlice( rowKey, _parent, predicate );
+                        } catch ( final NotFoundException e ) {
+                            return ImmutableList.of();
+                        }
+                    }
+                } );
+            } finally {
+                Deadline.exit( _deadlines );
+            }
+
+            _bucketExhausted = columns.size() < requested;
+            final boolean skipFirst = followUp && !columns.isEmpty() && Arrays.equals( columns.get( 0 ).name, _pageStart );
+            if ( !columns.isEmpty() ) {
+                _pageStart = columns.get( columns.size() - 1 ).name;
+            }
+            _page = ( skipFirst ? columns.subList( 1, columns.size() ) : columns ).iterator();
+        }
+
+    }
+
+}
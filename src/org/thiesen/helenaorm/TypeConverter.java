@@ -35,6 +35,17 @@ import com.google.common.collect.ImmutableMap;
 class TypeConverter {
 
     private static final byte[] EMPTY_BYTES = new byte[0];
+
+    private static final ImmutableMap<Class<?>, Class<?>> PRIMITIVE_WRAPPERS = ImmutableMap.<Class<?>, Class<?>>builder()
+            .put( boolean.class, Boolean.class )
+            .put( byte.class, Byte.class )
+            .put( char.class, Character.class )
+            .put( short.class, Short.class )
+            .put( int.class, Integer.class )
+            .put( long.class, Long.class )
+            .put( float.class, Float.class )
+            .put( double.class, Double.class )
+            .build();
     
     private final ImmutableMap<Class<?>, TypeMapping<?>> _typeMappings;
     private final SerializeUnknownClasses _serializationPolicy;
@@ -98,8 +109,12 @@ class TypeConverter {
         if ( returnType.isEnum() ) {
             return makeEnumInstance( returnType, value );
         }
-        if ( Serializable.class.isAssignableFrom( returnType ) ) {
-            return returnType.cast( deserialize( value ) );
+        if ( Serializable.class.isAssignableFrom( returnType ) || returnType.isInterface() ) {
+            final Object deserialized = deserialize( value );
+            if ( !returnType.isInstance( deserialized ) ) {
+                throw new HelenaRuntimeException( "Stored " + deserialized.getClass() + " is not a " + returnType );
+            }
+            return deserialized;
         }
 
         throw new HelenaRuntimeException("Can not handle type " + returnType.getClass() + ", maybe you have getters and setters with different Types? Otherwise, add a Type mapping");
@@ -145,6 +160,54 @@ class TypeConverter {
 
 
 
+    /**
+     * Resolves the conversion for a declared property type up front. Types
+     * with a mapping use it directly, everything else keeps the dynamic
+     * dispatch on the runtime class of the value.
+     */
+    PropertyCodec codecFor( final Class<?> declaredType ) {
+        final Class<?> type = declaredType.isPrimitive() ? PRIMITIVE_WRAPPERS.get( declaredType ) : declaredType;
+        @SuppressWarnings( "unchecked" )
+        final TypeMapping<Object> mapping = (TypeMapping<Object>) _typeMappings.get( type );
+        if ( mapping != null ) {
+            return new PropertyCodec() {
+                @Override
+                public byte[] encode( final Object value ) {
+                    return value == null ? EMPTY_BYTES : mapping.toBytes( value );
+                }
+
+                @Override
+                public Object decode( final byte[] value ) {
+                    return mapping.fromBytes( value );
+                }
+            };
+        }
+        return new PropertyCodec() {
+            @Override
+            public byte[] encode( final Object value ) {
+                return convertValueObjectToByteArray( value );
+            }
+
+            @Override
+            public Object decode( final byte[] value ) {
+                // empty columns are how null values are written
+                return value.length == 0 ? null : convertByteArrayToValueObject( type, value );
+            }
+        };
+    }
+
+    /**
+     * @return whether values of the declared type can be written and read
+     *         back: it has a type mapping, is an enum, or is serializable, or
+     *         an interface whose implementations may be, if unknown classes
+     *         are serialized
+     */
+    boolean isMappable( final Class<?> declaredType ) {
+        final Class<?> type = declaredType.isPrimitive() ? PRIMITIVE_WRAPPERS.get( declaredType ) : declaredType;
+        return _typeMappings.containsKey( type ) || type.isEnum() || _serializationPolicy == SerializeUnknownClasses.YES
+            && ( Serializable.class.isAssignableFrom( type ) || type.isInterface() );
+    }
+
     public Function<String,byte[]> toByteArrayFunction() {
         return new Function<String, byte[]>() {
 
@@ -0,0 +1,99 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+/**
+ * What a {@link HelenaORMDAOFactory#warmup(String...)} did and how long it
+ * took.
+ */
+public final class WarmupReport {
+
+    private static final int SLOWEST_SHOWN = 5;
+
+    private final int _classCount;
+    private final long _discoveryMillis;
+    private final long _buildMillis;
+    private final ImmutableMap<Class<?>, Long> _buildMillisByClass;
+
+    WarmupReport( final int classCount, final long discoveryMillis, final long buildMillis,
+            final Map<Class<?>, Long> buildMillisByClass ) {
+        _classCount = classCount;
+        _discoveryMillis = discoveryMillis;
+        _buildMillis = buildMillis;
+        _buildMillisByClass = ImmutableMap.copyOf( buildMillisByClass );
+    }
+
+    /**
+     * @return the number of classes found or given, including those whose DAO existed before
+     */
+    public int getClassCount() {
+        return _classCount;
+    }
+
+    /**
+     * @return the time spent scanning the classpath, 0 if the classes were given
+     */
+    public long getDiscoveryMillis() {
+        return _discoveryMillis;
+    }
+
+    /**
+     * @return the wall clock time spent building DAOs in parallel
+     */
+    public long getBuildMillis() {
+        return _buildMillis;
+    }
+
+    /**
+     * @return the build time of every DAO built by the warmup
+     */
+    public Map<Class<?>, Long> getBuildMillisByClass() {
+        return _buildMillisByClass;
+    }
+
+    @Override
+    public String toString() {
+        final List<Map.Entry<Class<?>, Long>> slowest = Lists.newArrayList( _buildMillisByClass.entrySet() );
+        Collections.sort( slowest, new Comparator<Map.Entry<Class<?>, Long>>() {
+            @Override
+            public int compare( final Map.Entry<Class<?>, Long> left, final Map.Entry<Class<?>, Long> right ) {
+                return right.getValue().compareTo( left.getValue() );
+            }
+        } );
+        final StringBuilder result = new StringBuilder( "Warmed up " ).append( _buildMillisByClass.size() ).append( " of " )
+            .append( _classCount ).append( " DAOs, discovery " ).append( _discoveryMillis ).append( "ms, build " )
+            .append( _buildMillis ).append( "ms" );
+        for ( int i = 0; i < Math.min( SLOWEST_SHOWN, slowest.size() ); i++ ) {
+            result.append( i == 0 ? ", slowest " : ", " ).append( slowest.get( i ).getKey().getName() ).append( ' ' )
+                .append( slowest.get( i ).getValue() ).append( "ms" );
+        }
+        return result.toString();
+    }
+
+}
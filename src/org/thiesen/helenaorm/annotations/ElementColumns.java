@@ -0,0 +1,41 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stores a {@link java.util.Set} or {@link java.util.Map} property as one
+ * column per element instead of a single serialized value. Set elements
+ * become columns named <code>&lt;property&gt;:&lt;element&gt;</code>, map
+ * entries columns named <code>&lt;property&gt;:&lt;key&gt;</code> holding
+ * the value, so single elements can be added and removed without rewriting
+ * the collection.
+ * 
+ * Inserting the entity writes the elements it currently holds but does not
+ * delete elements stored earlier, use the element operations of
+ * {@link org.thiesen.helenaorm.HelenaDAO} to remove them.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ElementColumns {
+    // annotation
+}
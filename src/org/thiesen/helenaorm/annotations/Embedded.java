@@ -0,0 +1,40 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Flattens a nested bean into the row of its owner. Every property of the
+ * nested bean is stored in its own column named
+ * <code>&lt;property&gt;.&lt;nested property&gt;</code>, e.g.
+ * <code>address.city</code>, using the same type mappings as top level
+ * properties. Nested beans may embed further beans.
+ * 
+ * A nested bean is only created on read if at least one of its columns
+ * holds a value, so a null bean stays null. Nested beans need a public
+ * constructor without arguments.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Embedded {
+    // annotation
+}
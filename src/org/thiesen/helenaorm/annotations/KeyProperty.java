@@ -23,7 +23,18 @@ package org.thiesen.helenaorm.annotations;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
+/**
+ * Marks the property holding the row key. Several properties form a
+ * composite key, ordered by their {@link #position()}; rows then sort by the
+ * first key property, then the second and so on, and rows sharing their
+ * leading key properties can be scanned as one range.
+ */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface KeyProperty {
-    // annotation
+
+    /**
+     * @return the position of the property in a composite key, unique per entity
+     */
+    int position() default 0;
+
 }
@@ -0,0 +1,42 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Leaves a property out of regular reads, for large values most reads do
+ * not need. Entities are read with the property null, use
+ * {@link org.thiesen.helenaorm.HelenaDAO#loadLazy(Object, String)} or
+ * {@link org.thiesen.helenaorm.HelenaDAO#loadLazy(Iterable, String)} to
+ * fill it in.
+ * 
+ * Inserting an entity whose lazy property is null does not write its
+ * column, so storing an entity read without it keeps the stored value.
+ * Lazy properties must not be the key or super column, and entities with
+ * {@link ElementColumns} can not have lazy properties as their rows are
+ * always read whole.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Lazy {
+    // annotation
+}
@@ -0,0 +1,39 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.annotations;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Stores the entities of a series as columns of wide rows instead of one row
+ * per entity, see {@link org.thiesen.helenaorm.TimeSeriesDAO}. The
+ * {@link KeyProperty} identifies the series, the {@link TimestampProperty}
+ * orders the entities within it.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TimeSeries {
+    /**
+     * Width of the time bucket kept in one row, in the unit of the
+     * timestamp property (milliseconds for {@link java.util.Date}).
+     */
+    long bucketSize();
+}
@@ -72,6 +72,10 @@ public class Main {
         userDAO.insert( normalUseress );
         
         System.out.println( userDAO.get( UserType.USER.toString(), ImmutableList.of( "jane73", "joex20" ) ) );
+
+        for ( final User user : userDAO.getSuperRangePaged( UserType.USER.toString(), null, null, false, 100 ) ) {
+            System.out.println( user );
+        }
     }
 
     private static void simpleExample() {
@@ -0,0 +1,386 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+import org.thiesen.helenaorm.EntityMapper;
+import org.thiesen.helenaorm.annotations.Embedded;
+import org.thiesen.helenaorm.annotations.HelenaBean;
+import org.thiesen.helenaorm.annotations.KeyProperty;
+import org.thiesen.helenaorm.annotations.SuperColumnProperty;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * Generates an {@link EntityMapper} with direct accessor calls for every
+ * class annotated with {@link org.thiesen.helenaorm.annotations.HelenaBean},
+ * and fails the build for mappings that would only break at runtime: a
+ * missing @KeyProperty or two sharing a position, getters and setters of different
+ * types, or a missing public default constructor. Beans referenced through
+ * {@link org.thiesen.helenaorm.annotations.Embedded} properties get a mapper
+ * as well.
+ * 
+ * The processor is registered through META-INF/services, putting the
+ * HelenaORM jar on the compile classpath is enough to activate it.
+ */
+@SupportedAnnotationTypes( {
+    "org.thiesen.helenaorm.annotations.Embedded",
+    "org.thiesen.helenaorm.annotations.HelenaBean",
+    "org.thiesen.helenaorm.annotations.KeyProperty",
+    "org.thiesen.helenaorm.annotations.SuperColumnProperty"
+} )
+public class HelenaBeanProcessor extends AbstractProcessor {
+
+    private final Set<String> _generated = Sets.newHashSet();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process( final Set<? extends TypeElement> annotations, final RoundEnvironment roundEnv ) {
+        for ( final Element element : roundEnv.getElementsAnnotatedWith( HelenaBean.class ) ) {
+            if ( element.getKind() != ElementKind.CLASS ) {
+                error( element, "@HelenaBean can only be applied to classes" );
+                continue;
+            }
+            final TypeElement type = (TypeElement) element;
+            final List<Property> properties = Lists.newArrayList();
+            final boolean consistent = collectProperties( type, properties );
+            if ( validate( type, properties ) && consistent ) {
+                generate( type, properties );
+            }
+            processEmbedded( type, properties );
+        }
+        return true;
+    }
+
+    /**
+     * Pairs getters and setters the way java.beans.Introspector does.
+     * 
+     * @param mapped receives the read/write properties ordered by name
+     * @return false if an error was reported
+     */
+    private boolean collectProperties( final TypeElement type, final List<Property> mapped ) {
+        final SortedMap<String, Property> properties = Maps.newTreeMap();
+        final Map<String, ExecutableElement> setters = Maps.newHashMap();
+
+        for ( final ExecutableElement method : ElementFilter.methodsIn( processingEnv.getElementUtils().getAllMembers( type ) ) ) {
+            if ( !method.getModifiers().contains( Modifier.PUBLIC ) || method.getModifiers().contains( Modifier.STATIC ) ) {
+                continue;
+            }
+            final String name = method.getSimpleName().toString();
+            final int parameters = method.getParameters().size();
+            final TypeMirror returnType = method.getReturnType();
+
+            if ( parameters == 0 && name.startsWith( "get" ) && name.length() > 3 && returnType.getKind() != TypeKind.VOID ) {
+                property( properties, name.substring( 3 ) )._getter = method;
+            } else if ( parameters == 0 && name.startsWith( "is" ) && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN ) {
+                property( properties, name.substring( 2 ) )._getter = method;
+            } else if ( parameters == 1 && name.startsWith( "set" ) && name.length() > 3 && returnType.getKind() == TypeKind.VOID ) {
+                final ExecutableElement previous = setters.put( name, method );
+                if ( previous == null ) {
+                    property( properties, name.substring( 3 ) )._setter = method;
+                }
+            }
+        }
+
+        boolean valid = true;
+        for ( final Property property : properties.values() ) {
+            if ( property._getter == null || property._setter == null ) {
+                continue;
+            }
+            final TypeMirror getterType = property._getter.getReturnType();
+            final TypeMirror setterType = property._setter.getParameters().get( 0 ).asType();
+            if ( !processingEnv.getTypeUtils().isSameType( getterType, setterType ) ) {
+                error( property._setter, "Setter of property " + property._name + " in " + type.getQualifiedName()
+                        + " takes " + setterType + " but the getter returns " + getterType );
+                valid = false;
+                continue;
+            }
+            property._type = getterType;
+            mapped.add( property );
+        }
+        return valid;
+    }
+
+    private Property property( final Map<String, Property> properties, final String capitalized ) {
+        final String name = decapitalize( capitalized );
+        Property property = properties.get( name );
+        if ( property == null ) {
+            property = new Property( name );
+            properties.put( name, property );
+        }
+        return property;
+    }
+
+    private static String decapitalize( final String name ) {
+        if ( name.length() > 1 && Character.isUpperCase( name.charAt( 1 ) ) && Character.isUpperCase( name.charAt( 0 ) ) ) {
+            return name;
+        }
+        return Character.toLowerCase( name.charAt( 0 ) ) + name.substring( 1 );
+    }
+
+    /**
+     * Generates mappers for the beans of all @Embedded properties, following
+     * nested @Embedded properties. Each bean is handled once per compilation.
+     */
+    private void processEmbedded( final TypeElement owner, final List<Property> properties ) {
+        for ( final Property property : properties ) {
+            if ( !property.isAnnotated( Embedded.class ) ) {
+                continue;
+            }
+            if ( property._type.getKind() != TypeKind.DECLARED ) {
+                error( property._getter, "@Embedded property " + property._name + " in " + owner.getQualifiedName() + " must be a bean, not " + property._type );
+                continue;
+            }
+            final TypeElement type = (TypeElement) processingEnv.getTypeUtils().asElement( property._type );
+            final String binaryName = processingEnv.getElementUtils().getBinaryName( type ).toString();
+            if ( !_generated.add( binaryName ) ) {
+                continue;
+            }
+            final List<Property> nested = Lists.newArrayList();
+            final boolean consistent = collectProperties( type, nested );
+            final boolean valid = validateClass( type, "@Embedded bean" ) && consistent;
+            if ( valid && processingEnv.getElementUtils().getTypeElement( mapperNameOf( type ) ) == null ) {
+                generate( type, nested );
+            }
+            processEmbedded( type, nested );
+        }
+    }
+
+    private boolean validate( final TypeElement type, final List<Property> properties ) {
+        _generated.add( processingEnv.getElementUtils().getBinaryName( type ).toString() );
+        boolean valid = validateClass( type, "@HelenaBean" );
+
+        int keys = 0;
+        int superColumns = 0;
+        final Set<Integer> keyPositions = Sets.newHashSet();
+        for ( final Property property : properties ) {
+            if ( property.isAnnotated( KeyProperty.class ) ) {
+                keys++;
+                if ( !keyPositions.add( Integer.valueOf( property.keyPosition() ) ) ) {
+                    error( property._getter, "@KeyProperty " + property._name + " of " + type.getQualifiedName()
+                            + " shares its position " + property.keyPosition() + " with another key property" );
+                    valid = false;
+                }
+            }
+            if ( property.isAnnotated( SuperColumnProperty.class ) ) {
+                superColumns++;
+            }
+        }
+        if ( keys == 0 ) {
+            error( type, "@HelenaBean " + type.getQualifiedName() + " needs a read/write property annotated with @KeyProperty" );
+            valid = false;
+        }
+        if ( superColumns > 1 ) {
+            error( type, "@HelenaBean " + type.getQualifiedName() + " has more than one @SuperColumnProperty" );
+            valid = false;
+        }
+        return valid;
+    }
+
+    private boolean validateClass( final TypeElement type, final String kind ) {
+        boolean valid = true;
+        if ( !type.getModifiers().contains( Modifier.PUBLIC ) || type.getModifiers().contains( Modifier.ABSTRACT ) ) {
+            error( type, kind + " " + type.getQualifiedName() + " must be a public, non-abstract class" );
+            valid = false;
+        }
+        if ( type.getNestingKind().isNested() && !type.getModifiers().contains( Modifier.STATIC ) ) {
+            error( type, kind + " " + type.getQualifiedName() + " must not be an inner class, make it static" );
+            valid = false;
+        }
+        if ( !hasPublicDefaultConstructor( type ) ) {
+            error( type, kind + " " + type.getQualifiedName() + " needs a public constructor without arguments" );
+            valid = false;
+        }
+        return valid;
+    }
+
+    private boolean hasPublicDefaultConstructor( final TypeElement type ) {
+        for ( final ExecutableElement constructor : ElementFilter.constructorsIn( type.getEnclosedElements() ) ) {
+            if ( constructor.getParameters().isEmpty() && constructor.getModifiers().contains( Modifier.PUBLIC ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void generate( final TypeElement type, final List<Property> properties ) {
+        final String packageName = packageOf( type );
+        final String mapperName = mapperNameOf( type ).substring( packageName.isEmpty() ? 0 : packageName.length() + 1 );
+        final String entity = type.getQualifiedName().toString();
+
+        final StringBuilder src = new StringBuilder();
+        if ( !packageName.isEmpty() ) {
+            src.append( "package " ).append( packageName ).append( ";\n\n" );
+        }
+        src.append( "/**\n * Generated by " ).append( getClass().getName() ).append( " for {@link " ).append( entity ).append( "}, do not edit.\n */\n" );
+        src.append( "@SuppressWarnings( \"unchecked\" )\n" );
+        src.append( "public final class " ).append( mapperName ).append( " implements " ).append( EntityMapper.class.getName() )
+           .append( "<" ).append( entity ).append( "> {\n\n" );
+
+        src.append( "    private static final String[] NAMES = {" );
+        for ( int i = 0; i < properties.size(); i++ ) {
+            src.append( i == 0 ? " " : ", " ).append( '"' ).append( properties.get( i )._name ).append( '"' );
+        }
+        src.append( " };\n" );
+        src.append( "    private static final Class<?>[] TYPES = {" );
+        for ( int i = 0; i < properties.size(); i++ ) {
+            src.append( i == 0 ? " " : ", " ).append( erasure( properties.get( i )._type ) ).append( ".class" );
+        }
+        src.append( " };\n\n" );
+
+        src.append( "    @Override\n    public Class<" ).append( entity ).append( "> getEntityClass() {\n        return " )
+           .append( entity ).append( ".class;\n    }\n\n" );
+        src.append( "    @Override\n    public " ).append( entity ).append( " newInstance() {\n        return new " )
+           .append( entity ).append( "();\n    }\n\n" );
+        src.append( "    @Override\n    public String[] getPropertyNames() {\n        return NAMES.clone();\n    }\n\n" );
+        src.append( "    @Override\n    public Class<?>[] getPropertyTypes() {\n        return TYPES.clone();\n    }\n\n" );
+        src.append( "    @Override\n    public int getKeyProperty() {\n        return " ).append( ordinalOf( properties, KeyProperty.class ) )
+           .append( ";\n    }\n\n" );
+        src.append( "    @Override\n    public int getSuperColumnProperty() {\n        return " )
+           .append( ordinalOf( properties, SuperColumnProperty.class ) ).append( ";\n    }\n\n" );
+
+        src.append( "    @Override\n    public Object get( final " ).append( entity ).append( " entity, final int property ) {\n" );
+        src.append( "        switch ( property ) {\n" );
+        for ( int i = 0; i < properties.size(); i++ ) {
+            src.append( "        case " ).append( i ).append( ": return entity." ).append( properties.get( i )._getter.getSimpleName() ).append( "();\n" );
+        }
+        src.append( "        default: throw new IndexOutOfBoundsException( \"No property with ordinal \" + property );\n" );
+        src.append( "        }\n    }\n\n" );
+
+        src.append( "    @Override\n    public void set( final " ).append( entity ).append( " entity, final int property, final Object value ) {\n" );
+        src.append( "        switch ( property ) {\n" );
+        for ( int i = 0; i < properties.size(); i++ ) {
+            final Property property = properties.get( i );
+            src.append( "        case " ).append( i ).append( ":\n" );
+            if ( property._type.getKind().isPrimitive() ) {
+                final String boxed = processingEnv.getTypeUtils().boxedClass( processingEnv.getTypeUtils().getPrimitiveType( property._type.getKind() ) )
+                    .getQualifiedName().toString();
+                src.append( "            if ( value != null ) {\n                entity." ).append( property._setter.getSimpleName() )
+                   .append( "( ( (" ).append( boxed ).append( ") value )." ).append( property._type ).append( "Value() );\n            }\n" );
+            } else {
+                src.append( "            entity." ).append( property._setter.getSimpleName() ).append( "( (" ).append( castType( property._type ) )
+                   .append( ") value );\n" );
+            }
+            src.append( "            return;\n" );
+        }
+        src.append( "        default: throw new IndexOutOfBoundsException( \"No property with ordinal \" + property );\n" );
+        src.append( "        }\n    }\n\n}\n" );
+
+        try {
+            final JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                    packageName.isEmpty() ? mapperName : packageName + "." + mapperName, type );
+            final Writer writer = file.openWriter();
+            try {
+                writer.write( src.toString() );
+            } finally {
+                writer.close();
+            }
+        } catch ( final IOException e ) {
+            error( type, "Could not write " + mapperName + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @return the fully qualified name of the mapper, as looked up at runtime
+     */
+    private String mapperNameOf( final TypeElement type ) {
+        return processingEnv.getElementUtils().getBinaryName( type ).toString().replace( '$', '_' ) + EntityMapper.MAPPER_SUFFIX;
+    }
+
+    private String packageOf( final TypeElement type ) {
+        final PackageElement pkg = processingEnv.getElementUtils().getPackageOf( type );
+        return pkg.isUnnamed() ? "" : pkg.getQualifiedName().toString();
+    }
+
+    private String erasure( final TypeMirror type ) {
+        return processingEnv.getTypeUtils().erasure( type ).toString();
+    }
+
+    /**
+     * Type variables can not be cast to, their erasure is used instead.
+     */
+    private String castType( final TypeMirror type ) {
+        return type.getKind() == TypeKind.TYPEVAR ? erasure( type ) : type.toString();
+    }
+
+    private int ordinalOf( final List<Property> properties, final Class<? extends Annotation> annotation ) {
+        for ( int i = 0; i < properties.size(); i++ ) {
+            if ( properties.get( i ).isAnnotated( annotation ) ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void error( final Element element, final String message ) {
+        processingEnv.getMessager().printMessage( Kind.ERROR, message, element );
+    }
+
+    private static final class Property {
+        private final String _name;
+        private ExecutableElement _getter;
+        private ExecutableElement _setter;
+        private TypeMirror _type;
+
+        Property( final String name ) {
+            _name = name;
+        }
+
+        boolean isAnnotated( final Class<? extends Annotation> annotation ) {
+            return _getter.getAnnotation( annotation ) != null || _setter.getAnnotation( annotation ) != null;
+        }
+
+        int keyPosition() {
+            final KeyProperty key = _getter.getAnnotation( KeyProperty.class );
+            return key != null ? key.position() : _setter.getAnnotation( KeyProperty.class ).position();
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.reactive;
+
+/**
+ * A provider of a potentially unbounded number of elements, published
+ * according to the demand signalled by its subscribers.
+ * 
+ * The interfaces of this package mirror those of Reactive Streams 1.0
+ * (<code>org.reactivestreams</code>) method by method, so adapting them to
+ * any reactive library takes a few lines, without HelenaORM depending on it.
+ */
+public interface Publisher<T> {
+
+    /**
+     * Starts streaming to the subscriber, beginning with a call to
+     * {@link Subscriber#onSubscribe(Subscription)}. Each subscription
+     * produces the elements anew.
+     */
+    void subscribe( Subscriber<? super T> subscriber );
+
+}
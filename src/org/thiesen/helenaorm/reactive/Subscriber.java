@@ -0,0 +1,44 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.reactive;
+
+/**
+ * Receives the elements of a {@link Publisher}. Calls are never made
+ * concurrently, and no element is delivered that was not requested through
+ * the {@link Subscription}.
+ */
+public interface Subscriber<T> {
+
+    void onSubscribe( Subscription subscription );
+
+    void onNext( T element );
+
+    /**
+     * Terminal signal after a failure, no further calls follow.
+     */
+    void onError( Throwable failure );
+
+    /**
+     * Terminal signal after the last element, no further calls follow.
+     */
+    void onComplete();
+
+}
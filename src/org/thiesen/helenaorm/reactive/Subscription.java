@@ -0,0 +1,41 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.reactive;
+
+/**
+ * The link between one {@link Publisher} and one {@link Subscriber}.
+ */
+public interface Subscription {
+
+    /**
+     * Adds to the number of elements the subscriber is ready to receive.
+     * Requests of zero or less terminate the subscription with an
+     * {@link IllegalArgumentException}.
+     */
+    void request( long count );
+
+    /**
+     * Stops the delivery of elements. Elements already in flight may still
+     * arrive.
+     */
+    void cancel();
+
+}
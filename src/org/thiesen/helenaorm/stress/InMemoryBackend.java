@@ -0,0 +1,64 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import me.prettyprint.cassandra.dao.Command;
+
+import org.thiesen.helenaorm.CassandraBackend;
+
+/**
+ * Executes commands on keyspaces held in memory by this backend, so DAOs can
+ * be exercised without a Cassandra node, see {@link InMemoryKeyspace} for
+ * how closely it follows Cassandra.
+ * 
+ * <pre>
+ * final HelenaORMDAOFactory factory = HelenaORMDAOFactory.withConfig( "localhost", 9160 )
+ *     .withBackend( new InMemoryBackend() );
+ * </pre>
+ */
+public final class InMemoryBackend implements CassandraBackend {
+
+    private final ConcurrentMap<String, InMemoryKeyspace> _keyspaces = new ConcurrentHashMap<String, InMemoryKeyspace>();
+
+    @Override
+    public <V> V execute( final Command<V> command, final String keyspace ) throws Exception {
+        return command.execute( keyspace( keyspace ) );
+    }
+
+    private InMemoryKeyspace keyspace( final String name ) {
+        final InMemoryKeyspace existing = _keyspaces.get( name );
+        if ( existing != null ) {
+            return existing;
+        }
+        final InMemoryKeyspace created = new InMemoryKeyspace( name );
+        final InMemoryKeyspace raced = _keyspaces.putIfAbsent( name, created );
+        return raced == null ? created : raced;
+    }
+
+    @Override
+    public String getName() {
+        return "in-memory";
+    }
+
+}
@@ -0,0 +1,437 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import me.prettyprint.cassandra.service.CassandraClient;
+import me.prettyprint.cassandra.service.CassandraClient.FailoverPolicy;
+import me.prettyprint.cassandra.service.Keyspace;
+
+import org.apache.cassandra.service.Column;
+import org.apache.cassandra.service.ColumnParent;
+import org.apache.cassandra.service.ColumnPath;
+import org.apache.cassandra.service.ConsistencyLevel;
+import org.apache.cassandra.service.NotFoundException;
+import org.apache.cassandra.service.SlicePredicate;
+import org.apache.cassandra.service.SliceRange;
+import org.apache.cassandra.service.SuperColumn;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+/**
+ * A keyspace held in memory, implementing the parts of the Hector keyspace
+ * the DAOs use. Rows are ordered by key like with the order preserving
+ * partitioner, columns and super columns compare as unsigned bytes. A write
+ * only replaces columns with an older or equal timestamp. Removes take
+ * effect immediately, removed rows remain as empty rows in range slices
+ * like Cassandra's range ghosts.
+ */
+final class InMemoryKeyspace implements Keyspace {
+
+    private static final Comparator<byte[]> BYTES = new Comparator<byte[]>() {
+        @Override
+        public int compare( final byte[] left, final byte[] right ) {
+            final int length = Math.min( left.length, right.length );
+            for ( int i = 0; i < length; i++ ) {
+                final int difference = ( left[i] & 0xff ) - ( right[i] & 0xff );
+                if ( difference != 0 ) {
+                    return difference;
+                }
+            }
+            return left.length - right.length;
+        }
+    };
+
+    private final String _name;
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, Row>> _columnFamilies =
+        new ConcurrentHashMap<String, ConcurrentNavigableMap<String, Row>>();
+
+    InMemoryKeyspace( final String name ) {
+        _name = name;
+    }
+
+    /**
+     * The columns of a standard row or the super columns of a super row,
+     * guarded by the row itself.
+     */
+    private static final class Row {
+        private final TreeMap<byte[], Column> _columns = new TreeMap<byte[], Column>( BYTES );
+        private final TreeMap<byte[], TreeMap<byte[], Column>> _superColumns = new TreeMap<byte[], TreeMap<byte[], Column>>( BYTES );
+    }
+
+    private ConcurrentNavigableMap<String, Row> columnFamily( final String name ) {
+        final ConcurrentNavigableMap<String, Row> existing = _columnFamilies.get( name );
+        if ( existing != null ) {
+            return existing;
+        }
+        final ConcurrentNavigableMap<String, Row> created = new ConcurrentSkipListMap<String, Row>();
+        final ConcurrentNavigableMap<String, Row> raced = _columnFamilies.putIfAbsent( name, created );
+        return raced == null ? created : raced;
+    }
+
+    private Row row( final String columnFamily, final String key ) {
+        final ConcurrentNavigableMap<String, Row> rows = columnFamily( columnFamily );
+        final Row existing = rows.get( key );
+        if ( existing != null ) {
+            return existing;
+        }
+        final Row created = new Row();
+        final Row raced = rows.putIfAbsent( key, created );
+        return raced == null ? created : raced;
+    }
+
+    /**
+     * @return the row or null, never creating one for a read
+     */
+    private Row existingRow( final String columnFamily, final String key ) {
+        final ConcurrentNavigableMap<String, Row> rows = _columnFamilies.get( columnFamily );
+        return rows == null ? null : rows.get( key );
+    }
+
+    /**
+     * @return the selected entries in slice order
+     */
+    private static <V> List<Map.Entry<byte[], V>> slice( final NavigableMap<byte[], V> columns, final SlicePredicate predicate ) {
+        final List<Map.Entry<byte[], V>> result = Lists.newArrayList();
+        if ( predicate.column_names != null ) {
+            final Set<byte[]> names = Sets.newTreeSet( BYTES );
+            names.addAll( predicate.column_names );
+            for ( final byte[] name : names ) {
+                final V column = columns.get( name );
+                if ( column != null ) {
+                    result.add( Maps.immutableEntry( name, column ) );
+                }
+            }
+            return result;
+        }
+        final SliceRange range = predicate.slice_range;
+        NavigableMap<byte[], V> view = range.reversed ? columns.descendingMap() : columns;
+        if ( range.start.length > 0 ) {
+            view = view.tailMap( range.start, true );
+        }
+        if ( range.finish.length > 0 ) {
+            view = view.headMap( range.finish, true );
+        }
+        for ( final Map.Entry<byte[], V> column : view.entrySet() ) {
+            if ( result.size() >= range.count ) {
+                break;
+            }
+            result.add( column );
+        }
+        return result;
+    }
+
+    private static List<Column> values( final List<Map.Entry<byte[], Column>> columns ) {
+        final List<Column> result = Lists.newArrayListWithCapacity( columns.size() );
+        for ( final Map.Entry<byte[], Column> column : columns ) {
+            result.add( column.getValue() );
+        }
+        return result;
+    }
+
+    private static List<Column> columnSlice( final Row row, final ColumnParent parent, final SlicePredicate predicate ) {
+        if ( row == null ) {
+            return Lists.newArrayList();
+        }
+        synchronized ( row ) {
+            if ( parent.super_column == null ) {
+                return values( slice( row._columns, predicate ) );
+            }
+            final TreeMap<byte[], Column> columns = row._superColumns.get( parent.super_column );
+            return columns == null ? Lists.<Column>newArrayList() : values( slice( columns, predicate ) );
+        }
+    }
+
+    private static List<SuperColumn> superSlice( final Row row, final SlicePredicate predicate ) {
+        final List<SuperColumn> result = Lists.newArrayList();
+        if ( row == null ) {
+            return result;
+        }
+        synchronized ( row ) {
+            for ( final Map.Entry<byte[], TreeMap<byte[], Column>> superColumn : slice( row._superColumns, predicate ) ) {
+                result.add( new SuperColumn( superColumn.getKey(), Lists.newArrayList( superColumn.getValue().values() ) ) );
+            }
+        }
+        return result;
+    }
+
+    private static void put( final TreeMap<byte[], Column> columns, final Column column ) {
+        final Column existing = columns.get( column.name );
+        if ( existing == null || existing.timestamp <= column.timestamp ) {
+            columns.put( column.name, column );
+        }
+    }
+
+    @Override
+    public List<Column> getSlice( final String key, final ColumnParent parent, final SlicePredicate predicate ) {
+        return columnSlice( existingRow( parent.column_family, key ), parent, predicate );
+    }
+
+    @Override
+    public List<SuperColumn> getSuperSlice( final String key, final ColumnParent parent, final SlicePredicate predicate ) {
+        return superSlice( existingRow( parent.column_family, key ), predicate );
+    }
+
+    @Override
+    public Map<String, List<Column>> multigetSlice( final List<String> keys, final ColumnParent parent, final SlicePredicate predicate ) {
+        final Map<String, List<Column>> result = Maps.newHashMap();
+        for ( final String key : keys ) {
+            result.put( key, getSlice( key, parent, predicate ) );
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, List<SuperColumn>> multigetSuperSlice( final List<String> keys, final ColumnParent parent,
+            final SlicePredicate predicate ) {
+        final Map<String, List<SuperColumn>> result = Maps.newHashMap();
+        for ( final String key : keys ) {
+            result.put( key, getSuperSlice( key, parent, predicate ) );
+        }
+        return result;
+    }
+
+    private NavigableMap<String, Row> keyRange( final String columnFamily, final String start, final String finish ) {
+        NavigableMap<String, Row> rows = columnFamily( columnFamily );
+        if ( start.length() > 0 ) {
+            rows = rows.tailMap( start, true );
+        }
+        if ( finish.length() > 0 ) {
+            rows = rows.headMap( finish, true );
+        }
+        return rows;
+    }
+
+    @Override
+    public Map<String, List<Column>> getRangeSlice( final ColumnParent parent, final SlicePredicate predicate, final String start,
+            final String finish, final int count ) {
+        final Map<String, List<Column>> result = Maps.newLinkedHashMap();
+        for ( final Map.Entry<String, Row> row : keyRange( parent.column_family, start, finish ).entrySet() ) {
+            if ( result.size() >= count ) {
+                break;
+            }
+            result.put( row.getKey(), columnSlice( row.getValue(), parent, predicate ) );
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, List<SuperColumn>> getSuperRangeSlice( final ColumnParent parent, final SlicePredicate predicate,
+            final String start, final String finish, final int count ) {
+        final Map<String, List<SuperColumn>> result = Maps.newLinkedHashMap();
+        for ( final Map.Entry<String, Row> row : keyRange( parent.column_family, start, finish ).entrySet() ) {
+            if ( result.size() >= count ) {
+                break;
+            }
+            result.put( row.getKey(), superSlice( row.getValue(), predicate ) );
+        }
+        return result;
+    }
+
+    @Override
+    public Column getColumn( final String key, final ColumnPath path ) throws NotFoundException {
+        final Row row = existingRow( path.column_family, key );
+        if ( row != null ) {
+            synchronized ( row ) {
+                final TreeMap<byte[], Column> columns = path.super_column == null ? row._columns : row._superColumns.get( path.super_column );
+                final Column column = columns == null ? null : columns.get( path.column );
+                if ( column != null ) {
+                    return column;
+                }
+            }
+        }
+        throw new NotFoundException();
+    }
+
+    @Override
+    public SuperColumn getSuperColumn( final String key, final ColumnPath path ) throws NotFoundException {
+        return getSuperColumn( key, path, false, Integer.MAX_VALUE );
+    }
+
+    @Override
+    public SuperColumn getSuperColumn( final String key, final ColumnPath path, final boolean reversed, final int size )
+            throws NotFoundException {
+        final Row row = existingRow( path.column_family, key );
+        if ( row != null ) {
+            synchronized ( row ) {
+                final TreeMap<byte[], Column> columns = row._superColumns.get( path.super_column );
+                if ( columns != null ) {
+                    final SlicePredicate predicate = new SlicePredicate();
+                    predicate.setSlice_range( new SliceRange( new byte[0], new byte[0], reversed, size ) );
+                    return new SuperColumn( path.super_column, values( slice( columns, predicate ) ) );
+                }
+            }
+        }
+        throw new NotFoundException();
+    }
+
+    @Override
+    public Map<String, Column> multigetColumn( final List<String> keys, final ColumnPath path ) {
+        final Map<String, Column> result = Maps.newHashMap();
+        for ( final String key : keys ) {
+            try {
+                result.put( key, getColumn( key, path ) );
+            } catch ( final NotFoundException e ) {
+                // missing columns are left out
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, SuperColumn> multigetSuperColumn( final List<String> keys, final ColumnPath path ) {
+        return multigetSuperColumn( keys, path, false, Integer.MAX_VALUE );
+    }
+
+    @Override
+    public Map<String, SuperColumn> multigetSuperColumn( final List<String> keys, final ColumnPath path, final boolean reversed,
+            final int size ) {
+        final Map<String, SuperColumn> result = Maps.newHashMap();
+        for ( final String key : keys ) {
+            try {
+                result.put( key, getSuperColumn( key, path, reversed, size ) );
+            } catch ( final NotFoundException e ) {
+                // missing super columns are left out
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void insert( final String key, final ColumnPath path, final byte[] value ) {
+        final Column column = new Column( path.column, value, System.currentTimeMillis() );
+        if ( path.super_column == null ) {
+            batchInsert( key, ImmutableMap.<String, List<Column>>of( path.column_family, ImmutableList.of( column ) ), null );
+        } else {
+            batchInsert( key, null, ImmutableMap.<String, List<SuperColumn>>of( path.column_family,
+                    ImmutableList.of( new SuperColumn( path.super_column, ImmutableList.of( column ) ) ) ) );
+        }
+    }
+
+    @Override
+    public void batchInsert( final String key, final Map<String, List<Column>> columnMap, final Map<String, List<SuperColumn>> superColumnMap ) {
+        if ( columnMap != null ) {
+            for ( final Map.Entry<String, List<Column>> columnFamily : columnMap.entrySet() ) {
+                final Row row = row( columnFamily.getKey(), key );
+                synchronized ( row ) {
+                    for ( final Column column : columnFamily.getValue() ) {
+                        put( row._columns, column );
+                    }
+                }
+            }
+        }
+        if ( superColumnMap != null ) {
+            for ( final Map.Entry<String, List<SuperColumn>> columnFamily : superColumnMap.entrySet() ) {
+                final Row row = row( columnFamily.getKey(), key );
+                synchronized ( row ) {
+                    for ( final SuperColumn superColumn : columnFamily.getValue() ) {
+                        TreeMap<byte[], Column> columns = row._superColumns.get( superColumn.name );
+                        if ( columns == null ) {
+                            columns = new TreeMap<byte[], Column>( BYTES );
+                            row._superColumns.put( superColumn.name, columns );
+                        }
+                        for ( final Column column : superColumn.columns ) {
+                            put( columns, column );
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void remove( final String key, final ColumnPath path ) {
+        final Row row = existingRow( path.column_family, key );
+        if ( row == null ) {
+            return;
+        }
+        synchronized ( row ) {
+            if ( path.super_column == null && path.column == null ) {
+                row._columns.clear();
+                row._superColumns.clear();
+            } else if ( path.super_column == null ) {
+                row._columns.remove( path.column );
+            } else if ( path.column == null ) {
+                row._superColumns.remove( path.super_column );
+            } else {
+                final TreeMap<byte[], Column> columns = row._superColumns.get( path.super_column );
+                if ( columns != null ) {
+                    columns.remove( path.column );
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getCount( final String key, final ColumnParent parent ) {
+        final Row row = existingRow( parent.column_family, key );
+        if ( row == null ) {
+            return 0;
+        }
+        synchronized ( row ) {
+            if ( parent.super_column == null ) {
+                return row._columns.isEmpty() ? row._superColumns.size() : row._columns.size();
+            }
+            final TreeMap<byte[], Column> columns = row._superColumns.get( parent.super_column );
+            return columns == null ? 0 : columns.size();
+        }
+    }
+
+    @Override
+    public Map<String, Map<String, String>> describeKeyspace() {
+        throw new UnsupportedOperationException( "The in memory keyspace has no schema" );
+    }
+
+    @Override
+    public CassandraClient getClient() {
+        throw new UnsupportedOperationException( "The in memory keyspace has no client" );
+    }
+
+    @Override
+    public int getConsistencyLevel() {
+        return ConsistencyLevel.ONE;
+    }
+
+    @Override
+    public String getName() {
+        return _name;
+    }
+
+    @Override
+    public FailoverPolicy getFailoverPolicy() {
+        return FailoverPolicy.FAIL_FAST;
+    }
+
+}
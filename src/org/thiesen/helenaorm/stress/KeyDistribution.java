@@ -0,0 +1,126 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.Random;
+
+/**
+ * Picks the index of the next key to operate on, between 0 and the number
+ * of keys.
+ */
+abstract class KeyDistribution {
+
+    private static final double DEFAULT_THETA = 0.99;
+
+    abstract long next( Random random );
+
+    /**
+     * @param spec <code>uniform</code>, <code>zipfian</code> or <code>zipfian:&lt;theta&gt;</code>
+     */
+    static KeyDistribution parse( final String spec, final long keys ) {
+        if ( "uniform".equals( spec ) ) {
+            return new Uniform( keys );
+        }
+        if ( "zipfian".equals( spec ) ) {
+            return new Zipfian( keys, DEFAULT_THETA );
+        }
+        if ( spec.startsWith( "zipfian:" ) ) {
+            final double theta;
+            try {
+                theta = Double.parseDouble( spec.substring( "zipfian:".length() ) );
+            } catch ( final NumberFormatException e ) {
+                throw new IllegalArgumentException( "Invalid zipfian exponent in " + spec );
+            }
+            return new Zipfian( keys, theta );
+        }
+        throw new IllegalArgumentException( "Unknown key distribution " + spec + ", expected uniform or zipfian[:theta]" );
+    }
+
+    private static final class Uniform extends KeyDistribution {
+        private final long _keys;
+
+        Uniform( final long keys ) {
+            _keys = keys;
+        }
+
+        @Override
+        long next( final Random random ) {
+            return (long) ( random.nextDouble() * _keys );
+        }
+
+        @Override
+        public String toString() {
+            return "uniform";
+        }
+    }
+
+    /**
+     * Zipfian distribution after Gray et al., "Quickly Generating
+     * Billion-Record Synthetic Databases": key 0 is the most popular, key 1
+     * the second most popular and so on. Precomputing the zeta constant
+     * takes time linear in the number of keys.
+     */
+    private static final class Zipfian extends KeyDistribution {
+        private final long _keys;
+        private final double _theta;
+        private final double _zetaN;
+        private final double _alpha;
+        private final double _eta;
+
+        Zipfian( final long keys, final double theta ) {
+            if ( theta <= 0 || theta >= 1 ) {
+                throw new IllegalArgumentException( "The zipfian exponent must be between 0 and 1, exclusive, got " + theta );
+            }
+            _keys = keys;
+            _theta = theta;
+            _zetaN = zeta( keys, theta );
+            _alpha = 1 / ( 1 - theta );
+            _eta = ( 1 - Math.pow( 2.0 / keys, 1 - theta ) ) / ( 1 - zeta( 2, theta ) / _zetaN );
+        }
+
+        private static double zeta( final long n, final double theta ) {
+            double sum = 0;
+            for ( long i = 1; i <= n; i++ ) {
+                sum += 1 / Math.pow( i, theta );
+            }
+            return sum;
+        }
+
+        @Override
+        long next( final Random random ) {
+            final double u = random.nextDouble();
+            final double uz = u * _zetaN;
+            if ( uz < 1 ) {
+                return 0;
+            }
+            if ( uz < 1 + Math.pow( 0.5, _theta ) ) {
+                return Math.min( 1, _keys - 1 );
+            }
+            return Math.min( _keys - 1, (long) ( _keys * Math.pow( _eta * u - _eta + 1, _alpha ) ) );
+        }
+
+        @Override
+        public String toString() {
+            return "zipfian:" + _theta;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts latencies in microseconds in buckets of about 3% width: exact
+ * below 32us, then 32 equally wide buckets per power of two. Recording is
+ * lock free.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + ( 63 - SUB_BUCKET_BITS ) * SUB_BUCKETS;
+
+    private final AtomicLongArray _counts = new AtomicLongArray( BUCKETS );
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _maxMicros = new AtomicLong();
+
+    void record( final long nanos ) {
+        final long micros = Math.max( 0, nanos / 1000 );
+        _counts.incrementAndGet( bucketOf( micros ) );
+        _count.incrementAndGet();
+        long max = _maxMicros.get();
+        while ( micros > max && !_maxMicros.compareAndSet( max, micros ) ) {
+            max = _maxMicros.get();
+        }
+    }
+
+    private static int bucketOf( final long micros ) {
+        if ( micros < SUB_BUCKETS ) {
+            return (int) micros;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros( micros );
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ( ( micros >>> shift ) - SUB_BUCKETS );
+    }
+
+    /**
+     * @return the middle of the bucket in microseconds
+     */
+    private static long valueOf( final int bucket ) {
+        if ( bucket < SUB_BUCKETS ) {
+            return bucket;
+        }
+        final int shift = ( bucket - SUB_BUCKETS ) / SUB_BUCKETS;
+        final long lower = (long) ( SUB_BUCKETS + ( bucket - SUB_BUCKETS ) % SUB_BUCKETS ) << shift;
+        return lower + ( ( 1L << shift ) >>> 1 );
+    }
+
+    /**
+     * Moves the recorded latencies into a new histogram, leaving this one
+     * empty. Latencies recorded concurrently end up in either of them.
+     */
+    LatencyHistogram drain() {
+        final LatencyHistogram drained = new LatencyHistogram();
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            final long count = _counts.getAndSet( i, 0 );
+            if ( count > 0 ) {
+                drained._counts.set( i, count );
+                drained._count.addAndGet( count );
+            }
+        }
+        _count.addAndGet( -drained._count.get() );
+        drained._maxMicros.set( _maxMicros.getAndSet( 0 ) );
+        return drained;
+    }
+
+    /**
+     * Adds the latencies of a histogram no longer recorded into.
+     */
+    void add( final LatencyHistogram other ) {
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            final long count = other._counts.get( i );
+            if ( count > 0 ) {
+                _counts.addAndGet( i, count );
+            }
+        }
+        _count.addAndGet( other._count.get() );
+        long max = _maxMicros.get();
+        while ( other._maxMicros.get() > max && !_maxMicros.compareAndSet( max, other._maxMicros.get() ) ) {
+            max = _maxMicros.get();
+        }
+    }
+
+    long getCount() {
+        return _count.get();
+    }
+
+    long getMaxMicros() {
+        return _maxMicros.get();
+    }
+
+    long getPercentileMicros( final double percentile ) {
+        final long count = _count.get();
+        if ( count == 0 ) {
+            return 0;
+        }
+        final long rank = Math.max( 1, (long) Math.ceil( count * percentile / 100 ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKETS; i++ ) {
+            seen += _counts.get( i );
+            if ( seen >= rank ) {
+                return Math.min( valueOf( i ), _maxMicros.get() );
+            }
+        }
+        return _maxMicros.get();
+    }
+
+}
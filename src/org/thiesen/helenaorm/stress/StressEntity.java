@@ -0,0 +1,71 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import org.thiesen.helenaorm.annotations.HelenaBean;
+import org.thiesen.helenaorm.annotations.KeyProperty;
+
+/**
+ * The row written and read by the stress tool. It lives in the column
+ * family of the default Cassandra configuration.
+ */
+@HelenaBean( keyspace = "Keyspace1", columnFamily = "Standard1" )
+public class StressEntity {
+
+    private String _id;
+    private String _payload;
+    private Long _version;
+    private Long _updated;
+
+    @KeyProperty
+    public String getId() {
+        return _id;
+    }
+
+    public void setId( final String id ) {
+        _id = id;
+    }
+
+    public String getPayload() {
+        return _payload;
+    }
+
+    public void setPayload( final String payload ) {
+        _payload = payload;
+    }
+
+    public Long getVersion() {
+        return _version;
+    }
+
+    public void setVersion( final Long version ) {
+        _version = version;
+    }
+
+    public Long getUpdated() {
+        return _updated;
+    }
+
+    public void setUpdated( final Long updated ) {
+        _updated = updated;
+    }
+
+}
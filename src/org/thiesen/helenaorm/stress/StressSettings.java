@@ -0,0 +1,244 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The command line options of the {@link StressTool}.
+ */
+final class StressSettings {
+
+    static final String USAGE =
+        "Usage: StressTool [options]\n"
+        + "  --backend thrift|memory   where to run, memory needs no Cassandra node (default thrift)\n"
+        + "  --host <host>             Thrift host (default localhost)\n"
+        + "  --port <port>             Thrift port (default 9160)\n"
+        + "  --threads <n>             client threads (default 8)\n"
+        + "  --rate <ops/s>            target rate over all threads, 0 for as fast as possible (default 0)\n"
+        + "  --duration <seconds>      how long to run (default 60)\n"
+        + "  --operations <n>          stop after this many operations instead, 0 to run for the duration (default 0)\n"
+        + "  --mix read=<w>,write=<w>,scan=<w>  relative weights of the operations (default read=1,write=1)\n"
+        + "  --payload <bytes>         payload size of every written entity (default 256)\n"
+        + "  --keys <n>                number of distinct keys (default 100000)\n"
+        + "  --distribution uniform|zipfian[:theta]  key popularity (default uniform)\n"
+        + "  --scan-rows <n>           rows per scan (default 100)\n"
+        + "  --interval <seconds>      reporting interval (default 1)\n"
+        + "  --populate                write every key once before measuring\n";
+
+    private final boolean _memoryBackend;
+    private final String _host;
+    private final int _port;
+    private final int _threads;
+    private final double _rate;
+    private final long _durationMillis;
+    private final long _operations;
+    private final int[] _weights;
+    private final int _payloadBytes;
+    private final long _keys;
+    private final KeyDistribution _distribution;
+    private final int _scanRows;
+    private final long _intervalMillis;
+    private final boolean _populate;
+
+    private StressSettings( final Map<String, String> options ) {
+        final String backend = option( options, "backend", "thrift" );
+        if ( !"thrift".equals( backend ) && !"memory".equals( backend ) ) {
+            throw new IllegalArgumentException( "Unknown backend " + backend );
+        }
+        _memoryBackend = "memory".equals( backend );
+        _host = option( options, "host", "localhost" );
+        _port = (int) number( options, "port", 9160, 1 );
+        _threads = (int) number( options, "threads", 8, 1 );
+        _rate = number( options, "rate", 0, 0 );
+        _durationMillis = number( options, "duration", 60, 1 ) * 1000;
+        _operations = number( options, "operations", 0, 0 );
+        _weights = parseMix( option( options, "mix", "read=1,write=1" ) );
+        _payloadBytes = (int) number( options, "payload", 256, 0 );
+        _keys = number( options, "keys", 100000, 1 );
+        _distribution = KeyDistribution.parse( option( options, "distribution", "uniform" ), _keys );
+        _scanRows = (int) number( options, "scan-rows", 100, 1 );
+        _intervalMillis = number( options, "interval", 1, 1 ) * 1000;
+        _populate = options.containsKey( "populate" );
+        options.keySet().removeAll( Arrays.asList( "backend", "host", "port", "threads", "rate", "duration", "operations",
+                "mix", "payload", "keys", "distribution", "scan-rows", "interval", "populate" ) );
+        if ( !options.isEmpty() ) {
+            throw new IllegalArgumentException( "Unknown options " + options.keySet() );
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException describing the first invalid option
+     */
+    static StressSettings parse( final String... args ) {
+        final Map<String, String> options = Maps.newHashMap();
+        for ( int i = 0; i < args.length; i++ ) {
+            if ( !args[i].startsWith( "--" ) ) {
+                throw new IllegalArgumentException( "Unexpected argument " + args[i] );
+            }
+            final String name = args[i].substring( 2 );
+            if ( "populate".equals( name ) ) {
+                options.put( name, "" );
+            } else if ( i + 1 < args.length ) {
+                options.put( name, args[++i] );
+            } else {
+                throw new IllegalArgumentException( "Missing value of " + args[i] );
+            }
+        }
+        return new StressSettings( options );
+    }
+
+    private static String option( final Map<String, String> options, final String name, final String defaultValue ) {
+        final String value = options.get( name );
+        return value == null ? defaultValue : value;
+    }
+
+    private static long number( final Map<String, String> options, final String name, final long defaultValue, final long minimum ) {
+        final String value = options.get( name );
+        if ( value == null ) {
+            return defaultValue;
+        }
+        final long parsed;
+        try {
+            parsed = Long.parseLong( value );
+        } catch ( final NumberFormatException e ) {
+            throw new IllegalArgumentException( "--" + name + " expects a number, got " + value );
+        }
+        if ( parsed < minimum ) {
+            throw new IllegalArgumentException( "--" + name + " must be at least " + minimum + ", got " + value );
+        }
+        return parsed;
+    }
+
+    private static int[] parseMix( final String mix ) {
+        final int[] weights = new int[StressTool.Operation.values().length];
+        for ( final String part : mix.split( "," ) ) {
+            final int separator = part.indexOf( '=' );
+            if ( separator < 0 ) {
+                throw new IllegalArgumentException( "Invalid mix " + mix + ", expected e.g. read=3,write=1" );
+            }
+            final StressTool.Operation operation;
+            try {
+                operation = StressTool.Operation.valueOf( part.substring( 0, separator ).trim().toUpperCase() );
+            } catch ( final IllegalArgumentException e ) {
+                throw new IllegalArgumentException( "Unknown operation in mix " + mix + ", expected read, write or scan" );
+            }
+            try {
+                weights[operation.ordinal()] = Integer.parseInt( part.substring( separator + 1 ).trim() );
+            } catch ( final NumberFormatException e ) {
+                throw new IllegalArgumentException( "Invalid weight in mix " + mix );
+            }
+            if ( weights[operation.ordinal()] < 0 ) {
+                throw new IllegalArgumentException( "Negative weight in mix " + mix );
+            }
+        }
+        int total = 0;
+        for ( final int weight : weights ) {
+            total += weight;
+        }
+        if ( total == 0 ) {
+            throw new IllegalArgumentException( "The mix " + mix + " has no operation with a positive weight" );
+        }
+        return weights;
+    }
+
+    boolean isMemoryBackend() {
+        return _memoryBackend;
+    }
+
+    String getHost() {
+        return _host;
+    }
+
+    int getPort() {
+        return _port;
+    }
+
+    int getThreads() {
+        return _threads;
+    }
+
+    /**
+     * @return operations per second over all threads, 0 for unlimited
+     */
+    double getRate() {
+        return _rate;
+    }
+
+    long getDurationMillis() {
+        return _durationMillis;
+    }
+
+    /**
+     * @return operations to run, 0 to run for the duration
+     */
+    long getOperations() {
+        return _operations;
+    }
+
+    /**
+     * @return the weights indexed by {@link StressTool.Operation} ordinal
+     */
+    int[] getWeights() {
+        return _weights.clone();
+    }
+
+    int getPayloadBytes() {
+        return _payloadBytes;
+    }
+
+    long getKeys() {
+        return _keys;
+    }
+
+    KeyDistribution getDistribution() {
+        return _distribution;
+    }
+
+    int getScanRows() {
+        return _scanRows;
+    }
+
+    long getIntervalMillis() {
+        return _intervalMillis;
+    }
+
+    boolean isPopulate() {
+        return _populate;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder mix = new StringBuilder();
+        for ( final StressTool.Operation operation : StressTool.Operation.values() ) {
+            mix.append( mix.length() == 0 ? "" : "," ).append( operation.name().toLowerCase() ).append( '=' )
+                .append( _weights[operation.ordinal()] );
+        }
+        return ( _memoryBackend ? "memory" : "thrift " + _host + ":" + _port ) + ", " + _threads + " threads, rate "
+            + ( _rate > 0 ? _rate + " ops/s" : "unlimited" ) + ", "
+            + ( _operations > 0 ? _operations + " operations" : _durationMillis / 1000 + "s" ) + ", mix " + mix + ", payload "
+            + _payloadBytes + " bytes, " + _keys + " keys " + _distribution + ", scans of " + _scanRows + " rows";
+    }
+
+}
@@ -0,0 +1,318 @@
+/*
+ * $ Id $
+ * (c) Copyright 2010 Marcus Thiesen (marcus@thiesen.org)
+ *
+ *  This file is part of HelenaORM.
+ *
+ *  HelenaORM is free software: you can redistribute it and/or modify
+ *  it under the terms of the GNU General Public License as published by
+ *  the Free Software Foundation, either version 3 of the License, or
+ *  (at your option) any later version.
+ *
+ *  HelenaORM is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License
+ *  along with HelenaORM.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ */
+package org.thiesen.helenaorm.stress;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+import org.thiesen.helenaorm.HelenaDAO;
+import org.thiesen.helenaorm.HelenaORMDAOFactory;
+
+/**
+ * Generates load through a {@link HelenaDAO} in the spirit of
+ * cassandra-stress, to size clusters and client pools for an entity shape.
+ * Threads run a weighted mix of single row reads, writes and range scans
+ * over keys picked from a uniform or zipfian distribution, optionally at a
+ * fixed target rate. Throughput and latency percentiles are printed every
+ * interval and summarized per operation at the end.
+ * 
+ * With a target rate, latencies are measured from the time an operation was
+ * scheduled to start, so a stalled backend shows up in the percentiles
+ * instead of just lowering the throughput. Run with <code>--help</code>
+ * for the options, <code>--backend memory</code> runs in process without a
+ * Cassandra node.
+ */
+public final class StressTool {
+
+    enum Operation {
+        READ, WRITE, SCAN
+    }
+
+    private static final String PAYLOAD_CHARACTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+    private final StressSettings _settings;
+    private final HelenaDAO<StressEntity> _dao;
+    private final LatencyHistogram[] _interval = new LatencyHistogram[Operation.values().length];
+    private final LatencyHistogram[] _total = new LatencyHistogram[Operation.values().length];
+    private final AtomicLong _errors = new AtomicLong();
+    private final AtomicReference<RuntimeException> _firstError = new AtomicReference<RuntimeException>();
+    private final AtomicLong _remaining;
+    private volatile boolean _stopped;
+
+    StressTool( final StressSettings settings, final HelenaDAO<StressEntity> dao ) {
+        _settings = settings;
+        _dao = dao;
+        for ( int i = 0; i < _interval.length; i++ ) {
+            _interval[i] = new LatencyHistogram();
+            _total[i] = new LatencyHistogram();
+        }
+        _remaining = new AtomicLong( settings.getOperations() > 0 ? settings.getOperations() : Long.MAX_VALUE );
+    }
+
+    public static void main( final String... args ) {
+        final StressSettings settings;
+        try {
+            if ( args.length == 1 && "--help".equals( args[0] ) ) {
+                System.out.print( StressSettings.USAGE );
+                return;
+            }
+            settings = StressSettings.parse( args );
+        } catch ( final IllegalArgumentException e ) {
+            System.err.println( e.getMessage() );
+            System.err.print( StressSettings.USAGE );
+            System.exit( 1 );
+            return;
+        }
+
+        HelenaORMDAOFactory factory = HelenaORMDAOFactory.withConfig( settings.getHost(), settings.getPort() );
+        if ( settings.isMemoryBackend() ) {
+            factory = factory.withBackend( new InMemoryBackend() );
+        }
+        final StressTool tool = new StressTool( settings, factory.makeDaoForClass( StressEntity.class ) );
+        System.out.println( "Stressing " + settings );
+        if ( settings.isPopulate() ) {
+            tool.populate();
+        }
+        tool.run();
+        System.exit( tool._errors.get() == 0 ? 0 : 2 );
+    }
+
+    /**
+     * Writes every key once, spread over all threads, without measuring.
+     */
+    void populate() {
+        final long start = System.currentTimeMillis();
+        final AtomicLong next = new AtomicLong();
+        final ExecutorService executor = Executors.newFixedThreadPool( _settings.getThreads() );
+        for ( int i = 0; i < _settings.getThreads(); i++ ) {
+            executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    final Random random = new Random();
+                    for ( long key = next.getAndIncrement(); key < _settings.getKeys(); key = next.getAndIncrement() ) {
+                        _dao.insert( entity( key, random ) );
+                    }
+                }
+            } );
+        }
+        awaitTermination( executor );
+        System.out.println( "Populated " + _settings.getKeys() + " keys in " + ( System.currentTimeMillis() - start ) + "ms" );
+    }
+
+    void run() {
+        final int threads = _settings.getThreads();
+        final CountDownLatch finished = new CountDownLatch( threads );
+        final ExecutorService executor = Executors.newFixedThreadPool( threads );
+        final long start = System.nanoTime();
+        for ( int i = 0; i < threads; i++ ) {
+            executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        work( start );
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            } );
+        }
+
+        System.out.println( String.format( "%8s %10s %10s %10s %10s %8s %9s %9s %9s %9s %9s", "time_s", "ops/s", "read/s", "write/s",
+                "scan/s", "errors", "p50_ms", "p95_ms", "p99_ms", "p999_ms", "max_ms" ) );
+        final long deadline = start + TimeUnit.MILLISECONDS.toNanos( _settings.getDurationMillis() );
+        long intervalStart = start;
+        long errors = 0;
+        try {
+            while ( !finished.await( Math.min( _settings.getIntervalMillis(), remainingMillis( deadline ) ), TimeUnit.MILLISECONDS ) ) {
+                final long now = System.nanoTime();
+                final long intervalErrors = _errors.get();
+                report( now - start, now - intervalStart, intervalErrors - errors );
+                intervalStart = now;
+                errors = intervalErrors;
+                if ( _settings.getOperations() == 0 && now >= deadline ) {
+                    break;
+                }
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        _stopped = true;
+        awaitTermination( executor );
+        final long end = System.nanoTime();
+        if ( _settings.getOperations() > 0 ) {
+            report( end - start, end - intervalStart, _errors.get() - errors );
+        }
+        summarize( end - start );
+    }
+
+    private long remainingMillis( final long deadline ) {
+        if ( _settings.getOperations() > 0 ) {
+            return Long.MAX_VALUE;
+        }
+        return Math.max( 1, TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() + 999999 ) );
+    }
+
+    /**
+     * Runs operations until stopped. With a target rate every thread runs
+     * its share on a fixed schedule and latencies count from the scheduled
+     * start.
+     */
+    private void work( final long start ) {
+        final Random random = new Random();
+        final int[] weights = _settings.getWeights();
+        int totalWeight = 0;
+        for ( final int weight : weights ) {
+            totalWeight += weight;
+        }
+        final long intervalNanos = _settings.getRate() > 0 ? (long) ( _settings.getThreads() * 1e9 / _settings.getRate() ) : 0;
+        long scheduled = start + (long) ( random.nextDouble() * intervalNanos );
+
+        while ( !_stopped && _remaining.getAndDecrement() > 0 ) {
+            final long operationStart;
+            if ( intervalNanos > 0 ) {
+                final long wait = scheduled - System.nanoTime();
+                if ( wait > 0 ) {
+                    LockSupport.parkNanos( wait );
+                }
+                operationStart = scheduled;
+                scheduled += intervalNanos;
+            } else {
+                operationStart = System.nanoTime();
+            }
+
+            final Operation operation = pick( weights, totalWeight, random );
+            try {
+                execute( operation, random );
+                final long latency = System.nanoTime() - operationStart;
+                _interval[operation.ordinal()].record( latency );
+                _total[operation.ordinal()].record( latency );
+            } catch ( final RuntimeException e ) {
+                _errors.incrementAndGet();
+                _firstError.compareAndSet( null, e );
+            }
+        }
+    }
+
+    private static Operation pick( final int[] weights, final int totalWeight, final Random random ) {
+        int choice = random.nextInt( totalWeight );
+        for ( final Operation operation : Operation.values() ) {
+            choice -= weights[operation.ordinal()];
+            if ( choice < 0 ) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException( "Weights do not add up to " + totalWeight );
+    }
+
+    private void execute( final Operation operation, final Random random ) {
+        final long key = _settings.getDistribution().next( random );
+        switch ( operation ) {
+        case READ:
+            _dao.get( keyOf( key ) );
+            break;
+        case WRITE:
+            _dao.insert( entity( key, random ) );
+            break;
+        case SCAN:
+            _dao.getRange( keyOf( key ), "", _settings.getScanRows() );
+            break;
+        default:
+            throw new IllegalArgumentException( operation.name() );
+        }
+    }
+
+    /**
+     * Zero padded, so the order of the keys matches the order of their indexes.
+     */
+    private static String keyOf( final long key ) {
+        return String.format( "key%012d", Long.valueOf( key ) );
+    }
+
+    private StressEntity entity( final long key, final Random random ) {
+        final char[] payload = new char[_settings.getPayloadBytes()];
+        for ( int i = 0; i < payload.length; i++ ) {
+            payload[i] = PAYLOAD_CHARACTERS.charAt( random.nextInt( PAYLOAD_CHARACTERS.length() ) );
+        }
+        final StressEntity entity = new StressEntity();
+        entity.setId( keyOf( key ) );
+        entity.setPayload( new String( payload ) );
+        entity.setVersion( Long.valueOf( random.nextLong() ) );
+        entity.setUpdated( Long.valueOf( System.currentTimeMillis() ) );
+        return entity;
+    }
+
+    private void report( final long elapsedNanos, final long intervalNanos, final long errors ) {
+        final double seconds = Math.max( 1, intervalNanos ) / 1e9;
+        final LatencyHistogram all = new LatencyHistogram();
+        final long[] counts = new long[_interval.length];
+        for ( int i = 0; i < _interval.length; i++ ) {
+            final LatencyHistogram drained = _interval[i].drain();
+            counts[i] = drained.getCount();
+            all.add( drained );
+        }
+        System.out.println( String.format( "%8.1f %10.0f %10.0f %10.0f %10.0f %8d %9.2f %9.2f %9.2f %9.2f %9.2f", elapsedNanos / 1e9,
+                all.getCount() / seconds, counts[Operation.READ.ordinal()] / seconds, counts[Operation.WRITE.ordinal()] / seconds,
+                counts[Operation.SCAN.ordinal()] / seconds, Long.valueOf( errors ), millis( all.getPercentileMicros( 50 ) ),
+                millis( all.getPercentileMicros( 95 ) ), millis( all.getPercentileMicros( 99 ) ),
+                millis( all.getPercentileMicros( 99.9 ) ), millis( all.getMaxMicros() ) ) );
+    }
+
+    private void summarize( final long elapsedNanos ) {
+        final double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.println( String.format( "%-8s %12s %10s %9s %9s %9s %9s %9s", "op", "count", "ops/s", "p50_ms", "p95_ms", "p99_ms",
+                "p999_ms", "max_ms" ) );
+        for ( final Operation operation : Operation.values() ) {
+            final LatencyHistogram total = _total[operation.ordinal()];
+            if ( total.getCount() == 0 ) {
+                continue;
+            }
+            System.out.println( String.format( "%-8s %12d %10.0f %9.2f %9.2f %9.2f %9.2f %9.2f", operation.name().toLowerCase(),
+                    Long.valueOf( total.getCount() ), total.getCount() / seconds, millis( total.getPercentileMicros( 50 ) ),
+                    millis( total.getPercentileMicros( 95 ) ), millis( total.getPercentileMicros( 99 ) ),
+                    millis( total.getPercentileMicros( 99.9 ) ), millis( total.getMaxMicros() ) ) );
+        }
+        System.out.println( "errors " + _errors.get() + ( _firstError.get() == null ? "" : ", first: " + _firstError.get() ) );
+    }
+
+    private static Double millis( final long micros ) {
+        return Double.valueOf( micros / 1000.0 );
+    }
+
+    private static void awaitTermination( final ExecutorService executor ) {
+        executor.shutdown();
+        try {
+            while ( !executor.awaitTermination( 1, TimeUnit.SECONDS ) ) {
+                // keep waiting for running operations
+            }
+        } catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+    }
+
+}